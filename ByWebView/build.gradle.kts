@@ -53,8 +53,12 @@ dependencies {
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.appcompat)
     implementation(libs.material)
+    implementation(libs.androidx.webkit)
+    implementation(libs.androidx.lifecycle.common)
     testImplementation(libs.junit)
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
     compileOnly("com.google.android.material:material:1.0.0")
+    // ByOkHttpInterceptor，使用时由App提供OkHttp
+    compileOnly("com.squareup.okhttp3:okhttp:4.12.0")
 }
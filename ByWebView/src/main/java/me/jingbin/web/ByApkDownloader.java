@@ -0,0 +1,492 @@
+package me.jingbin.web;
+
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInstaller;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * App内下载并安装Apk，不再跳转浏览器(锁定任务模式下浏览器可能不在白名单中，断网后也要从头下载)：
+ * - 服务器支持Range时分段并行下载，断网或退出后再次下载同一个url从上次的位置继续
+ * - 下载完成后校验SHA-256，通过PackageInstaller安装
+ * - 自动安装默认关闭，开启后也只安装有SHA-256校验值或来自信任域名(https)的Apk，
+ *   防止网页(包括嵌入的第三方页面)让App静默安装任意Apk
+ * - 同一个url正在下载时不重复下载，多个url按顺序下载
+ * <p>
+ * 安装需要App声明 REQUEST_INSTALL_PACKAGES 权限，设备所有者(Device Owner)安装时不需要用户确认。
+ * 网页中的Apk链接通过ByUrlRouter使用：
+ * <pre>
+ * ByApkDownloader downloader = new ByApkDownloader.Builder(context)
+ *         .setInstallOnComplete(true)
+ *         .addTrustedHost("dl.example.com")
+ *         .setListener(listener)
+ *         .build();
+ * ByUrlRouter router = new ByUrlRouter.Builder(context)
+ *         .setApkDownloader(downloader)
+ *         .build();
+ * </pre>
+ */
+public class ByApkDownloader {
+
+    private static final String ACTION_INSTALL_STATUS = "me.jingbin.web.action.INSTALL_STATUS";
+    private static final String EXTRA_URL = "me.jingbin.web.extra.URL";
+    /**
+     * 主线程回调进度的最小间隔
+     */
+    private static final long PROGRESS_INTERVAL_MS = 200;
+
+    private final Context mContext;
+    private final File mDir;
+    private final long mChunkSize;
+    private final int mParallelism;
+    private final int mTimeoutMs;
+    private final int mMaxRetries;
+    private final boolean isInstallOnComplete;
+    private final Listener mListener;
+    private final ChecksumProvider mChecksumProvider;
+    private final Set<String> mTrustedHosts;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, ByChunkDownloader> mRunning = new HashMap<>();
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ByApkDownloader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private boolean isReceiverRegistered = false;
+
+    private final BroadcastReceiver mInstallReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String url = intent.getStringExtra(EXTRA_URL);
+            int status = intent.getIntExtra(PackageInstaller.EXTRA_STATUS, PackageInstaller.STATUS_FAILURE);
+            if (status == PackageInstaller.STATUS_PENDING_USER_ACTION) {
+                // 需要用户确认，打开系统的安装界面
+                Intent confirm = intent.getParcelableExtra(Intent.EXTRA_INTENT);
+                if (confirm != null) {
+                    try {
+                        confirm.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+                        context.startActivity(confirm);
+                    } catch (Exception e) {
+                        if (mListener != null) {
+                            mListener.onInstallResult(url, false, e.getMessage());
+                        }
+                    }
+                }
+                return;
+            }
+            if (mListener != null) {
+                mListener.onInstallResult(url, status == PackageInstaller.STATUS_SUCCESS,
+                        intent.getStringExtra(PackageInstaller.EXTRA_STATUS_MESSAGE));
+            }
+        }
+    };
+
+    /**
+     * 主线程回调
+     */
+    public static abstract class Listener {
+
+        /**
+         * @param total 未知时为-1
+         */
+        public void onProgress(String url, long downloaded, long total) {
+
+        }
+
+        public void onSuccess(String url, File apk) {
+
+        }
+
+        /**
+         * 已下载的部分保留，再次下载时继续
+         */
+        public void onFailure(String url, Exception e) {
+
+        }
+
+        public void onInstallResult(String url, boolean isSuccess, String message) {
+
+        }
+    }
+
+    /**
+     * 网页中的链接没有校验值时，用来获取期望的SHA-256
+     */
+    public interface ChecksumProvider {
+        /**
+         * 下载线程调用，可以请求网络
+         *
+         * @return SHA-256(十六进制)，null 表示不校验
+         */
+        String getSha256(String url);
+    }
+
+    private ByApkDownloader(Builder builder) {
+        this.mContext = builder.mContext;
+        this.mDir = builder.mDir != null ? builder.mDir : new File(mContext.getCacheDir(), "by_apk");
+        this.mChunkSize = builder.mChunkSize;
+        this.mParallelism = builder.mParallelism;
+        this.mTimeoutMs = builder.mTimeoutMs;
+        this.mMaxRetries = builder.mMaxRetries;
+        this.isInstallOnComplete = builder.isInstallOnComplete;
+        this.mListener = builder.mListener;
+        this.mChecksumProvider = builder.mChecksumProvider;
+        this.mTrustedHosts = new HashSet<>(builder.mTrustedHosts);
+    }
+
+    /**
+     * 网页链接是否按Apk下载：http(s)且路径以.apk结尾，不看参数
+     */
+    public static boolean isApkUrl(String url) {
+        if (url == null || (!url.startsWith("http:") && !url.startsWith("https:"))) {
+            return false;
+        }
+        String path = Uri.parse(url).getPath();
+        return path != null && path.toLowerCase(Locale.US).endsWith(".apk");
+    }
+
+    /**
+     * 有SHA-256校验值，或https且域名在信任列表中时才自动安装
+     */
+    private boolean isInstallAllowed(String url, String sha256) {
+        if (sha256 != null) {
+            return true;
+        }
+        Uri uri = Uri.parse(url);
+        String host = uri.getHost();
+        return "https".equalsIgnoreCase(uri.getScheme()) && host != null
+                && mTrustedHosts.contains(host.toLowerCase(Locale.US));
+    }
+
+    /**
+     * 下载，SHA-256由ChecksumProvider提供
+     */
+    public void download(String url) {
+        download(url, null);
+    }
+
+    /**
+     * @param sha256 期望的SHA-256(十六进制)，为null时使用ChecksumProvider
+     */
+    public void download(final String url, final String sha256) {
+        final ByChunkDownloader downloader = new ByChunkDownloader(mDir, mChunkSize, mParallelism, mTimeoutMs, mMaxRetries);
+        synchronized (mRunning) {
+            if (mRunning.containsKey(url)) {
+                return;
+            }
+            mRunning.put(url, downloader);
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String expected = sha256;
+                    if (expected == null && mChecksumProvider != null) {
+                        expected = mChecksumProvider.getSha256(url);
+                    }
+                    File apk = downloader.download(url, ByWebTools.md5(url) + ".apk", expected, new ByChunkDownloader.Listener() {
+                        private volatile long mLastTime = 0;
+
+                        @Override
+                        public void onProgress(long downloaded, long total) {
+                            // 多个下载线程回调，只需要大致的进度
+                            long now = System.currentTimeMillis();
+                            if (now - mLastTime >= PROGRESS_INTERVAL_MS || downloaded == total) {
+                                mLastTime = now;
+                                postProgress(url, downloaded, total);
+                            }
+                        }
+                    });
+                    postSuccess(url, apk);
+                    if (isInstallOnComplete) {
+                        if (isInstallAllowed(url, expected)) {
+                            installInternal(url, apk);
+                        } else {
+                            postInstallFailure(url, new SecurityException("No SHA-256 and untrusted host: " + url));
+                        }
+                    }
+                } catch (Exception e) {
+                    postFailure(url, e);
+                } finally {
+                    synchronized (mRunning) {
+                        mRunning.remove(url);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消下载，已下载的部分保留
+     */
+    public void cancel(String url) {
+        synchronized (mRunning) {
+            ByChunkDownloader downloader = mRunning.get(url);
+            if (downloader != null) {
+                downloader.cancel();
+            }
+        }
+    }
+
+    public boolean isDownloading(String url) {
+        synchronized (mRunning) {
+            return mRunning.containsKey(url);
+        }
+    }
+
+    /**
+     * 通过PackageInstaller安装，结果通过 Listener.onInstallResult() 回调
+     * 不检查来源，由App确认后调用，如 onSuccess() 中询问用户
+     */
+    public void install(final File apk) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                installInternal(Uri.fromFile(apk).toString(), apk);
+            }
+        });
+    }
+
+    private void installInternal(String url, File apk) {
+        PackageInstaller installer = mContext.getPackageManager().getPackageInstaller();
+        PackageInstaller.Session session = null;
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            PackageInstaller.SessionParams params = new PackageInstaller.SessionParams(PackageInstaller.SessionParams.MODE_FULL_INSTALL);
+            params.setSize(apk.length());
+            int sessionId = installer.createSession(params);
+            session = installer.openSession(sessionId);
+            input = new FileInputStream(apk);
+            output = session.openWrite("base.apk", 0, apk.length());
+            byte[] buffer = new byte[16 * 1024];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                output.write(buffer, 0, read);
+            }
+            session.fsync(output);
+            output.close();
+            output = null;
+
+            registerInstallReceiver();
+            Intent intent = new Intent(ACTION_INSTALL_STATUS)
+                    .setPackage(mContext.getPackageName())
+                    .putExtra(EXTRA_URL, url);
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                // 系统需要填入安装结果
+                flags |= PendingIntent.FLAG_MUTABLE;
+            }
+            PendingIntent pendingIntent = PendingIntent.getBroadcast(mContext, sessionId, intent, flags);
+            session.commit(pendingIntent.getIntentSender());
+        } catch (Exception e) {
+            if (session != null) {
+                session.abandon();
+            }
+            postInstallFailure(url, e);
+        } finally {
+            ByWebTools.closeQuietly(input);
+            ByWebTools.closeQuietly(output);
+            if (session != null) {
+                session.close();
+            }
+        }
+    }
+
+    private synchronized void registerInstallReceiver() {
+        if (isReceiverRegistered) {
+            return;
+        }
+        isReceiverRegistered = true;
+        IntentFilter filter = new IntentFilter(ACTION_INSTALL_STATUS);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            mContext.registerReceiver(mInstallReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            mContext.registerReceiver(mInstallReceiver, filter);
+        }
+    }
+
+    /**
+     * 不再使用时调用，取消所有下载
+     */
+    public synchronized void destroy() {
+        synchronized (mRunning) {
+            for (ByChunkDownloader downloader : mRunning.values()) {
+                downloader.cancel();
+            }
+        }
+        mExecutor.shutdown();
+        if (isReceiverRegistered) {
+            isReceiverRegistered = false;
+            mContext.unregisterReceiver(mInstallReceiver);
+        }
+    }
+
+    private void postProgress(final String url, final long downloaded, final long total) {
+        if (mListener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onProgress(url, downloaded, total);
+            }
+        });
+    }
+
+    private void postSuccess(final String url, final File apk) {
+        if (mListener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onSuccess(url, apk);
+            }
+        });
+    }
+
+    private void postFailure(final String url, final Exception e) {
+        if (BuildConfig.DEBUG) {
+            e.printStackTrace();
+        }
+        if (mListener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onFailure(url, e);
+            }
+        });
+    }
+
+    private void postInstallFailure(final String url, final Exception e) {
+        if (BuildConfig.DEBUG) {
+            e.printStackTrace();
+        }
+        if (mListener == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mListener.onInstallResult(url, false, e.getMessage());
+            }
+        });
+    }
+
+    public static class Builder {
+        private final Context mContext;
+        private File mDir;
+        private long mChunkSize = 4 * 1024 * 1024;
+        private int mParallelism = 3;
+        private int mTimeoutMs = 15 * 1000;
+        private int mMaxRetries = 3;
+        private boolean isInstallOnComplete = false;
+        private Listener mListener;
+        private ChecksumProvider mChecksumProvider;
+        private final Set<String> mTrustedHosts = new HashSet<>();
+
+        public Builder(@NonNull Context context) {
+            this.mContext = context.getApplicationContext();
+        }
+
+        /**
+         * @param dir 保存目录，默认 cacheDir/by_apk
+         */
+        public Builder setDirectory(File dir) {
+            this.mDir = dir;
+            return this;
+        }
+
+        /**
+         * @param chunkSize 每段的大小，默认4MB
+         */
+        public Builder setChunkSize(long chunkSize) {
+            this.mChunkSize = chunkSize;
+            return this;
+        }
+
+        /**
+         * @param parallelism 同时下载的段数，默认3
+         */
+        public Builder setParallelism(int parallelism) {
+            this.mParallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * @param timeoutMs 连接和读取超时，默认15秒
+         */
+        public Builder setTimeout(int timeoutMs) {
+            this.mTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * @param maxRetries 每段失败后的重试次数，默认3
+         */
+        public Builder setMaxRetries(int maxRetries) {
+            this.mMaxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * @param installOnComplete 下载完成后是否自动安装，默认false
+         *                          只安装有SHA-256校验值或来自 addTrustedHost() 的Apk
+         */
+        public Builder setInstallOnComplete(boolean installOnComplete) {
+            this.isInstallOnComplete = installOnComplete;
+            return this;
+        }
+
+        public Builder setListener(Listener listener) {
+            this.mListener = listener;
+            return this;
+        }
+
+        public Builder setChecksumProvider(ChecksumProvider checksumProvider) {
+            this.mChecksumProvider = checksumProvider;
+            return this;
+        }
+
+        /**
+         * 没有SHA-256时也允许自动安装的域名，完全匹配且只限https
+         */
+        public Builder addTrustedHost(String host) {
+            if (host != null && host.length() > 0) {
+                mTrustedHosts.add(host.toLowerCase(Locale.US));
+            }
+            return this;
+        }
+
+        public ByApkDownloader build() {
+            return new ByApkDownloader(this);
+        }
+    }
+}
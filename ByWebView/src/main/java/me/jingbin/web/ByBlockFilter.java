@@ -0,0 +1,573 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 子资源屏蔽(广告、统计、追踪脚本)，在shouldInterceptRequest中返回空的响应：
+ * - 域名规则编译成按域名倒序的前缀树，匹配域名及其子域名(hosts文件格式只匹配域名本身)
+ * - 路径规则编译成Aho-Corasick自动机，一次遍历url匹配全部关键词
+ * - build()后在后台线程读取规则并编译，编译完成前不屏蔽
+ * - 不屏蔽主页面
+ * <p>
+ * 规则格式(每行一条)：
+ * <pre>
+ * ! 或 # 开头为注释
+ * ||ads.example.com^      域名及子域名
+ * 0.0.0.0 ads.example.com hosts文件格式，只匹配这个域名
+ * example.com             域名
+ * /ad/banner.             路径关键词，匹配去掉协议后的url
+ * </pre>
+ * 不支持的规则(例外规则@@、元素隐藏##、中间带*的规则、带$important以外选项的规则)会跳过
+ */
+public class ByBlockFilter implements ByRequestInterceptor {
+
+    private static final String TAG = "ByBlockFilter";
+
+    private final List<String> mLines;
+    private final List<File> mFiles;
+    private volatile Compiled mCompiled;
+    private volatile long mBuildTimeMs = -1;
+
+    // 统计
+    private final AtomicLong mCheckCount = new AtomicLong();
+    private final AtomicLong mBlockCount = new AtomicLong();
+    private final AtomicLong mMatchNanos = new AtomicLong();
+    private final AtomicLong mMaxMatchNanos = new AtomicLong();
+
+    private ByBlockFilter(Builder builder) {
+        this.mLines = builder.mLines;
+        this.mFiles = builder.mFiles;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                compile();
+            }
+        }, TAG);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void compile() {
+        long start = SystemClock.elapsedRealtime();
+        RuleParser parser = new RuleParser();
+        for (String line : mLines) {
+            parser.parse(line);
+        }
+        for (File file : mFiles) {
+            BufferedReader reader = null;
+            try {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    parser.parse(line);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "读取规则失败: " + file + " " + e.getMessage());
+            } finally {
+                ByWebTools.closeQuietly(reader);
+            }
+        }
+        Compiled compiled = parser.compile();
+        mBuildTimeMs = SystemClock.elapsedRealtime() - start;
+        mCompiled = compiled;
+    }
+
+    @Override
+    public WebResourceResponse intercept(WebView view, WebResourceRequest request) {
+        Compiled compiled = mCompiled;
+        if (compiled == null || request.isForMainFrame()) {
+            return null;
+        }
+        String url = request.getUrl().toString();
+        String host = request.getUrl().getHost();
+        if (TextUtils.isEmpty(host)) {
+            return null;
+        }
+        long start = System.nanoTime();
+        int ruleId = compiled.match(host, url);
+        long nanos = System.nanoTime() - start;
+        mCheckCount.incrementAndGet();
+        mMatchNanos.addAndGet(nanos);
+        long max = mMaxMatchNanos.get();
+        while (nanos > max && !mMaxMatchNanos.compareAndSet(max, nanos)) {
+            max = mMaxMatchNanos.get();
+        }
+        if (ruleId < 0) {
+            return null;
+        }
+        compiled.hits.incrementAndGet(ruleId);
+        mBlockCount.incrementAndGet();
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Access-Control-Allow-Origin", "*");
+        return new WebResourceResponse("text/plain", "utf-8", 200, "OK", headers, new ByteArrayInputStream(new byte[0]));
+    }
+
+    /**
+     * 是否已编译完成，之前的请求不会被屏蔽
+     */
+    public boolean isReady() {
+        return mCompiled != null;
+    }
+
+    /**
+     * 是否屏蔽，主线程外调用(编译完成前返回false)
+     */
+    public boolean isBlocked(String url) {
+        Compiled compiled = mCompiled;
+        if (compiled == null || TextUtils.isEmpty(url)) {
+            return false;
+        }
+        String host = Uri.parse(url).getHost();
+        return !TextUtils.isEmpty(host) && compiled.match(host, url) >= 0;
+    }
+
+    /**
+     * 读取和编译规则的耗时，未完成时为-1
+     */
+    public long getBuildTimeMs() {
+        return mBuildTimeMs;
+    }
+
+    /**
+     * 生效的规则数
+     */
+    public int getRuleCount() {
+        Compiled compiled = mCompiled;
+        return compiled == null ? 0 : compiled.rules.length;
+    }
+
+    /**
+     * 跳过的不支持的规则数
+     */
+    public int getSkippedRuleCount() {
+        Compiled compiled = mCompiled;
+        return compiled == null ? 0 : compiled.skipped;
+    }
+
+    public long getCheckCount() {
+        return mCheckCount.get();
+    }
+
+    public long getBlockCount() {
+        return mBlockCount.get();
+    }
+
+    /**
+     * 平均每个请求的匹配耗时，单位纳秒
+     */
+    public long getAverageMatchNanos() {
+        long count = mCheckCount.get();
+        return count == 0 ? 0 : mMatchNanos.get() / count;
+    }
+
+    public long getMaxMatchNanos() {
+        return mMaxMatchNanos.get();
+    }
+
+    /**
+     * 每条规则屏蔽的次数，只包含屏蔽过的规则，按次数从多到少排列
+     */
+    public Map<String, Integer> getHitCounts() {
+        Compiled compiled = mCompiled;
+        Map<String, Integer> result = new LinkedHashMap<>();
+        if (compiled == null) {
+            return result;
+        }
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < compiled.rules.length; i++) {
+            if (compiled.hits.get(i) > 0) {
+                ids.add(i);
+            }
+        }
+        final AtomicIntegerArray hits = compiled.hits;
+        Collections.sort(ids, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Integer.compare(hits.get(o2), hits.get(o1));
+            }
+        });
+        for (Integer id : ids) {
+            result.put(compiled.rules[id], hits.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 解析规则，相同的规则只保留一条
+     */
+    private static class RuleParser {
+        final List<String> rules = new ArrayList<>();
+        final Map<String, Integer> ruleIds = new HashMap<>();
+        final HostNode hostRoot = new HostNode();
+        final List<String> tokens = new ArrayList<>();
+        final List<Integer> tokenRuleIds = new ArrayList<>();
+        int skipped;
+
+        void parse(String line) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("!") || line.startsWith("#") || line.startsWith("[")) {
+                return;
+            }
+            if (line.startsWith("@@") || line.contains("##") || line.contains("#@#")) {
+                skipped++;
+                return;
+            }
+            // hosts文件格式
+            if (line.startsWith("0.0.0.0 ") || line.startsWith("127.0.0.1 ")) {
+                String host = line.substring(line.indexOf(' ') + 1).trim();
+                int comment = host.indexOf('#');
+                if (comment != -1) {
+                    host = host.substring(0, comment).trim();
+                }
+                addHost(host, line, true);
+                return;
+            }
+            String rule = line;
+            int options = rule.indexOf('$');
+            if (options != -1) {
+                // $script、$third-party、$domain=等选项会缩小范围，忽略选项会误屏蔽
+                if (!isSupportedOptions(rule.substring(options + 1))) {
+                    skipped++;
+                    return;
+                }
+                rule = rule.substring(0, options);
+            }
+            boolean isHostAnchor = rule.startsWith("||");
+            if (isHostAnchor) {
+                rule = rule.substring(2);
+            } else if (rule.startsWith("|")) {
+                rule = rule.substring(1);
+            }
+            while (rule.endsWith("^") || rule.endsWith("|") || rule.endsWith("*")) {
+                rule = rule.substring(0, rule.length() - 1);
+            }
+            while (rule.startsWith("*")) {
+                rule = rule.substring(1);
+                isHostAnchor = false;
+            }
+            rule = rule.toLowerCase(Locale.US);
+            if (rule.contains("*") || rule.contains("^") || rule.contains("|")) {
+                skipped++;
+                return;
+            }
+            if (rule.indexOf('/') == -1 && rule.indexOf('.') > 0 && (isHostAnchor || isHostName(rule))) {
+                addHost(rule, line, false);
+            } else if (rule.length() >= 3) {
+                addToken(rule, line);
+            } else {
+                skipped++;
+            }
+        }
+
+        private static boolean isSupportedOptions(String options) {
+            for (String option : options.split(",")) {
+                if (!"important".equals(option.trim())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isHostName(String rule) {
+            for (int i = 0; i < rule.length(); i++) {
+                char c = rule.charAt(i);
+                if (!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '.' && c != '-') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int ruleId(String line) {
+            Integer id = ruleIds.get(line);
+            if (id == null) {
+                id = rules.size();
+                rules.add(line);
+                ruleIds.put(line, id);
+            }
+            return id;
+        }
+
+        /**
+         * @param isExact 只匹配这个域名，不匹配子域名
+         */
+        private void addHost(String host, String line, boolean isExact) {
+            if (TextUtils.isEmpty(host) || "localhost".equals(host)) {
+                return;
+            }
+            String[] labels = host.toLowerCase(Locale.US).split("\\.");
+            HostNode node = hostRoot;
+            for (int i = labels.length - 1; i >= 0; i--) {
+                if (node.ruleId >= 0) {
+                    // 已屏蔽上级域名
+                    return;
+                }
+                HostNode child = node.children.get(labels[i]);
+                if (child == null) {
+                    child = new HostNode();
+                    node.children.put(labels[i].intern(), child);
+                }
+                node = child;
+            }
+            if (isExact) {
+                if (node.ruleId < 0 && node.exactRuleId < 0) {
+                    node.exactRuleId = ruleId(line);
+                }
+            } else if (node.ruleId < 0) {
+                node.ruleId = ruleId(line);
+                // 子域名的规则不再需要
+                node.children.clear();
+            }
+        }
+
+        private void addToken(String token, String line) {
+            tokens.add(token);
+            tokenRuleIds.add(ruleId(line));
+        }
+
+        Compiled compile() {
+            AhoCorasick automaton = tokens.isEmpty() ? null : new AhoCorasick(tokens, tokenRuleIds);
+            return new Compiled(rules.toArray(new String[0]), hostRoot, automaton, skipped);
+        }
+    }
+
+    /**
+     * 域名按"."分隔后倒序的前缀树：com -> example -> ads
+     */
+    private static class HostNode {
+        final Map<String, HostNode> children = new HashMap<>(2);
+        /**
+         * 匹配域名及子域名的规则
+         */
+        int ruleId = -1;
+        /**
+         * 只匹配域名本身的规则(hosts文件格式)
+         */
+        int exactRuleId = -1;
+    }
+
+    private static class Compiled {
+        final String[] rules;
+        final HostNode hostRoot;
+        final AhoCorasick automaton;
+        final AtomicIntegerArray hits;
+        final int skipped;
+
+        Compiled(String[] rules, HostNode hostRoot, AhoCorasick automaton, int skipped) {
+            this.rules = rules;
+            this.hostRoot = hostRoot;
+            this.automaton = automaton;
+            this.hits = new AtomicIntegerArray(rules.length);
+            this.skipped = skipped;
+        }
+
+        /**
+         * @return 匹配的规则，-1表示不屏蔽
+         */
+        int match(String host, String url) {
+            int ruleId = matchHost(host);
+            if (ruleId >= 0 || automaton == null) {
+                return ruleId;
+            }
+            // 去掉协议
+            int start = url.indexOf("://");
+            return automaton.match(url, start == -1 ? 0 : start + 3);
+        }
+
+        private int matchHost(String host) {
+            HostNode node = hostRoot;
+            int end = host.length();
+            while (end > 0) {
+                int dot = host.lastIndexOf('.', end - 1);
+                String label = host.substring(dot + 1, end);
+                node = node.children.get(label.toLowerCase(Locale.US));
+                if (node == null) {
+                    return -1;
+                }
+                if (node.ruleId >= 0) {
+                    return node.ruleId;
+                }
+                if (dot == -1 && node.exactRuleId >= 0) {
+                    return node.exactRuleId;
+                }
+                end = dot;
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Aho-Corasick自动机，构建后每个状态的转移保存为有序的字符数组，匹配时二分查找
+     */
+    static class AhoCorasick {
+        private final char[][] mKeys;
+        private final int[][] mNext;
+        private final int[] mFail;
+        /**
+         * 状态本身或通过失败链接匹配的规则，-1表示没有
+         */
+        private final int[] mOutput;
+
+        AhoCorasick(List<String> tokens, List<Integer> ruleIds) {
+            List<TreeMap<Character, Integer>> gotos = new ArrayList<>();
+            List<Integer> outputs = new ArrayList<>();
+            gotos.add(new TreeMap<Character, Integer>());
+            outputs.add(-1);
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                int state = 0;
+                for (int j = 0; j < token.length(); j++) {
+                    char c = token.charAt(j);
+                    Integer next = gotos.get(state).get(c);
+                    if (next == null) {
+                        next = gotos.size();
+                        gotos.add(new TreeMap<Character, Integer>());
+                        outputs.add(-1);
+                        gotos.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                if (outputs.get(state) < 0) {
+                    outputs.set(state, ruleIds.get(i));
+                }
+            }
+            int size = gotos.size();
+            mKeys = new char[size][];
+            mNext = new int[size][];
+            mFail = new int[size];
+            mOutput = new int[size];
+            for (int i = 0; i < size; i++) {
+                TreeMap<Character, Integer> map = gotos.get(i);
+                mKeys[i] = new char[map.size()];
+                mNext[i] = new int[map.size()];
+                int index = 0;
+                for (Map.Entry<Character, Integer> entry : map.entrySet()) {
+                    mKeys[i][index] = entry.getKey();
+                    mNext[i][index] = entry.getValue();
+                    index++;
+                }
+                mOutput[i] = outputs.get(i);
+            }
+            // 按层遍历计算失败链接
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            for (int child : mNext[0]) {
+                mFail[child] = 0;
+                queue[tail++] = child;
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                for (int k = 0; k < mKeys[state].length; k++) {
+                    char c = mKeys[state][k];
+                    int child = mNext[state][k];
+                    int fail = mFail[state];
+                    while (fail != 0 && next(fail, c) < 0) {
+                        fail = mFail[fail];
+                    }
+                    int target = next(fail, c);
+                    mFail[child] = target >= 0 && target != child ? target : 0;
+                    if (mOutput[child] < 0) {
+                        mOutput[child] = mOutput[mFail[child]];
+                    }
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        private int next(int state, char c) {
+            int index = Arrays.binarySearch(mKeys[state], c);
+            return index < 0 ? -1 : mNext[state][index];
+        }
+
+        /**
+         * 不区分大小写，返回第一个匹配的规则，-1表示没有
+         */
+        int match(String text, int start) {
+            int state = 0;
+            for (int i = start, length = text.length(); i < length; i++) {
+                char c = Character.toLowerCase(text.charAt(i));
+                int next = next(state, c);
+                while (next < 0 && state != 0) {
+                    state = mFail[state];
+                    next = next(state, c);
+                }
+                state = next < 0 ? 0 : next;
+                if (mOutput[state] >= 0) {
+                    return mOutput[state];
+                }
+            }
+            return -1;
+        }
+    }
+
+    public static class Builder {
+        private final List<String> mLines = new ArrayList<>();
+        private final List<File> mFiles = new ArrayList<>();
+
+        /**
+         * 屏蔽域名及其子域名
+         */
+        public Builder addHost(String host) {
+            if (!TextUtils.isEmpty(host)) {
+                mLines.add("||" + host + "^");
+            }
+            return this;
+        }
+
+        /**
+         * 添加规则，格式见类注释
+         */
+        public Builder addRules(String... rules) {
+            mLines.addAll(Arrays.asList(rules));
+            return this;
+        }
+
+        public Builder addRules(List<String> rules) {
+            mLines.addAll(rules);
+            return this;
+        }
+
+        /**
+         * 规则文件(每行一条)，在后台线程读取
+         */
+        public Builder addRuleFile(@NonNull File file) {
+            mFiles.add(file);
+            return this;
+        }
+
+        /**
+         * 开始在后台线程编译
+         */
+        public ByBlockFilter build() {
+            return new ByBlockFilter(this);
+        }
+    }
+}
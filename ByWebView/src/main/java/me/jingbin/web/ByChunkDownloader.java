@@ -0,0 +1,508 @@
+package me.jingbin.web;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 分段下载一个文件，只使用Java API，可以在JVM单元测试中用本地HTTP服务测试：
+ * - 服务器支持Range时按chunkSize分段并行下载，每段的进度保存在.properties文件中，中断后从上次的位置继续
+ * - 不支持Range或不知道长度时单线程下载，不能续传
+ * - 服务器文件变化(长度、ETag、Last-Modified不同)时重新下载
+ * - 下载完成后校验SHA-256，不一致时删除
+ * <p>
+ * 一个实例只下载一次，cancel()后不能再使用
+ */
+class ByChunkDownloader {
+
+    private static final String SUFFIX_TEMP = ".tmp";
+    private static final String SUFFIX_PROGRESS = ".properties";
+    private static final int BUFFER_SIZE = 16 * 1024;
+    /**
+     * 保存进度的最小间隔，每段下载完成时也会保存
+     */
+    private static final long SAVE_INTERVAL_MS = 500;
+
+    private final File mDir;
+    private final long mChunkSize;
+    private final int mParallelism;
+    private final int mTimeoutMs;
+    private final int mMaxRetries;
+    private volatile boolean isCanceled = false;
+
+    interface Listener {
+        /**
+         * 下载线程回调
+         *
+         * @param total 未知时为-1
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    /**
+     * @param maxRetries 每段失败后的重试次数，超过后整个下载失败，已下载的进度保留
+     */
+    ByChunkDownloader(File dir, long chunkSize, int parallelism, int timeoutMs, int maxRetries) {
+        this.mDir = dir;
+        this.mChunkSize = Math.max(BUFFER_SIZE, chunkSize);
+        this.mParallelism = Math.max(1, parallelism);
+        this.mTimeoutMs = timeoutMs;
+        this.mMaxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * 下载文件所在线程阻塞到完成
+     *
+     * @param fileName 保存的文件名，同一个url要使用同一个文件名才能续传
+     * @param sha256   期望的SHA-256(十六进制)，为null时不校验
+     * @return 下载完成的文件
+     */
+    File download(String url, String fileName, String sha256, Listener listener) throws IOException {
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            throw new IOException("Cannot create " + mDir);
+        }
+        File target = new File(mDir, fileName);
+        if (target.exists()) {
+            if (sha256 != null && sha256.equalsIgnoreCase(sha256(target))) {
+                return target;
+            }
+            // 没有校验值时不能确认是同一个文件，重新下载
+            target.delete();
+        }
+        File temp = new File(mDir, fileName + SUFFIX_TEMP);
+        File progressFile = new File(mDir, fileName + SUFFIX_PROGRESS);
+
+        Progress remote = probe(url);
+        if (remote.length > 0 && remote.isRangeSupported) {
+            Progress saved = Progress.load(progressFile);
+            Progress progress;
+            if (saved != null && saved.isSameFile(remote) && temp.length() == remote.length) {
+                progress = saved;
+                // 重定向后的地址可能变化
+                progress.url = remote.url;
+            } else {
+                progress = remote;
+                progress.init(mChunkSize);
+                RandomAccessFile file = new RandomAccessFile(temp, "rw");
+                try {
+                    file.setLength(progress.length);
+                } finally {
+                    ByWebTools.closeQuietly(file);
+                }
+                progress.save(progressFile);
+            }
+            try {
+                downloadChunks(progress, temp, progressFile, listener);
+            } catch (FileChangedException e) {
+                temp.delete();
+                progressFile.delete();
+                throw e;
+            }
+        } else {
+            progressFile.delete();
+            downloadStream(remote, temp, listener);
+        }
+
+        if (sha256 != null && !sha256.equalsIgnoreCase(sha256(temp))) {
+            temp.delete();
+            progressFile.delete();
+            throw new IOException("SHA-256 mismatch: " + url);
+        }
+        if (!temp.renameTo(target)) {
+            throw new IOException("Cannot rename " + temp);
+        }
+        progressFile.delete();
+        return target;
+    }
+
+    /**
+     * 取消后download()抛出InterruptedIOException，已下载的进度保留
+     */
+    void cancel() {
+        isCanceled = true;
+    }
+
+    /**
+     * 请求第一个字节，判断是否支持Range并获取长度
+     */
+    private Progress probe(String url) throws IOException {
+        HttpURLConnection connection = open(url);
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            int code = connection.getResponseCode();
+            Progress progress = new Progress();
+            // 使用重定向后的地址，每段不用再重定向
+            progress.url = connection.getURL().toString();
+            progress.etag = connection.getHeaderField("ETag");
+            progress.lastModified = connection.getHeaderField("Last-Modified");
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                progress.isRangeSupported = true;
+                progress.length = parseTotalLength(connection.getHeaderField("Content-Range"));
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                progress.length = connection.getContentLengthLong();
+            } else {
+                throw new IOException("HTTP " + code + ": " + url);
+            }
+            return progress;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void downloadChunks(final Progress progress, final File temp, final File progressFile,
+                                final Listener listener) throws IOException {
+        List<Integer> pending = new ArrayList<>();
+        long downloaded = 0;
+        for (int i = 0; i < progress.done.length; i++) {
+            downloaded += progress.done[i];
+            if (progress.done[i] < progress.chunkLength(i)) {
+                pending.add(i);
+            }
+        }
+        final AtomicLong downloadedBytes = new AtomicLong(downloaded);
+        final AtomicBoolean isFailed = new AtomicBoolean(false);
+        final AtomicReference<IOException> firstError = new AtomicReference<>();
+        if (listener != null) {
+            listener.onProgress(downloaded, progress.length);
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mParallelism, pending.size()), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ByChunkDownloader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<Void>> futures = new ArrayList<>();
+        for (final int index : pending) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    try {
+                        downloadChunkWithRetry(progress, index, temp, progressFile, downloadedBytes, isFailed, listener);
+                        return null;
+                    } catch (Exception e) {
+                        // 记录最先失败的原因，其他段不再继续
+                        firstError.compareAndSet(null, e instanceof IOException ? (IOException) e : new IOException(e));
+                        isFailed.set(true);
+                        throw e;
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // 等待其他段停止，保存它们的进度
+                }
+            }
+        } catch (InterruptedException e) {
+            isFailed.set(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdown();
+            synchronized (progress) {
+                try {
+                    progress.save(progressFile);
+                } catch (IOException e) {
+                    // 下次从上一次保存的进度继续
+                }
+            }
+        }
+        if (firstError.get() != null) {
+            throw firstError.get();
+        }
+    }
+
+    private void downloadChunkWithRetry(Progress progress, int index, File temp, File progressFile,
+                                        AtomicLong downloadedBytes, AtomicBoolean isFailed,
+                                        Listener listener) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                downloadChunk(progress, index, temp, progressFile, downloadedBytes, isFailed, listener);
+                return;
+            } catch (FileChangedException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= mMaxRetries || isCanceled || isFailed.get()) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(1000L * (attempt + 1));
+                } catch (InterruptedException interrupted) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    private void downloadChunk(Progress progress, int index, File temp, File progressFile,
+                               AtomicLong downloadedBytes, AtomicBoolean isFailed,
+                               Listener listener) throws IOException {
+        long chunkStart = index * progress.chunkSize;
+        long chunkLength = progress.chunkLength(index);
+        long done;
+        synchronized (progress) {
+            done = progress.done[index];
+        }
+        if (done >= chunkLength) {
+            return;
+        }
+        HttpURLConnection connection = open(progress.url);
+        RandomAccessFile file = null;
+        InputStream input = null;
+        try {
+            connection.setRequestProperty("Range", "bytes=" + (chunkStart + done) + "-" + (chunkStart + chunkLength - 1));
+            // 文件变化时服务器返回200和整个文件
+            String validator = progress.etag != null ? progress.etag : progress.lastModified;
+            if (validator != null) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK) {
+                throw new FileChangedException(progress.url);
+            } else if (code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("HTTP " + code + ": " + progress.url);
+            }
+            input = connection.getInputStream();
+            file = new RandomAccessFile(temp, "rw");
+            file.seek(chunkStart + done);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long lastSave = System.currentTimeMillis();
+            int read;
+            while (done < chunkLength && (read = input.read(buffer)) != -1) {
+                if (isCanceled || isFailed.get()) {
+                    throw new InterruptedIOException("Canceled");
+                }
+                int count = (int) Math.min(read, chunkLength - done);
+                file.write(buffer, 0, count);
+                done += count;
+                long now = System.currentTimeMillis();
+                synchronized (progress) {
+                    // 写入文件后再记录进度，进程被杀时不会多记
+                    progress.done[index] = done;
+                    if (done == chunkLength || now - lastSave >= SAVE_INTERVAL_MS) {
+                        lastSave = now;
+                        progress.save(progressFile);
+                    }
+                }
+                long total = downloadedBytes.addAndGet(count);
+                if (listener != null) {
+                    listener.onProgress(total, progress.length);
+                }
+            }
+            if (done < chunkLength) {
+                throw new EOFException("Chunk " + index + " ended at " + done + "/" + chunkLength);
+            }
+        } finally {
+            ByWebTools.closeQuietly(input);
+            ByWebTools.closeQuietly(file);
+            connection.disconnect();
+        }
+    }
+
+    private void downloadStream(Progress remote, File temp, Listener listener) throws IOException {
+        HttpURLConnection connection = open(remote.url);
+        InputStream input = null;
+        OutputStream output = null;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + ": " + remote.url);
+            }
+            input = connection.getInputStream();
+            output = new FileOutputStream(temp);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long downloaded = 0;
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                if (isCanceled) {
+                    throw new InterruptedIOException("Canceled");
+                }
+                output.write(buffer, 0, read);
+                downloaded += read;
+                if (listener != null) {
+                    listener.onProgress(downloaded, remote.length);
+                }
+            }
+            if (remote.length > 0 && downloaded != remote.length) {
+                throw new EOFException("Ended at " + downloaded + "/" + remote.length);
+            }
+        } finally {
+            ByWebTools.closeQuietly(input);
+            ByWebTools.closeQuietly(output);
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(mTimeoutMs);
+        connection.setReadTimeout(mTimeoutMs);
+        // 压缩后Range的偏移不是文件的偏移
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    /**
+     * Content-Range: bytes 0-0/12345
+     */
+    private static long parseTotalLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        int index = contentRange.lastIndexOf('/');
+        try {
+            return index == -1 ? -1 : Long.parseLong(contentRange.substring(index + 1).trim());
+        } catch (NumberFormatException e) {
+            // bytes 0-0/*
+            return -1;
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        InputStream input = new FileInputStream(file);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return ByWebTools.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            ByWebTools.closeQuietly(input);
+        }
+    }
+
+    /**
+     * 服务器文件已变化，需要重新下载
+     */
+    static class FileChangedException extends IOException {
+        FileChangedException(String url) {
+            super("File changed: " + url);
+        }
+    }
+
+    /**
+     * 远程文件信息和每段已下载的字节数，修改时需要同步
+     */
+    static class Progress {
+        String url;
+        long length = -1;
+        String etag;
+        String lastModified;
+        boolean isRangeSupported;
+        long chunkSize;
+        long[] done;
+
+        void init(long chunkSize) {
+            this.chunkSize = chunkSize;
+            this.done = new long[(int) ((length + chunkSize - 1) / chunkSize)];
+        }
+
+        long chunkLength(int index) {
+            return Math.min(chunkSize, length - index * chunkSize);
+        }
+
+        boolean isSameFile(Progress remote) {
+            return length == remote.length
+                    && equals(etag, remote.etag)
+                    && equals(lastModified, remote.lastModified);
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+
+        /**
+         * 先写临时文件再重命名，中途被杀不会损坏
+         */
+        void save(File file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("url", url);
+            properties.setProperty("length", String.valueOf(length));
+            if (etag != null) {
+                properties.setProperty("etag", etag);
+            }
+            if (lastModified != null) {
+                properties.setProperty("lastModified", lastModified);
+            }
+            properties.setProperty("chunkSize", String.valueOf(chunkSize));
+            for (int i = 0; i < done.length; i++) {
+                properties.setProperty("chunk." + i, String.valueOf(done[i]));
+            }
+            File temp = new File(file.getPath() + SUFFIX_TEMP);
+            OutputStream output = new FileOutputStream(temp);
+            try {
+                properties.store(output, null);
+            } finally {
+                ByWebTools.closeQuietly(output);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        }
+
+        /**
+         * @return null 表示没有或已损坏
+         */
+        static Progress load(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            InputStream input = null;
+            try {
+                input = new FileInputStream(file);
+                Properties properties = new Properties();
+                properties.load(input);
+                Progress progress = new Progress();
+                progress.url = properties.getProperty("url");
+                progress.length = Long.parseLong(properties.getProperty("length"));
+                progress.etag = properties.getProperty("etag");
+                progress.lastModified = properties.getProperty("lastModified");
+                progress.isRangeSupported = true;
+                progress.init(Long.parseLong(properties.getProperty("chunkSize")));
+                for (int i = 0; i < progress.done.length; i++) {
+                    long done = Long.parseLong(properties.getProperty("chunk." + i));
+                    progress.done[i] = Math.max(0, Math.min(done, progress.chunkLength(i)));
+                }
+                return progress;
+            } catch (Exception e) {
+                return null;
+            } finally {
+                ByWebTools.closeQuietly(input);
+            }
+        }
+    }
+}
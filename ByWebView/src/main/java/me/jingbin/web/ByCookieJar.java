@@ -0,0 +1,221 @@
+package me.jingbin.web;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.webkit.CookieManager;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 批量异步同步cookie：
+ * - 一次添加多个域名的多个cookie
+ * - commit()时在主线程使用带回调的setCookie，全部设置完成后在后台线程flush一次
+ * - 返回CompletableFuture，全部设置成功时为true
+ * <p>
+ * 示例：
+ * <pre>
+ * new ByCookieJar()
+ *         .add("https://a.com", "token=xxx; Path=/", "uid=1")
+ *         .add("https://b.com", cookieMap)
+ *         .remove("https://c.com", "token")
+ *         .commit()
+ *         .thenAccept(...);
+ * </pre>
+ */
+public class ByCookieJar {
+
+    private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+    private static Executor sFlushExecutor;
+
+    /**
+     * {url, Set-Cookie格式的cookie}，如 "token=xxx; Path=/; Max-Age=3600"
+     */
+    private final List<String[]> mCookies = new ArrayList<>();
+    private WebView mThirdPartyWebView;
+
+    public ByCookieJar add(@NonNull String url, String... cookies) {
+        if (cookies != null) {
+            for (String cookie : cookies) {
+                if (!TextUtils.isEmpty(cookie)) {
+                    mCookies.add(new String[]{url, cookie});
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @param cookies name -> value，只设置值，没有Path等属性
+     */
+    public ByCookieJar add(@NonNull String url, Map<String, String> cookies) {
+        if (cookies != null) {
+            for (Map.Entry<String, String> entry : cookies.entrySet()) {
+                mCookies.add(new String[]{url, entry.getKey() + "=" + (entry.getValue() == null ? "" : entry.getValue())});
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 让cookie过期，用来清空登录信息
+     */
+    public ByCookieJar remove(@NonNull String url, String... names) {
+        if (names != null) {
+            for (String name : names) {
+                if (!TextUtils.isEmpty(name)) {
+                    mCookies.add(new String[]{url, name + "=; Max-Age=0"});
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 允许这个WebView读取跨域cookie
+     */
+    public ByCookieJar acceptThirdPartyCookies(WebView webView) {
+        this.mThirdPartyWebView = webView;
+        return this;
+    }
+
+    public int size() {
+        return mCookies.size();
+    }
+
+    /**
+     * 设置全部cookie并flush，可以在任意线程调用
+     *
+     * @return 全部设置成功时为true，出现异常时异常结束
+     */
+    public CompletableFuture<Boolean> commit() {
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        final List<String[]> cookies = new ArrayList<>(mCookies);
+        final WebView webView = mThirdPartyWebView;
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    setCookies(cookies, webView, future);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        };
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            task.run();
+        } else {
+            MAIN_HANDLER.post(task);
+        }
+        return future;
+    }
+
+    private static void setCookies(List<String[]> cookies, WebView webView, final CompletableFuture<Boolean> future) {
+        final CookieManager cookieManager = CookieManager.getInstance();
+        cookieManager.setAcceptCookie(true);
+        if (webView != null) {
+            cookieManager.setAcceptThirdPartyCookies(webView, true);
+        }
+        if (cookies.isEmpty()) {
+            future.complete(true);
+            return;
+        }
+        final int[] remaining = {cookies.size()};
+        final boolean[] success = {true};
+        ValueCallback<Boolean> callback = new ValueCallback<Boolean>() {
+            @Override
+            public void onReceiveValue(Boolean value) {
+                // 在主线程回调
+                if (value == null || !value) {
+                    success[0] = false;
+                }
+                if (--remaining[0] == 0) {
+                    flush(cookieManager, success[0], future);
+                }
+            }
+        };
+        for (String[] cookie : cookies) {
+            cookieManager.setCookie(cookie[0], cookie[1], callback);
+        }
+    }
+
+    private static void flush(final CookieManager cookieManager, final boolean success, final CompletableFuture<Boolean> future) {
+        getFlushExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    cookieManager.flush();
+                    future.complete(success);
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private static synchronized Executor getFlushExecutor() {
+        if (sFlushExecutor == null) {
+            sFlushExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ByCookieJar");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sFlushExecutor;
+    }
+
+    /**
+     * 读取url对应的cookie
+     *
+     * @return name -> value，按CookieManager返回的顺序，没有时为空
+     */
+    @NonNull
+    public static Map<String, String> getCookies(String url) {
+        String cookies = TextUtils.isEmpty(url) ? null : CookieManager.getInstance().getCookie(url);
+        if (TextUtils.isEmpty(cookies)) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        int start = 0;
+        int length = cookies.length();
+        while (start < length) {
+            int end = cookies.indexOf(';', start);
+            if (end < 0) {
+                end = length;
+            }
+            int equals = cookies.indexOf('=', start);
+            if (equals < 0 || equals > end) {
+                String name = cookies.substring(start, end).trim();
+                if (!name.isEmpty()) {
+                    map.put(name, "");
+                }
+            } else {
+                map.put(cookies.substring(start, equals).trim(), cookies.substring(equals + 1, end).trim());
+            }
+            start = end + 1;
+        }
+        return map;
+    }
+
+    /**
+     * 读取url对应的某个cookie
+     */
+    public static String getCookie(String url, String name) {
+        return getCookies(url).get(name);
+    }
+}
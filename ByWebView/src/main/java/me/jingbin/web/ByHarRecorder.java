@@ -0,0 +1,564 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 记录WebView的请求和页面导航，用于现场排查页面慢的问题：
+ * - shouldInterceptRequest里的每个请求：URL、method、开始时间、耗时、状态码、响应大小、来源(哪个拦截器或network)、是否main frame
+ * - onPageStarted、onPageFinished、onReceivedError等导航回调
+ * - 写入两个文件轮换的日志(每行一条JSON)，总大小不超过maxBytes，在单独的线程写
+ * - exportHar()导出HAR 1.2格式，可以用Chrome DevTools等工具打开
+ * <p>
+ * 拦截器返回的响应在WebView读完数据后记录，耗时包含读取数据的时间；
+ * 走WebView自己网络请求的只能记录请求，状态码为0(出错时为错误的状态码)、大小为-1
+ * <p>
+ * 通过 ByWebView.Builder.setHarRecorder() 开启，未开启时没有额外开销；
+ * 同一目录只能有一个实例(两个文件轮换写入)，多个ByWebView共用同一个实例
+ */
+public class ByHarRecorder {
+
+    static final String SOURCE_NETWORK = "network";
+    private static final String FILE_PREFIX = "by_har_";
+    private static final String FILE_SUFFIX = ".jsonl";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final File mDir;
+    /**
+     * 每个文件的大小上限，写满后切换到另一个文件并清空它
+     */
+    private final long mSegmentBytes;
+    private final ExecutorService mExecutor;
+    /**
+     * 页面id的前缀，重启进程后页面id从1开始，同一目录中的旧记录靠前缀区分
+     */
+    private final String mSession = Long.toString(System.currentTimeMillis(), 36)
+            + Integer.toString(new Random().nextInt(36 * 36), 36);
+    private final AtomicInteger mPageId = new AtomicInteger();
+    /**
+     * 每个WebView当前的页面id，多个ByWebView共用同一个实例时请求记在各自的页面下
+     */
+    private final Map<WebView, String> mCurrentPages = Collections.synchronizedMap(new WeakHashMap<WebView, String>());
+
+    // 只在写入线程访问
+    private int mSegment;
+    private long mSegmentSize;
+    private Writer mWriter;
+
+    /**
+     * @param dir      日志目录
+     * @param maxBytes 日志总大小上限
+     */
+    public ByHarRecorder(@NonNull File dir, long maxBytes) {
+        this.mDir = dir;
+        this.mSegmentBytes = Math.max(maxBytes / 2, 16 * 1024);
+        this.mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ByHarRecorder");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                openSegment();
+            }
+        });
+    }
+
+    public ByHarRecorder(@NonNull File dir) {
+        this(dir, 4 * 1024 * 1024);
+    }
+
+    /**
+     * 请求开始，返回开始时间，传给recordRequest()
+     */
+    static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * shouldInterceptRequest的结果，在拦截线程调用
+     *
+     * @param source   处理这个请求的拦截器，null表示走WebView自己的网络请求
+     * @param start    now()的返回值
+     * @param response 拦截器的响应，会包装数据流，读完后再记录
+     */
+    WebResourceResponse recordRequest(WebView view, WebResourceRequest request, Object source, long start, WebResourceResponse response) {
+        final JSONObject entry = new JSONObject();
+        try {
+            entry.put("t", "req");
+            entry.put("page", mCurrentPages.get(view));
+            entry.put("url", request.getUrl().toString());
+            entry.put("method", request.getMethod());
+            entry.put("start", System.currentTimeMillis() - (now() - start));
+            entry.put("mainFrame", request.isForMainFrame());
+            entry.put("source", source == null ? SOURCE_NETWORK : source.getClass().getSimpleName());
+            entry.put("requestHeaders", toJson(request.getRequestHeaders()));
+            if (response == null) {
+                entry.put("status", 0);
+                entry.put("size", -1);
+                entry.put("time", now() - start);
+                write(entry);
+                return null;
+            }
+            entry.put("status", response.getStatusCode());
+            entry.put("statusText", response.getReasonPhrase());
+            entry.put("mimeType", response.getMimeType());
+            entry.put("responseHeaders", toJson(response.getResponseHeaders()));
+        } catch (JSONException e) {
+            return response;
+        }
+        InputStream data = response.getData();
+        if (data == null) {
+            finish(entry, start, 0);
+        } else {
+            response.setData(new RecordInputStream(data, entry, start));
+        }
+        return response;
+    }
+
+    /**
+     * 页面导航回调
+     *
+     * @param event started、finished
+     */
+    void recordPage(WebView view, String event, String url) {
+        String page;
+        if ("started".equals(event)) {
+            page = "page_" + mSession + "_" + mPageId.incrementAndGet();
+            mCurrentPages.put(view, page);
+        } else {
+            page = mCurrentPages.get(view);
+        }
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("t", "page");
+            entry.put("page", page);
+            entry.put("event", event);
+            entry.put("url", url);
+            entry.put("time", System.currentTimeMillis());
+        } catch (JSONException e) {
+            return;
+        }
+        write(entry);
+    }
+
+    /**
+     * onReceivedError、onReceivedHttpError，导出时合并到同一URL的请求
+     *
+     * @param status HTTP状态码，网络错误时为0
+     */
+    void recordError(WebView view, String url, boolean isMainFrame, int status, String description) {
+        JSONObject entry = new JSONObject();
+        try {
+            entry.put("t", "err");
+            entry.put("page", mCurrentPages.get(view));
+            entry.put("url", url);
+            entry.put("mainFrame", isMainFrame);
+            entry.put("status", status);
+            entry.put("error", description);
+        } catch (JSONException e) {
+            return;
+        }
+        write(entry);
+    }
+
+    private void finish(JSONObject entry, long start, long size) {
+        try {
+            entry.put("time", now() - start);
+            entry.put("size", size);
+        } catch (JSONException e) {
+            return;
+        }
+        write(entry);
+    }
+
+    private void write(final JSONObject entry) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                writeLine(entry.toString());
+            }
+        });
+    }
+
+    private void writeLine(String line) {
+        try {
+            if (mWriter == null) {
+                return;
+            }
+            long bytes = line.length() + 1;
+            if (mSegmentSize + bytes > mSegmentBytes && mSegmentSize > 0) {
+                ByWebTools.closeQuietly(mWriter);
+                mSegment = 1 - mSegment;
+                segmentFile(mSegment).delete();
+                openSegment();
+                if (mWriter == null) {
+                    return;
+                }
+            }
+            mWriter.write(line);
+            mWriter.write('\n');
+            mWriter.flush();
+            mSegmentSize += bytes;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 继续写最近修改的文件
+     */
+    private void openSegment() {
+        mDir.mkdirs();
+        if (mWriter == null) {
+            File first = segmentFile(0);
+            File second = segmentFile(1);
+            mSegment = second.lastModified() > first.lastModified() ? 1 : 0;
+        }
+        File file = segmentFile(mSegment);
+        mSegmentSize = file.length();
+        try {
+            mWriter = new OutputStreamWriter(new FileOutputStream(file, true), UTF_8);
+        } catch (IOException e) {
+            e.printStackTrace();
+            mWriter = null;
+        }
+    }
+
+    private File segmentFile(int index) {
+        return new File(mDir, FILE_PREFIX + index + FILE_SUFFIX);
+    }
+
+    /**
+     * 导出为HAR 1.2，会等待之前的记录写完，不要在主线程调用
+     */
+    public boolean exportHar(@NonNull final File harFile) {
+        Future<Boolean> future = mExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return writeHar(harFile);
+            }
+        });
+        try {
+            return future.get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 清空记录
+     */
+    public void clear() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ByWebTools.closeQuietly(mWriter);
+                segmentFile(0).delete();
+                segmentFile(1).delete();
+                mSegment = 0;
+                openSegment();
+            }
+        });
+    }
+
+    private boolean writeHar(File harFile) {
+        List<JSONObject> records = new ArrayList<>();
+        // 先读旧的文件
+        readSegment(segmentFile(1 - mSegment), records);
+        readSegment(segmentFile(mSegment), records);
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX", Locale.US);
+        Map<String, JSONObject> pages = new HashMap<>();
+        List<JSONObject> pageList = new ArrayList<>();
+        List<JSONObject> requests = new ArrayList<>();
+        List<JSONObject> errors = new ArrayList<>();
+        try {
+            for (JSONObject record : records) {
+                String type = record.optString("t");
+                if ("req".equals(type)) {
+                    requests.add(record);
+                } else if ("err".equals(type)) {
+                    errors.add(record);
+                } else if ("page".equals(type)) {
+                    String id = record.optString("page");
+                    JSONObject page = pages.get(id);
+                    if ("started".equals(record.optString("event"))) {
+                        page = new JSONObject();
+                        page.put("startedDateTime", format.format(new Date(record.optLong("time"))));
+                        page.put("id", id);
+                        page.put("title", record.optString("url"));
+                        page.put("_start", record.optLong("time"));
+                        JSONObject timings = new JSONObject();
+                        timings.put("onContentLoad", -1);
+                        timings.put("onLoad", -1);
+                        page.put("pageTimings", timings);
+                        pages.put(id, page);
+                        pageList.add(page);
+                    } else if (page != null && "finished".equals(record.optString("event"))) {
+                        page.getJSONObject("pageTimings").put("onLoad", record.optLong("time") - page.optLong("_start"));
+                    }
+                }
+            }
+            Collections.sort(requests, new Comparator<JSONObject>() {
+                @Override
+                public int compare(JSONObject o1, JSONObject o2) {
+                    return Long.compare(o1.optLong("start"), o2.optLong("start"));
+                }
+            });
+            // 错误合并到同一页面、同一URL的最后一个请求
+            for (JSONObject error : errors) {
+                for (int i = requests.size() - 1; i >= 0; i--) {
+                    JSONObject request = requests.get(i);
+                    if (request.optString("url").equals(error.optString("url"))
+                            && request.optString("page").equals(error.optString("page"))) {
+                        if (error.optInt("status") != 0) {
+                            request.put("status", error.optInt("status"));
+                        }
+                        request.put("error", error.optString("error"));
+                        break;
+                    }
+                }
+            }
+            JSONArray entries = new JSONArray();
+            for (JSONObject request : requests) {
+                entries.put(toHarEntry(request, format));
+            }
+            JSONArray harPages = new JSONArray();
+            for (JSONObject page : pageList) {
+                page.remove("_start");
+                harPages.put(page);
+            }
+            JSONObject creator = new JSONObject();
+            creator.put("name", "ByWebView");
+            creator.put("version", "");
+            JSONObject log = new JSONObject();
+            log.put("version", "1.2");
+            log.put("creator", creator);
+            log.put("pages", harPages);
+            log.put("entries", entries);
+            JSONObject har = new JSONObject();
+            har.put("log", log);
+
+            File parent = harFile.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            OutputStream out = new FileOutputStream(harFile);
+            try {
+                out.write(har.toString().getBytes(UTF_8));
+            } finally {
+                ByWebTools.closeQuietly(out);
+            }
+            return true;
+        } catch (JSONException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private static JSONObject toHarEntry(JSONObject record, SimpleDateFormat format) throws JSONException {
+        String url = record.optString("url");
+        long time = Math.max(record.optLong("time"), 0);
+        long size = record.optLong("size", -1);
+
+        JSONObject request = new JSONObject();
+        request.put("method", record.optString("method"));
+        request.put("url", url);
+        request.put("httpVersion", "");
+        request.put("cookies", new JSONArray());
+        request.put("headers", toHarHeaders(record.optJSONObject("requestHeaders")));
+        JSONArray queryString = new JSONArray();
+        Uri uri = Uri.parse(url);
+        if (uri.isHierarchical()) {
+            for (String name : uri.getQueryParameterNames()) {
+                JSONObject query = new JSONObject();
+                query.put("name", name);
+                query.put("value", uri.getQueryParameter(name));
+                queryString.put(query);
+            }
+        }
+        request.put("queryString", queryString);
+        request.put("headersSize", -1);
+        request.put("bodySize", -1);
+
+        JSONObject content = new JSONObject();
+        content.put("size", size);
+        content.put("mimeType", record.optString("mimeType"));
+        JSONObject response = new JSONObject();
+        response.put("status", record.optInt("status"));
+        response.put("statusText", record.optString("statusText"));
+        response.put("httpVersion", "");
+        response.put("cookies", new JSONArray());
+        response.put("headers", toHarHeaders(record.optJSONObject("responseHeaders")));
+        response.put("content", content);
+        response.put("redirectURL", "");
+        response.put("headersSize", -1);
+        response.put("bodySize", size);
+
+        JSONObject timings = new JSONObject();
+        timings.put("send", 0);
+        timings.put("wait", time);
+        timings.put("receive", 0);
+
+        JSONObject entry = new JSONObject();
+        if (record.has("page")) {
+            entry.put("pageref", record.optString("page"));
+        }
+        entry.put("startedDateTime", format.format(new Date(record.optLong("start"))));
+        entry.put("time", time);
+        entry.put("request", request);
+        entry.put("response", response);
+        entry.put("cache", new JSONObject());
+        entry.put("timings", timings);
+        entry.put("_source", record.optString("source"));
+        entry.put("_mainFrame", record.optBoolean("mainFrame"));
+        if (record.has("error")) {
+            entry.put("_error", record.optString("error"));
+        }
+        return entry;
+    }
+
+    private static void readSegment(File file, List<JSONObject> records) {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    records.add(new JSONObject(line));
+                } catch (JSONException e) {
+                    // 写入中断的行
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            ByWebTools.closeQuietly(reader);
+        }
+    }
+
+    private static JSONObject toJson(Map<String, String> headers) throws JSONException {
+        JSONObject json = new JSONObject();
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                json.put(header.getKey(), header.getValue());
+            }
+        }
+        return json;
+    }
+
+    private static JSONArray toHarHeaders(JSONObject headers) throws JSONException {
+        JSONArray array = new JSONArray();
+        if (headers == null) {
+            return array;
+        }
+        JSONArray names = headers.names();
+        for (int i = 0; names != null && i < names.length(); i++) {
+            JSONObject header = new JSONObject();
+            header.put("name", names.getString(i));
+            header.put("value", headers.optString(names.getString(i)));
+            array.put(header);
+        }
+        return array;
+    }
+
+    /**
+     * 统计WebView读取的数据大小，读完或关闭时记录
+     */
+    private class RecordInputStream extends FilterInputStream {
+
+        private final JSONObject mEntry;
+        private final long mStart;
+        private long mSize;
+        private boolean isRecorded;
+
+        RecordInputStream(InputStream in, JSONObject entry, long start) {
+            super(in);
+            this.mEntry = entry;
+            this.mStart = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b < 0) {
+                record();
+            } else {
+                mSize++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) {
+                record();
+            } else {
+                mSize += count;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() {
+            if (!isRecorded) {
+                isRecorded = true;
+                finish(mEntry, mStart, mSize);
+            }
+        }
+    }
+}
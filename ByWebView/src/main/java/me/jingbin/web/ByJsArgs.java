@@ -0,0 +1,248 @@
+package me.jingbin.web;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * 调用js方法的参数，按类型直接写成js代码：
+ * - 字符串做js转义(引号、换行、控制字符、U+2028/2029、</等)，不会因为用户输入的内容导致调用失败
+ * - 不解析JSON，不抛异常
+ * - 可以clear()后重复使用，减少创建对象
+ * <p>
+ * 示例：byLoadJsHolder.quickCallJs("setAnswer", ByJsArgs.create().add(1).add("a\"b").addJson(json), null)
+ */
+public final class ByJsArgs {
+
+    private final StringBuilder mBuilder = new StringBuilder(64);
+    private int mCount;
+
+    public static ByJsArgs create() {
+        return new ByJsArgs();
+    }
+
+    /**
+     * 已经是JSON格式的字符串，嵌套在Map、Iterable中使用时不会被当作普通字符串转义
+     */
+    public static Json json(String json) {
+        return new Json(json);
+    }
+
+    public ByJsArgs add(int value) {
+        next().append(value);
+        return this;
+    }
+
+    public ByJsArgs add(long value) {
+        next().append(value);
+        return this;
+    }
+
+    public ByJsArgs add(double value) {
+        writeNumber(next(), value);
+        return this;
+    }
+
+    public ByJsArgs add(boolean value) {
+        next().append(value);
+        return this;
+    }
+
+    public ByJsArgs add(CharSequence value) {
+        if (value == null) {
+            next().append("null");
+        } else {
+            writeString(next(), value);
+        }
+        return this;
+    }
+
+    /**
+     * 写成js对象，值按类型写入
+     */
+    public ByJsArgs add(Map<String, ?> value) {
+        writeValue(next(), value);
+        return this;
+    }
+
+    /**
+     * 写成js数组，值按类型写入
+     */
+    public ByJsArgs add(Iterable<?> value) {
+        writeValue(next(), value);
+        return this;
+    }
+
+    /**
+     * 支持null、Boolean、Number、CharSequence、Map、Iterable、数组、json()，其他类型用toString()作为字符串
+     */
+    public ByJsArgs addValue(Object value) {
+        writeValue(next(), value);
+        return this;
+    }
+
+    /**
+     * 已经是JSON格式的字符串，原样写入，如 "{\"a\":1}"
+     * 会被当作js执行，不要传入网页或用户输入的内容
+     */
+    public ByJsArgs addJson(String json) {
+        next().append(json == null ? "null" : json);
+        return this;
+    }
+
+    public ByJsArgs clear() {
+        mBuilder.setLength(0);
+        mCount = 0;
+        return this;
+    }
+
+    public int size() {
+        return mCount;
+    }
+
+    void appendTo(StringBuilder sb) {
+        sb.append(mBuilder);
+    }
+
+    private StringBuilder next() {
+        if (mCount++ > 0) {
+            mBuilder.append(',');
+        }
+        return mBuilder;
+    }
+
+    static void writeValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof CharSequence) {
+            writeString(sb, (CharSequence) value);
+        } else if (value instanceof Boolean || value instanceof Integer || value instanceof Long
+                || value instanceof Short || value instanceof Byte) {
+            sb.append(value);
+        } else if (value instanceof Number) {
+            writeNumber(sb, ((Number) value).doubleValue());
+        } else if (value instanceof Json) {
+            sb.append(((Json) value).json);
+        } else if (value instanceof Map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeString(sb, String.valueOf(entry.getKey()));
+                sb.append(':');
+                writeValue(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else if (value instanceof Iterable) {
+            sb.append('[');
+            boolean first = true;
+            for (Object item : (Iterable<?>) value) {
+                if (!first) {
+                    sb.append(',');
+                }
+                first = false;
+                writeValue(sb, item);
+            }
+            sb.append(']');
+        } else if (value instanceof Object[]) {
+            sb.append('[');
+            Object[] array = (Object[]) value;
+            for (int i = 0; i < array.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                writeValue(sb, array[i]);
+            }
+            sb.append(']');
+        } else if (value instanceof JSONObject || value instanceof JSONArray) {
+            sb.append(value);
+        } else {
+            writeString(sb, value.toString());
+        }
+    }
+
+    private static void writeNumber(StringBuilder sb, double value) {
+        if (value == (long) value && !Double.isInfinite(value)) {
+            sb.append((long) value);
+        } else {
+            // NaN、Infinity在js里也是合法的
+            sb.append(value);
+        }
+    }
+
+    /**
+     * 写入带双引号的js字符串
+     */
+    static void writeString(StringBuilder sb, CharSequence value) {
+        sb.append('"');
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                case '\u2028':
+                    sb.append("\\u2028");
+                    break;
+                case '\u2029':
+                    sb.append("\\u2029");
+                    break;
+                case '/':
+                    // "</script>"写在html里时会结束脚本
+                    sb.append(i > 0 && value.charAt(i - 1) == '<' ? "\\/" : "/");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append("\\u00");
+                        sb.append(Character.forDigit((c >> 4) & 0xF, 16));
+                        sb.append(Character.forDigit(c & 0xF, 16));
+                    } else {
+                        sb.append(c);
+                    }
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return mBuilder.toString();
+    }
+
+    /**
+     * 原样写入的JSON
+     */
+    public static final class Json {
+        final String json;
+
+        Json(String json) {
+            this.json = json == null ? "null" : json;
+        }
+    }
+}
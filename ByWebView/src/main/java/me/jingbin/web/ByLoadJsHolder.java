@@ -2,6 +2,7 @@ package me.jingbin.web;
 
 import android.os.Build;
 import android.text.TextUtils;
+import android.view.Choreographer;
 import android.webkit.ValueCallback;
 import android.webkit.WebView;
 
@@ -11,17 +12,215 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
 /**
  * Created by jingbin on 2020/7/4.
  */
 public class ByLoadJsHolder {
 
+    /**
+     * 不等待，直接调用(默认)
+     */
+    public static final int READY_NONE = 0;
+    /**
+     * onPageFinished后认为页面可以调用
+     */
+    public static final int READY_ON_PAGE_FINISHED = 1;
+    /**
+     * H5调用JavascriptInterface通知原生后，由原生调用markPageReady()
+     */
+    public static final int READY_ON_JS_HANDSHAKE = 2;
+    /**
+     * 自定义判断条件未满足时，重新判断的间隔
+     */
+    private static final long READY_CHECK_INTERVAL_MS = 100;
+
     private WebView mWebView;
+    /**
+     * 拼接js调用时复用
+     */
+    private final StringBuilder mScriptBuilder = new StringBuilder(128);
+    /**
+     * 批量模式：同一帧内的quickCallJs合并为一次evaluateJavascript
+     */
+    private boolean isBatchMode = false;
+    private boolean isFrameScheduled = false;
+    /**
+     * 待执行的调用，相同key的只保留最后一次
+     */
+    private final LinkedHashMap<Object, PendingCall> mPendingCalls = new LinkedHashMap<>();
+    private final Choreographer.FrameCallback mFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            isFrameScheduled = false;
+            flush();
+        }
+    };
+
+    /**
+     * 页面准备好之前的调用，相同方法名只保留最后一次
+     */
+    private int mReadySignal = READY_NONE;
+    private ReadyPredicate mReadyPredicate;
+    private boolean isPageReady = false;
+    private int mNavigationId = 0;
+    private int mMaxQueueSize = 64;
+    private final LinkedHashMap<String, PendingCall> mReadyQueue = new LinkedHashMap<>();
+    private String mPageUrl;
+    private final Runnable mReadyCheck = new Runnable() {
+        @Override
+        public void run() {
+            checkReady();
+        }
+    };
 
     ByLoadJsHolder(WebView webView) {
         this.mWebView = webView;
     }
 
+    /**
+     * 页面准备好之前的quickCallJs先排队，准备好后按顺序执行
+     *
+     * @param readySignal READY_NONE、READY_ON_PAGE_FINISHED、READY_ON_JS_HANDSHAKE
+     */
+    public void setWaitForPageReady(int readySignal) {
+        this.mReadySignal = readySignal;
+        if (readySignal == READY_NONE) {
+            drainReadyQueue();
+        }
+    }
+
+    /**
+     * 自定义页面是否准备好，onPageFinished后判断，不满足时每100ms重新判断一次
+     */
+    public void setReadyPredicate(ReadyPredicate readyPredicate) {
+        this.mReadyPredicate = readyPredicate;
+    }
+
+    /**
+     * @param maxQueueSize 排队的最大个数，超过时丢弃最早的，默认64
+     */
+    public void setMaxQueueSize(int maxQueueSize) {
+        this.mMaxQueueSize = maxQueueSize;
+    }
+
+    /**
+     * H5握手后调用(可在JavascriptInterface线程调用)，执行排队的调用
+     */
+    public void markPageReady() {
+        final int navigationId = mNavigationId;
+        mWebView.post(new Runnable() {
+            @Override
+            public void run() {
+                if (navigationId == mNavigationId) {
+                    setPageReady();
+                }
+            }
+        });
+    }
+
+    public boolean isPageReady() {
+        return isPageReady;
+    }
+
+    /**
+     * ByWebView中初始化页面状态(ByLoadJsHolder可能在页面加载完成后才创建)
+     */
+    void initPageState(boolean pageFinished, String url) {
+        this.isPageReady = pageFinished;
+        this.mPageUrl = url;
+    }
+
+    /**
+     * loadUrl()、reload()、goBack()时调用，之前排队的调用不会再执行
+     */
+    void onNavigation() {
+        mNavigationId++;
+        isPageReady = false;
+        mWebView.removeCallbacks(mReadyCheck);
+        dropReadyQueue();
+    }
+
+    /**
+     * 页面内跳转(不是原生发起的导航)，准备好的页面开始跳转时才算一次新的导航
+     */
+    void onPageStarted(String url) {
+        if (isPageReady) {
+            onNavigation();
+        }
+        mPageUrl = url;
+    }
+
+    void onPageFinished(String url) {
+        mPageUrl = url;
+        if (mReadySignal == READY_ON_PAGE_FINISHED || mReadySignal == READY_NONE) {
+            checkReady();
+        }
+    }
+
+    private void checkReady() {
+        mWebView.removeCallbacks(mReadyCheck);
+        if (isPageReady) {
+            return;
+        }
+        if (mReadyPredicate == null || mReadyPredicate.isReady(mWebView, mPageUrl)) {
+            setPageReady();
+        } else {
+            mWebView.postDelayed(mReadyCheck, READY_CHECK_INTERVAL_MS);
+        }
+    }
+
+    private void setPageReady() {
+        isPageReady = true;
+        drainReadyQueue();
+    }
+
+    private boolean shouldWait() {
+        return mReadySignal != READY_NONE && !isPageReady;
+    }
+
+    private void waitForReady(String method, String script, ValueCallback<String> callback) {
+        PendingCall old = mReadyQueue.remove(method);
+        if (old != null && old.callback != null) {
+            old.callback.onReceiveValue(null);
+        }
+        if (mReadyQueue.size() >= mMaxQueueSize) {
+            String eldest = mReadyQueue.keySet().iterator().next();
+            PendingCall dropped = mReadyQueue.remove(eldest);
+            if (dropped.callback != null) {
+                dropped.callback.onReceiveValue(null);
+            }
+        }
+        mReadyQueue.put(method, new PendingCall(script, callback));
+    }
+
+    private void drainReadyQueue() {
+        if (mReadyQueue.isEmpty()) {
+            return;
+        }
+        List<PendingCall> calls = new ArrayList<>(mReadyQueue.values());
+        mReadyQueue.clear();
+        for (PendingCall call : calls) {
+            if (isBatchMode) {
+                enqueue(new Object(), call.script, call.callback);
+            } else {
+                loadJs(call.script, call.callback);
+            }
+        }
+    }
+
+    private void dropReadyQueue() {
+        for (PendingCall call : mReadyQueue.values()) {
+            if (call.callback != null) {
+                call.callback.onReceiveValue(null);
+            }
+        }
+        mReadyQueue.clear();
+    }
+
     public void loadJs(String js, final ValueCallback<String> callback) {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             this.evaluateJs(js, callback);
@@ -46,57 +245,264 @@ public class ByLoadJsHolder {
         });
     }
 
+    /**
+     * 合法的JSON对象或数组原样传入(会被当作js执行)，其他的作为字符串传入
+     *
+     * @deprecated 网页或用户输入的内容可能被当作js执行，使用 quickCallJsString() 或 quickCallJs(method, ByJsArgs, callback)
+     */
+    @Deprecated
     public void quickCallJs(String method, ValueCallback<String> callback, String... params) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("javascript:").append(method);
-        if (params == null || params.length == 0) {
-            sb.append("()");
-        } else {
-            sb.append("(").append(concat(params)).append(")");
+        call(method, callback, params, true);
+    }
+
+    /**
+     * @param params 都作为js字符串转义后传入，JSON对象或数组使用 quickCallJs(method, ByJsArgs.create().addJson(json), callback)
+     */
+    public void quickCallJsString(String method, ValueCallback<String> callback, String... params) {
+        call(method, callback, params, false);
+    }
+
+    public void quickCallJsString(String method, String... params) {
+        call(method, null, params, false);
+    }
+
+    private void call(String method, ValueCallback<String> callback, String[] params, boolean isJsonRaw) {
+        if (shouldWait()) {
+            waitForReady(method, buildScript("", method, params, isJsonRaw, null), callback);
+            return;
+        }
+        if (isBatchMode) {
+            enqueue(new Object(), buildScript("", method, params, isJsonRaw, null), callback);
+            return;
+        }
+        loadJs(buildScript("javascript:", method, params, isJsonRaw, null), callback);
+    }
+
+    /**
+     * 按类型传参，字符串会做js转义
+     *
+     * @param args 如 ByJsArgs.create().add(1).add("text")，可为null
+     */
+    public void quickCallJs(String method, ByJsArgs args, ValueCallback<String> callback) {
+        if (shouldWait()) {
+            waitForReady(method, buildScript("", method, null, false, args), callback);
+            return;
+        }
+        if (isBatchMode) {
+            enqueue(new Object(), buildScript("", method, null, false, args), callback);
+            return;
         }
-        loadJs(sb.toString(), callback);
+        loadJs(buildScript("javascript:", method, null, false, args), callback);
     }
 
-    private String concat(String... params) {
-        StringBuilder mStringBuilder = new StringBuilder();
+    /**
+     * 拼接js调用，复用同一个StringBuilder
+     */
+    private String buildScript(String prefix, String method, String[] params, boolean isJsonRaw, ByJsArgs args) {
+        StringBuilder sb = mScriptBuilder;
+        sb.setLength(0);
+        sb.append(prefix).append(method).append('(');
+        if (args != null) {
+            args.appendTo(sb);
+        } else if (params != null) {
+            concat(sb, params, isJsonRaw);
+        }
+        sb.append(')');
+        return sb.toString();
+    }
+
+    /**
+     * 作为字符串转义后传入，不会被当作js执行；isJsonRaw时合法的JSON对象或数组原样传入(旧的quickCallJs)
+     */
+    private static void concat(StringBuilder sb, String[] params, boolean isJsonRaw) {
         for (int i = 0; i < params.length; i++) {
             String param = params[i];
-            if (!isJson(param)) {
-                mStringBuilder.append("\"").append(param).append("\"");
-            } else {
-                mStringBuilder.append(param);
+            if (i != 0) {
+                sb.append(',');
             }
-            if (i != params.length - 1) {
-                mStringBuilder.append(" , ");
+            if (param == null) {
+                sb.append("null");
+            } else if (isJsonRaw && isJson(param)) {
+                sb.append(param);
+            } else {
+                ByJsArgs.writeString(sb, param);
             }
         }
-        return mStringBuilder.toString();
     }
 
+    /**
+     * @deprecated 使用 quickCallJsString() 或 quickCallJs(method, ByJsArgs, callback)
+     */
+    @Deprecated
     public void quickCallJs(String method, String... params) {
-        this.quickCallJs(method, null, params);
+        call(method, null, params, true);
     }
 
     public void quickCallJs(String method) {
-        this.quickCallJs(method, (String[]) null);
+        call(method, null, null, false);
     }
 
+    /**
+     * 能解析成JSONObject或JSONArray
+     */
     static boolean isJson(String target) {
         if (TextUtils.isEmpty(target)) {
             return false;
         }
-        boolean tag = false;
         try {
             if (target.startsWith("[")) {
                 new JSONArray(target);
             } else {
                 new JSONObject(target);
             }
-            tag = true;
+            return true;
         } catch (JSONException ignore) {
-//            ignore.printStackTrace();
-            tag = false;
+            return false;
+        }
+    }
+
+    /**
+     * 开启后，同一帧(Choreographer)内的quickCallJs合并为一次evaluateJavascript，
+     * 每个调用的callback仍然单独返回。需在主线程调用
+     */
+    public void setBatchMode(boolean batchMode) {
+        this.isBatchMode = batchMode;
+        if (!batchMode) {
+            flush();
+        }
+    }
+
+    /**
+     * 批量模式下同一个key在一帧内只执行最后一次，被覆盖的调用callback返回null。
+     * 非批量模式下直接执行
+     *
+     * @param key    如 "timer"、"answerSync"
+     * @param params 都作为js字符串转义后传入
+     */
+    public void quickCallJsLatest(String key, String method, ValueCallback<String> callback, String... params) {
+        if (shouldWait()) {
+            waitForReady(method, buildScript("", method, params, false, null), callback);
+        } else if (isBatchMode) {
+            enqueue(key, buildScript("", method, params, false, null), callback);
+        } else {
+            quickCallJsString(method, callback, params);
+        }
+    }
+
+    public void quickCallJsLatest(String key, String method, ByJsArgs args, ValueCallback<String> callback) {
+        if (shouldWait()) {
+            waitForReady(method, buildScript("", method, null, false, args), callback);
+        } else if (isBatchMode) {
+            enqueue(key, buildScript("", method, null, false, args), callback);
+        } else {
+            quickCallJs(method, args, callback);
+        }
+    }
+
+    private void enqueue(Object key, String script, ValueCallback<String> callback) {
+        // 先删除再添加，被覆盖的调用移到队尾
+        PendingCall old = mPendingCalls.remove(key);
+        if (old != null && old.callback != null) {
+            old.callback.onReceiveValue(null);
+        }
+        mPendingCalls.put(key, new PendingCall(script, callback));
+        if (!isFrameScheduled) {
+            isFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(mFrameCallback);
+        }
+    }
+
+    /**
+     * 立即执行所有待执行的调用
+     */
+    public void flush() {
+        if (isFrameScheduled) {
+            isFrameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+        if (mPendingCalls.isEmpty()) {
+            return;
+        }
+        final List<PendingCall> calls = new ArrayList<>(mPendingCalls.values());
+        mPendingCalls.clear();
+        if (calls.size() == 1) {
+            loadJs(calls.get(0).script, calls.get(0).callback);
+            return;
+        }
+        // 每个调用单独try，返回值放到数组里按顺序分发
+        StringBuilder sb = new StringBuilder("(function(){var r=[];");
+        boolean hasCallback = false;
+        for (PendingCall call : calls) {
+            sb.append("try{r.push(").append(call.script).append(");}catch(e){r.push(null);}");
+            hasCallback |= call.callback != null;
+        }
+        sb.append("return r;})()");
+        if (!hasCallback) {
+            loadJs(sb.toString(), null);
+            return;
+        }
+        loadJs(sb.toString(), new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                dispatchBatchResult(calls, value);
+            }
+        });
+    }
+
+    /**
+     * evaluateJavascript返回JSON数组，拆开后每一项按JSON格式返回给对应的callback
+     */
+    private static void dispatchBatchResult(List<PendingCall> calls, String value) {
+        JSONArray results = null;
+        if (value != null && value.startsWith("[")) {
+            try {
+                results = new JSONArray(value);
+            } catch (JSONException ignore) {
+            }
+        }
+        for (int i = 0; i < calls.size(); i++) {
+            ValueCallback<String> callback = calls.get(i).callback;
+            if (callback == null) {
+                continue;
+            }
+            callback.onReceiveValue(ByWebTools.toJsonString(results == null ? null : results.opt(i)));
+        }
+    }
+
+    /**
+     * 切换到新的WebView(预渲染换上、崩溃或休眠后重新创建)，之前需调用release()，保留设置
+     */
+    void attach(WebView webView) {
+        this.mWebView = webView;
+    }
+
+    /**
+     * WebView销毁时丢弃待执行的调用
+     */
+    void release() {
+        if (isFrameScheduled) {
+            isFrameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(mFrameCallback);
+        }
+        mPendingCalls.clear();
+        mWebView.removeCallbacks(mReadyCheck);
+        mReadyQueue.clear();
+    }
+
+    /**
+     * 自定义页面是否准备好
+     */
+    public interface ReadyPredicate {
+        boolean isReady(WebView webView, String url);
+    }
+
+    private static class PendingCall {
+        final String script;
+        final ValueCallback<String> callback;
+
+        PendingCall(String script, ValueCallback<String> callback) {
+            this.script = script;
+            this.callback = callback;
         }
-        return tag;
     }
 }
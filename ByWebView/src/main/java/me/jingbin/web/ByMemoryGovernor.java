@@ -0,0 +1,256 @@
+package me.jingbin.web;
+
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 内存不足时(onTrimMemory)按级别处理所有未销毁的ByWebView：
+ * - ACTION_FREE_MEMORY：清空WebView的内存缓存
+ * - ACTION_CLEAR_CACHE：清空拦截使用的ByResourceCache
+ * - ACTION_PAUSE_INVISIBLE：暂停不可见的WebView
+ * - ACTION_HIBERNATE：保存不可见的WebView的前进后退记录后销毁，onResume()时恢复，并丢弃预渲染的页面
+ * <p>
+ * 统计每个动作执行的次数，以及处理前后应用PSS的差值(处理后延迟一段时间在后台线程测量)，
+ * 渲染进程是单独的进程，休眠释放的渲染进程内存不在统计内
+ * <p>
+ * 在Application中调用一次：ByMemoryGovernor.getInstance().install(application)
+ */
+public class ByMemoryGovernor {
+
+    public static final int ACTION_FREE_MEMORY = 1;
+    public static final int ACTION_CLEAR_CACHE = 1 << 1;
+    public static final int ACTION_PAUSE_INVISIBLE = 1 << 2;
+    public static final int ACTION_HIBERNATE = 1 << 3;
+    private static final int[] ACTIONS = {ACTION_FREE_MEMORY, ACTION_CLEAR_CACHE, ACTION_PAUSE_INVISIBLE,
+            ACTION_HIBERNATE};
+    /**
+     * 处理后等待内存回收再测量
+     */
+    private static final long MEASURE_DELAY_MS = 2000;
+
+    private static volatile ByMemoryGovernor sInstance;
+
+    /**
+     * trim级别 -> 动作，使用不大于当前级别的最大级别的配置
+     */
+    private final TreeMap<Integer, Integer> mLevelActions = new TreeMap<>();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ByMemoryGovernor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+    private boolean isInstalled = false;
+
+    // 统计
+    private final int[] mActionCounts = new int[ACTIONS.length];
+    private int mTrimCount;
+    private int mLastTrimLevel = -1;
+    private volatile long mReclaimedKb;
+    private volatile long mLastReclaimedKb;
+
+    public static ByMemoryGovernor getInstance() {
+        if (sInstance == null) {
+            synchronized (ByMemoryGovernor.class) {
+                if (sInstance == null) {
+                    sInstance = new ByMemoryGovernor();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    @SuppressWarnings("deprecation")
+    private ByMemoryGovernor() {
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE, ACTION_FREE_MEMORY);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW,
+                ACTION_FREE_MEMORY | ACTION_PAUSE_INVISIBLE);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL,
+                ACTION_FREE_MEMORY | ACTION_PAUSE_INVISIBLE | ACTION_CLEAR_CACHE | ACTION_HIBERNATE);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN, ACTION_PAUSE_INVISIBLE);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND,
+                ACTION_FREE_MEMORY | ACTION_PAUSE_INVISIBLE);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_MODERATE,
+                ACTION_FREE_MEMORY | ACTION_PAUSE_INVISIBLE | ACTION_CLEAR_CACHE);
+        mLevelActions.put(ComponentCallbacks2.TRIM_MEMORY_COMPLETE,
+                ACTION_FREE_MEMORY | ACTION_PAUSE_INVISIBLE | ACTION_CLEAR_CACHE | ACTION_HIBERNATE);
+    }
+
+    /**
+     * 注册onTrimMemory，多次调用只注册一次
+     */
+    public synchronized void install(@NonNull Application application) {
+        if (isInstalled) {
+            return;
+        }
+        isInstalled = true;
+        application.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trim(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+                trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        });
+    }
+
+    /**
+     * 设置某个trim级别的动作
+     *
+     * @param level   ComponentCallbacks2.TRIM_MEMORY_*
+     * @param actions ACTION_*组合，0表示不处理
+     */
+    public ByMemoryGovernor setActions(int level, int actions) {
+        mLevelActions.put(level, actions);
+        return this;
+    }
+
+    int getActions(int level) {
+        Map.Entry<Integer, Integer> entry = mLevelActions.floorEntry(level);
+        return entry == null ? 0 : entry.getValue();
+    }
+
+    /**
+     * 按级别处理，主线程调用
+     */
+    public void trim(int level) {
+        int actions = getActions(level);
+        mTrimCount++;
+        mLastTrimLevel = level;
+        if (actions == 0) {
+            return;
+        }
+        // 处理前在主线程同步测量，保证是处理前的值；处理后的值在后台线程测量
+        final long pssBefore = Debug.getPss();
+        List<ByWebView> instances = ByWebView.getLiveInstances();
+        Set<ByResourceCache> caches = new HashSet<>();
+        boolean isMemoryFreed = false;
+        for (ByWebView byWebView : instances) {
+            if (byWebView.getWebView() == null) {
+                continue;
+            }
+            boolean isHidden = byWebView.isHidden();
+            if ((actions & ACTION_FREE_MEMORY) != 0 && !isMemoryFreed) {
+                // freeMemory()在API 19以后没有作用，清空内存缓存；缓存是所有WebView共用的，每次只清一次
+                byWebView.getWebView().clearCache(false);
+                isMemoryFreed = true;
+                count(ACTION_FREE_MEMORY);
+            }
+            if ((actions & ACTION_CLEAR_CACHE) != 0 && byWebView.getResourceCache() != null) {
+                caches.add(byWebView.getResourceCache());
+            }
+            if (isHidden && (actions & ACTION_HIBERNATE) != 0 && byWebView.hibernate()) {
+                count(ACTION_HIBERNATE);
+            } else if (isHidden && (actions & ACTION_PAUSE_INVISIBLE) != 0) {
+                byWebView.pauseByGovernor();
+                count(ACTION_PAUSE_INVISIBLE);
+            }
+        }
+        if ((actions & ACTION_HIBERNATE) != 0 && ByPrerenderer.getInstance().getPendingCount() > 0) {
+            ByPrerenderer.getInstance().clear();
+        }
+        for (final ByResourceCache cache : caches) {
+            // 删除文件，不在主线程执行
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    cache.clear();
+                }
+            });
+            count(ACTION_CLEAR_CACHE);
+        }
+        mMainHandler.postDelayed(new Runnable() {
+            @Override
+            public void run() {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        long reclaimed = Math.max(0, pssBefore - Debug.getPss());
+                        mLastReclaimedKb = reclaimed;
+                        mReclaimedKb += reclaimed;
+                    }
+                });
+            }
+        }, MEASURE_DELAY_MS);
+    }
+
+    private void count(int action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i] == action) {
+                mActionCounts[i]++;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 某个动作执行的次数(每个WebView算一次)
+     */
+    public int getActionCount(int action) {
+        for (int i = 0; i < ACTIONS.length; i++) {
+            if (ACTIONS[i] == action) {
+                return mActionCounts[i];
+            }
+        }
+        return 0;
+    }
+
+    public int getTrimCount() {
+        return mTrimCount;
+    }
+
+    public int getLastTrimLevel() {
+        return mLastTrimLevel;
+    }
+
+    /**
+     * 累计回收的内存(PSS)，单位KB
+     */
+    public long getReclaimedKb() {
+        return mReclaimedKb;
+    }
+
+    /**
+     * 最近一次回收的内存(PSS)，单位KB
+     */
+    public long getLastReclaimedKb() {
+        return mLastReclaimedKb;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByMemoryGovernor{trim=" + mTrimCount + ", lastLevel=" + mLastTrimLevel
+                + ", freeMemory=" + getActionCount(ACTION_FREE_MEMORY)
+                + ", clearCache=" + getActionCount(ACTION_CLEAR_CACHE)
+                + ", pause=" + getActionCount(ACTION_PAUSE_INVISIBLE)
+                + ", hibernate=" + getActionCount(ACTION_HIBERNATE)
+                + ", reclaimedKb=" + mReclaimedKb + "}";
+    }
+}
@@ -0,0 +1,475 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebMessageCompat;
+import androidx.webkit.WebMessagePortCompat;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于WebMessagePort的原生和H5通信通道，适合高频、大数据量的消息：
+ * - 请求/响应通过id对应，支持超时和取消(CompletableFuture.cancel)
+ * - 统计每条消息的往返耗时
+ * - 每次页面加载完成后自动重新建立通道
+ * <p>
+ * H5端通过 window.ByChannel 使用(连接时自动注入)：
+ * <pre>
+ * ByChannel.on('getAnswer', function (params) { return {...}; });   // 处理原生的请求，可返回Promise
+ * ByChannel.request('upload', {...}).then(function (result) {});     // 请求原生
+ * ByChannel.emit('penEvent', {...});                                  // 通知原生，不需要返回
+ * </pre>
+ * 只有 {@link #setAllowedOrigins} 允许的页面才会注入并建立通道，默认不允许任何页面。
+ * 只能在主线程使用
+ */
+public class ByMessageChannel {
+
+    private static final String INIT_MESSAGE = "by_channel_init:";
+    /**
+     * 只接受原生发来的(e.source为null)、带本次连接token的初始化消息，建立后不再替换端口，
+     * 防止页面中的iframe冒充原生发送端口
+     */
+    private static final String BOOTSTRAP_JS = "(function(){if(window.ByChannel){return;}"
+            + "var port=null,token=null,queue=[],handlers={},pending={},seq=0;"
+            + "function send(m){var s=JSON.stringify(m);if(port){port.postMessage(s);}else{queue.push(s);}}"
+            + "function onMessage(e){var m=JSON.parse(e.data);"
+            + "if(m.method!==undefined){var h=handlers[m.method];"
+            + "Promise.resolve().then(function(){if(!h){throw new Error('no handler: '+m.method);}return h(m.params);})"
+            + ".then(function(r){if(m.id!=null){send({id:m.id,result:r===undefined?null:r});}},"
+            + "function(err){if(m.id!=null){send({id:m.id,error:String(err&&err.message||err)});}});"
+            + "}else if(m.id!=null&&pending[m.id]){var p=pending[m.id];delete pending[m.id];"
+            + "if(m.error!=null){p.reject(new Error(m.error));}else{p.resolve(m.result);}}}"
+            + "window.addEventListener('message',function(e){"
+            + "if(port||token===null||e.source!==null||e.data!=='" + INIT_MESSAGE + "'+token||!e.ports||!e.ports[0]){return;}"
+            + "port=e.ports[0];port.onmessage=onMessage;var q=queue;queue=[];q.forEach(function(s){port.postMessage(s);});}});"
+            + "window.ByChannel={_token:function(t){if(token===null){token=t;}},on:function(method,h){handlers[method]=h;},"
+            + "request:function(method,params){return new Promise(function(resolve,reject){var id='h'+(++seq);"
+            + "pending[id]={resolve:resolve,reject:reject};send({id:id,method:method,params:params});});},"
+            + "emit:function(method,params){send({method:method,params:params});}};"
+            + "})();";
+
+    private WebView mWebView;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 允许建立通道的源，如 "https://a.com"、"https://*.a.com"
+     */
+    private Set<String> mAllowedOrigins = Collections.emptySet();
+    private ScriptHandler mScriptHandler;
+    private WebMessagePortCompat mPort;
+    private boolean isConnecting = false;
+    /**
+     * 每次页面跳转加1，丢弃上一个页面未完成的连接
+     */
+    private int mGeneration = 0;
+    private long mNextId = 1;
+    private final Map<Long, Call> mPendingCalls = new ConcurrentHashMap<>();
+    /**
+     * 通道建立前发出的消息
+     */
+    private final List<String> mQueue = new ArrayList<>();
+    private OnRequestListener mOnRequestListener;
+    private OnLatencyListener mOnLatencyListener;
+
+    // 统计
+    private final AtomicLong mLatencyCount = new AtomicLong();
+    private final AtomicLong mTotalLatencyMs = new AtomicLong();
+    private volatile long mMaxLatencyMs;
+    private volatile long mLastLatencyMs;
+    private final AtomicLong mTimeoutCount = new AtomicLong();
+
+    ByMessageChannel(WebView webView) {
+        this.mWebView = webView;
+    }
+
+    /**
+     * 当前WebView是否支持
+     */
+    public static boolean isSupported() {
+        return WebViewFeature.isFeatureSupported(WebViewFeature.CREATE_WEB_MESSAGE_CHANNEL)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.POST_WEB_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_POST_MESSAGE)
+                && WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_SET_MESSAGE_CALLBACK);
+    }
+
+    /**
+     * 设置允许建立通道的源，格式同 addDocumentStartJavaScript 的规则：
+     * "https://a.com"、"https://a.com:8443"、"https://*.a.com"，"*" 表示所有页面(不建议)。
+     * 支持document start注入时按这些规则注入H5端代码，端口只发给当前页面的源
+     */
+    public void setAllowedOrigins(String... origins) {
+        Set<String> allowed = new LinkedHashSet<>();
+        if (origins != null) {
+            for (String origin : origins) {
+                if (origin != null && !origin.isEmpty()) {
+                    allowed.add(origin);
+                }
+            }
+        }
+        mAllowedOrigins = allowed;
+        removeScript();
+        addScript();
+    }
+
+    private void addScript() {
+        if (!mAllowedOrigins.isEmpty() && WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)) {
+            mScriptHandler = WebViewCompat.addDocumentStartJavaScript(mWebView, BOOTSTRAP_JS, mAllowedOrigins);
+        }
+    }
+
+    /**
+     * 切换到新的WebView(预渲染换上、崩溃或休眠后重新创建)，之前需调用release()。
+     * 保留允许的源和监听，新页面加载完成后重新建立通道
+     */
+    void attach(WebView webView) {
+        this.mWebView = webView;
+        addScript();
+    }
+
+    /**
+     * 处理H5发来的请求和通知
+     */
+    public void setOnRequestListener(OnRequestListener onRequestListener) {
+        this.mOnRequestListener = onRequestListener;
+    }
+
+    /**
+     * 每条请求收到响应时回调耗时
+     */
+    public void setOnLatencyListener(OnLatencyListener onLatencyListener) {
+        this.mOnLatencyListener = onLatencyListener;
+    }
+
+    /**
+     * 建立通道，页面加载完成后ByWebView会自动调用
+     */
+    public void connect() {
+        if (!isSupported() || isConnecting || mPort != null) {
+            return;
+        }
+        final String origin = getOrigin(mWebView.getUrl());
+        if (origin == null || !isAllowed(origin)) {
+            return;
+        }
+        isConnecting = true;
+        final int generation = mGeneration;
+        final String token = newToken();
+        mWebView.evaluateJavascript(BOOTSTRAP_JS + "window.ByChannel._token('" + token + "');", new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(String value) {
+                if (generation != mGeneration) {
+                    return;
+                }
+                isConnecting = false;
+                WebMessagePortCompat[] ports = WebViewCompat.createWebMessageChannel(mWebView);
+                mPort = ports[0];
+                mPort.setWebMessageCallback(new WebMessagePortCompat.WebMessageCallbackCompat() {
+                    @Override
+                    public void onMessage(@NonNull WebMessagePortCompat port, WebMessageCompat message) {
+                        if (message != null && message.getData() != null) {
+                            handleMessage(message.getData());
+                        }
+                    }
+                });
+                WebViewCompat.postWebMessage(mWebView, new WebMessageCompat(INIT_MESSAGE + token, new WebMessagePortCompat[]{ports[1]}), Uri.parse(origin));
+                for (String message : mQueue) {
+                    mPort.postMessage(new WebMessageCompat(message));
+                }
+                mQueue.clear();
+            }
+        });
+    }
+
+    /**
+     * 每次连接的随机token
+     */
+    private static String newToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return ByWebTools.toHex(bytes);
+    }
+
+    /**
+     * 页面的源，如 "https://a.com:8443"，不是http(s)页面时为null
+     */
+    private static String getOrigin(String url) {
+        if (url == null) {
+            return null;
+        }
+        Uri uri = Uri.parse(url);
+        String scheme = uri.getScheme();
+        String host = uri.getHost();
+        if (host == null || !("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))) {
+            return null;
+        }
+        String origin = scheme.toLowerCase(Locale.US) + "://" + host.toLowerCase(Locale.US);
+        return uri.getPort() == -1 ? origin : origin + ":" + uri.getPort();
+    }
+
+    private boolean isAllowed(String origin) {
+        Uri page = Uri.parse(origin);
+        for (String rule : mAllowedOrigins) {
+            if ("*".equals(rule)) {
+                return true;
+            }
+            Uri allowed = Uri.parse(rule.toLowerCase(Locale.US));
+            String host = allowed.getHost();
+            if (host == null || !page.getScheme().equals(allowed.getScheme()) || page.getPort() != allowed.getPort()) {
+                continue;
+            }
+            if (host.startsWith("*.")
+                    ? page.getHost().endsWith(host.substring(1)) || page.getHost().equals(host.substring(2))
+                    : page.getHost().equals(host)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void removeScript() {
+        if (mScriptHandler != null) {
+            mScriptHandler.remove();
+            mScriptHandler = null;
+        }
+    }
+
+    /**
+     * WebView销毁或重新创建时调用
+     */
+    void release() {
+        reset();
+        removeScript();
+    }
+
+    /**
+     * 页面开始跳转时通道失效，未完成的请求以IOException结束，未发出的消息丢弃
+     */
+    void reset() {
+        mGeneration++;
+        isConnecting = false;
+        if (mPort != null) {
+            if (WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_PORT_CLOSE)) {
+                mPort.close();
+            }
+            mPort = null;
+        }
+        for (Call call : new ArrayList<>(mPendingCalls.values())) {
+            mPendingCalls.remove(call.id);
+            if (call.timeout != null) {
+                mHandler.removeCallbacks(call.timeout);
+            }
+            call.completeExceptionally(new IOException("page navigated, channel closed"));
+        }
+        mQueue.clear();
+    }
+
+    /**
+     * 请求H5，H5端通过 ByChannel.on(method, handler) 处理
+     *
+     * @param paramsJson JSON格式的参数，如 "{\"a\":1}"、"\"text\""，可为null
+     * @param timeoutMs  超时后以TimeoutException结束，小于等于0时不超时
+     * @return 结果为JSON格式的字符串
+     */
+    public CompletableFuture<String> request(String method, String paramsJson, long timeoutMs) {
+        final Call call = new Call(mNextId++);
+        mPendingCalls.put(call.id, call);
+        if (timeoutMs > 0) {
+            call.timeout = new Runnable() {
+                @Override
+                public void run() {
+                    if (mPendingCalls.remove(call.id) != null) {
+                        mTimeoutCount.incrementAndGet();
+                        call.completeExceptionally(new TimeoutException(method + " timeout after " + timeoutMs + "ms"));
+                    }
+                }
+            };
+            mHandler.postDelayed(call.timeout, timeoutMs);
+        }
+        send(buildMessage(call.id, method, paramsJson));
+        return call;
+    }
+
+    /**
+     * 通知H5，不需要返回
+     */
+    public void post(String method, String paramsJson) {
+        send(buildMessage(-1, method, paramsJson));
+    }
+
+    private void send(String message) {
+        if (mPort != null) {
+            mPort.postMessage(new WebMessageCompat(message));
+        } else {
+            mQueue.add(message);
+        }
+    }
+
+    private static String buildMessage(long id, String method, String paramsJson) {
+        StringBuilder sb = new StringBuilder("{");
+        if (id >= 0) {
+            sb.append("\"id\":").append(id).append(',');
+        }
+        sb.append("\"method\":").append(JSONObject.quote(method));
+        if (paramsJson != null) {
+            sb.append(",\"params\":").append(paramsJson);
+        }
+        return sb.append('}').toString();
+    }
+
+    private void handleMessage(String data) {
+        JSONObject message;
+        try {
+            message = new JSONObject(data);
+        } catch (JSONException e) {
+            return;
+        }
+        if (message.has("method")) {
+            // H5发来的请求或通知
+            final Object id = message.opt("id");
+            String method = message.optString("method");
+            String params = message.isNull("params") ? null : ByWebTools.toJsonString(message.opt("params"));
+            if (mOnRequestListener == null) {
+                reply(id, null, "no native handler: " + method);
+                return;
+            }
+            try {
+                reply(id, mOnRequestListener.onRequest(method, params), null);
+            } catch (Exception e) {
+                reply(id, null, String.valueOf(e.getMessage()));
+            }
+        } else if (message.has("id")) {
+            // 原生请求的响应
+            Call call = mPendingCalls.remove(message.optLong("id", -1));
+            if (call == null) {
+                return;
+            }
+            finish(call);
+            if (message.has("error")) {
+                call.completeExceptionally(new ByMessageException(message.optString("error")));
+            } else {
+                call.complete(ByWebTools.toJsonString(message.opt("result")));
+            }
+        }
+    }
+
+    private void reply(Object id, String resultJson, String error) {
+        if (id == null || id == JSONObject.NULL) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("{\"id\":").append(JSONObject.quote(String.valueOf(id)));
+        if (error != null) {
+            sb.append(",\"error\":").append(JSONObject.quote(error));
+        } else {
+            sb.append(",\"result\":").append(resultJson == null ? "null" : resultJson);
+        }
+        send(sb.append('}').toString());
+    }
+
+    private void finish(Call call) {
+        if (call.timeout != null) {
+            mHandler.removeCallbacks(call.timeout);
+        }
+        long latency = SystemClock.uptimeMillis() - call.startTime;
+        mLatencyCount.incrementAndGet();
+        mTotalLatencyMs.addAndGet(latency);
+        mLastLatencyMs = latency;
+        if (latency > mMaxLatencyMs) {
+            mMaxLatencyMs = latency;
+        }
+        if (mOnLatencyListener != null) {
+            mOnLatencyListener.onLatency(call.id, latency);
+        }
+    }
+
+    public long getLatencyCount() {
+        return mLatencyCount.get();
+    }
+
+    public long getAverageLatencyMs() {
+        long count = mLatencyCount.get();
+        return count == 0 ? 0 : mTotalLatencyMs.get() / count;
+    }
+
+    public long getMaxLatencyMs() {
+        return mMaxLatencyMs;
+    }
+
+    public long getLastLatencyMs() {
+        return mLastLatencyMs;
+    }
+
+    public long getTimeoutCount() {
+        return mTimeoutCount.get();
+    }
+
+    public int getPendingCount() {
+        return mPendingCalls.size();
+    }
+
+    /**
+     * 取消时不再等待H5的响应
+     */
+    private class Call extends CompletableFuture<String> {
+        final long id;
+        final long startTime = SystemClock.uptimeMillis();
+        Runnable timeout;
+
+        Call(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (mPendingCalls.remove(id) != null && timeout != null) {
+                mHandler.removeCallbacks(timeout);
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+    }
+
+    /**
+     * H5端处理请求时出错
+     */
+    public static class ByMessageException extends Exception {
+        public ByMessageException(String message) {
+            super(message);
+        }
+    }
+
+    public interface OnRequestListener {
+        /**
+         * 在主线程回调
+         *
+         * @param paramsJson JSON格式的参数，没有时为null
+         * @return JSON格式的结果，如 "{\"ok\":true}"，H5通知(emit)时返回值会被忽略
+         */
+        String onRequest(String method, String paramsJson) throws Exception;
+    }
+
+    public interface OnLatencyListener {
+        void onLatency(long id, long latencyMs);
+    }
+}
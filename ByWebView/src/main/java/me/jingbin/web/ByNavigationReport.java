@@ -0,0 +1,161 @@
+package me.jingbin.web;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * 一次页面导航的耗时报告，通过 OnByWebClientCallback.onNavigationReport() 回调
+ * <p>
+ * 原生耗时以导航开始(loadUrl()，页面内跳转时为onPageStarted)为0点；
+ * 网页耗时以网页的navigationStart为0点。单位都是毫秒，没有数据时为-1
+ */
+public final class ByNavigationReport {
+
+    String url;
+    /**
+     * 导航开始的系统时间，System.currentTimeMillis()
+     */
+    long startTime = -1;
+    boolean isFromLoadUrl;
+
+    // 原生
+    long pageStarted = -1;
+    long pageFinished = -1;
+    long progress100 = -1;
+
+    // 网页 navigation timing，performance.timeOrigin(系统时间)
+    double timeOrigin = -1;
+    double dns = -1;
+    double connect = -1;
+    double ttfb = -1;
+    double domContentLoaded = -1;
+    double load = -1;
+
+    // 网页 Web Vitals
+    double lcp = -1;
+    double cls = -1;
+    double inp = -1;
+
+    ByNavigationReport(String url, boolean isFromLoadUrl) {
+        this.url = url;
+        this.isFromLoadUrl = isFromLoadUrl;
+        this.startTime = System.currentTimeMillis();
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * 是否是通过ByWebView.loadUrl()发起的导航
+     */
+    public boolean isFromLoadUrl() {
+        return isFromLoadUrl;
+    }
+
+    public long getPageStarted() {
+        return pageStarted;
+    }
+
+    public long getPageFinished() {
+        return pageFinished;
+    }
+
+    /**
+     * 第一次onProgressChanged为100
+     */
+    public long getProgress100() {
+        return progress100;
+    }
+
+    /**
+     * 从导航开始到网页navigationStart的耗时(WebView启动、重定向等)
+     */
+    public long getNavigationStartDelay() {
+        return timeOrigin < 0 ? -1 : Math.round(timeOrigin) - startTime;
+    }
+
+    public double getDns() {
+        return dns;
+    }
+
+    public double getConnect() {
+        return connect;
+    }
+
+    public double getTtfb() {
+        return ttfb;
+    }
+
+    public double getDomContentLoaded() {
+        return domContentLoaded;
+    }
+
+    public double getLoad() {
+        return load;
+    }
+
+    /**
+     * Largest Contentful Paint
+     */
+    public double getLcp() {
+        return lcp;
+    }
+
+    /**
+     * Cumulative Layout Shift，没有单位
+     */
+    public double getCls() {
+        return cls;
+    }
+
+    /**
+     * Interaction to Next Paint，这里取最慢的一次交互，没有交互时为-1
+     */
+    public double getInp() {
+        return inp;
+    }
+
+    /**
+     * 是否收到了网页的数据(页面没有加载成功、没有开启js时只有原生耗时)
+     */
+    public boolean hasWebTiming() {
+        return timeOrigin >= 0;
+    }
+
+    public JSONObject toJson() {
+        JSONObject json = new JSONObject();
+        try {
+            json.put("url", url);
+            json.put("startTime", startTime);
+            json.put("fromLoadUrl", isFromLoadUrl);
+            json.put("pageStarted", pageStarted);
+            json.put("pageFinished", pageFinished);
+            json.put("progress100", progress100);
+            json.put("navigationStartDelay", getNavigationStartDelay());
+            json.put("dns", dns);
+            json.put("connect", connect);
+            json.put("ttfb", ttfb);
+            json.put("domContentLoaded", domContentLoaded);
+            json.put("load", load);
+            json.put("lcp", lcp);
+            json.put("cls", cls);
+            json.put("inp", inp);
+        } catch (JSONException e) {
+            e.printStackTrace();
+        }
+        return json;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByNavigationReport" + toJson();
+    }
+}
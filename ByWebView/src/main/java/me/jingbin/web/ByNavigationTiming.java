@@ -0,0 +1,207 @@
+package me.jingbin.web;
+
+import android.annotation.SuppressLint;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebView;
+
+import androidx.webkit.ScriptHandler;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import org.json.JSONObject;
+
+import java.util.Collections;
+
+/**
+ * 收集每次导航的耗时：
+ * - 原生：loadUrl()、onPageStarted、onPageFinished、第一次进度100
+ * - 网页：在document start注入脚本，收集navigation timing和Web Vitals(LCP、CLS、INP)，通过__byPerf回传
+ * <p>
+ * 下一次导航开始或销毁时回调上一次导航的报告；网页离开时(pagehide)会再上报一次最终的Web Vitals，
+ * 所以下一次导航开始后会等待一小段时间再回调
+ */
+class ByNavigationTiming {
+
+    static final String INTERFACE_NAME = "__byPerf";
+    /**
+     * 等待上一个页面pagehide上报的最长时间
+     */
+    private static final long FINAL_REPORT_WAIT_MS = 1000;
+    /**
+     * document-start脚本会注入所有frame，只在主frame中收集，iframe的上报不算作这次导航
+     */
+    private static final String COLLECTOR_JS = "(function(){"
+            + "if(window!==window.top){return;}"
+            + "if(window.__byPerfInstalled||!window." + INTERFACE_NAME + "||!window.performance){return;}"
+            + "window.__byPerfInstalled=true;"
+            + "var v={lcp:-1,cls:-1,inp:-1};"
+            + "function obs(type,cb,opts){try{var p={type:type,buffered:true};for(var k in opts){p[k]=opts[k];}"
+            + "new PerformanceObserver(function(l){l.getEntries().forEach(cb);}).observe(p);}catch(e){}}"
+            + "obs('largest-contentful-paint',function(e){v.lcp=e.renderTime||e.startTime;});"
+            + "obs('layout-shift',function(e){if(!e.hadRecentInput){v.cls=Math.max(v.cls,0)+e.value;}});"
+            + "obs('event',function(e){if(e.interactionId&&e.duration>v.inp){v.inp=e.duration;}},{durationThreshold:16});"
+            + "function nav(){var n=performance.getEntriesByType&&performance.getEntriesByType('navigation')[0];"
+            + "if(n){return n;}var t=performance.timing,s=t.navigationStart;"
+            + "return{domainLookupStart:t.domainLookupStart-s,domainLookupEnd:t.domainLookupEnd-s,"
+            + "connectStart:t.connectStart-s,connectEnd:t.connectEnd-s,responseStart:t.responseStart-s,"
+            + "domContentLoadedEventEnd:Math.max(t.domContentLoadedEventEnd-s,0),loadEventEnd:Math.max(t.loadEventEnd-s,0)};}"
+            + "function send(isFinal){try{var n=nav();"
+            + INTERFACE_NAME + ".report(JSON.stringify({url:location.href,"
+            + "timeOrigin:performance.timeOrigin||performance.timing.navigationStart,final:isFinal,"
+            + "dns:n.domainLookupEnd-n.domainLookupStart,connect:n.connectEnd-n.connectStart,ttfb:n.responseStart,"
+            + "dcl:n.domContentLoadedEventEnd||-1,load:n.loadEventEnd||-1,lcp:v.lcp,cls:v.cls,inp:v.inp}));}catch(e){}}"
+            + "window.addEventListener('load',function(){setTimeout(function(){send(false);},0);});"
+            + "document.addEventListener('visibilitychange',function(){if(document.visibilityState==='hidden'){send(false);}});"
+            + "window.addEventListener('pagehide',function(){send(true);});"
+            + "})();";
+
+    private WebView mWebView;
+    private final OnByWebClientCallback mCallback;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private ScriptHandler mScriptHandler;
+    private ByNavigationReport mCurrent;
+    private long mCurrentStart;
+    /**
+     * 已结束，等待pagehide上报的导航
+     */
+    private ByNavigationReport mPrevious;
+    private final Runnable mEmitPrevious = new Runnable() {
+        @Override
+        public void run() {
+            emitPrevious();
+        }
+    };
+
+    @SuppressLint({"JavascriptInterface", "AddJavascriptInterface"})
+    ByNavigationTiming(WebView webView, OnByWebClientCallback callback) {
+        this.mCallback = callback;
+        attach(webView);
+    }
+
+    /**
+     * 切换到新的WebView(预渲染换上、崩溃或休眠后重新创建)，之前需调用release()
+     */
+    @SuppressLint({"JavascriptInterface", "AddJavascriptInterface"})
+    void attach(WebView webView) {
+        this.mWebView = webView;
+        mWebView.addJavascriptInterface(this, INTERFACE_NAME);
+        if (WebViewFeature.isFeatureSupported(WebViewFeature.DOCUMENT_START_SCRIPT)) {
+            mScriptHandler = WebViewCompat.addDocumentStartJavaScript(mWebView, COLLECTOR_JS, Collections.singleton("*"));
+        }
+    }
+
+    void onLoadUrl(String url) {
+        startNavigation(url, true);
+    }
+
+    void onPageStarted(String url) {
+        if (mCurrent == null || mCurrent.pageStarted >= 0) {
+            // 不是通过loadUrl()发起的导航：页面内跳转、reload、goBack
+            startNavigation(url, false);
+        }
+        mCurrent.url = url;
+        mCurrent.pageStarted = elapsed();
+        if (mScriptHandler == null) {
+            // 不支持document start注入时尽早注入，拿不到注入前的Web Vitals
+            mWebView.evaluateJavascript(COLLECTOR_JS, null);
+        }
+    }
+
+    void onPageFinished(String url) {
+        if (mCurrent != null && mCurrent.pageFinished < 0) {
+            mCurrent.pageFinished = elapsed();
+        }
+    }
+
+    void onProgressChanged(int newProgress) {
+        if (newProgress == 100 && mCurrent != null && mCurrent.progress100 < 0) {
+            mCurrent.progress100 = elapsed();
+        }
+    }
+
+    /**
+     * 网页上报，在JavaBridge线程调用
+     */
+    @JavascriptInterface
+    public void report(final String json) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                handleReport(json);
+            }
+        });
+    }
+
+    private void handleReport(String json) {
+        JSONObject data;
+        try {
+            data = new JSONObject(json);
+        } catch (Exception e) {
+            return;
+        }
+        double timeOrigin = data.optDouble("timeOrigin", -1);
+        ByNavigationReport report;
+        if (mPrevious != null && mPrevious.timeOrigin == timeOrigin) {
+            report = mPrevious;
+        } else if (mCurrent != null && (mCurrent.timeOrigin < 0 || mCurrent.timeOrigin == timeOrigin)) {
+            report = mCurrent;
+        } else {
+            // 已经回调过的导航
+            return;
+        }
+        report.timeOrigin = timeOrigin;
+        report.dns = data.optDouble("dns", -1);
+        report.connect = data.optDouble("connect", -1);
+        report.ttfb = data.optDouble("ttfb", -1);
+        report.domContentLoaded = data.optDouble("dcl", -1);
+        report.load = data.optDouble("load", -1);
+        report.lcp = data.optDouble("lcp", -1);
+        report.cls = data.optDouble("cls", -1);
+        report.inp = data.optDouble("inp", -1);
+        if (report == mPrevious && data.optBoolean("final")) {
+            mHandler.removeCallbacks(mEmitPrevious);
+            emitPrevious();
+        }
+    }
+
+    private void startNavigation(String url, boolean isFromLoadUrl) {
+        emitPrevious();
+        if (mCurrent != null) {
+            mPrevious = mCurrent;
+            mHandler.postDelayed(mEmitPrevious, FINAL_REPORT_WAIT_MS);
+        }
+        mCurrent = new ByNavigationReport(url, isFromLoadUrl);
+        mCurrentStart = SystemClock.elapsedRealtime();
+    }
+
+    private void emitPrevious() {
+        mHandler.removeCallbacks(mEmitPrevious);
+        ByNavigationReport report = mPrevious;
+        mPrevious = null;
+        if (report != null && mCallback != null) {
+            mCallback.onNavigationReport(report);
+        }
+    }
+
+    private long elapsed() {
+        return SystemClock.elapsedRealtime() - mCurrentStart;
+    }
+
+    /**
+     * 销毁或放回复用池时调用，回调未完成的报告
+     */
+    void release() {
+        emitPrevious();
+        mPrevious = mCurrent;
+        mCurrent = null;
+        emitPrevious();
+        if (mScriptHandler != null) {
+            mScriptHandler.remove();
+            mScriptHandler = null;
+        }
+        mWebView.removeJavascriptInterface(INTERFACE_NAME);
+    }
+}
@@ -0,0 +1,172 @@
+package me.jingbin.web;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 网络状态：注册一次默认网络的NetworkCallback，缓存连接状态，不再每次查询ConnectivityManager
+ * 网络变化时在主线程切换所有ByWebView的缓存模式：
+ * - 无网络、计费网络(移动数据)、低带宽时使用 LOAD_CACHE_ELSE_NETWORK
+ * - 其他情况使用 LOAD_DEFAULT
+ */
+public class ByNetworkMonitor {
+
+    /**
+     * 下行带宽低于这个值时认为是低带宽，单位kbps
+     */
+    private static final int DEFAULT_LOW_BANDWIDTH_KBPS = 1000;
+
+    private static volatile ByNetworkMonitor sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<OnNetworkChangedListener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean isConnected;
+    private volatile boolean isMetered;
+    private volatile int mDownstreamKbps;
+    private volatile int mLowBandwidthKbps = DEFAULT_LOW_BANDWIDTH_KBPS;
+    private volatile boolean isPreferCacheOnMetered = true;
+
+    public interface OnNetworkChangedListener {
+        /**
+         * 主线程回调
+         */
+        void onNetworkChanged(ByNetworkMonitor monitor);
+    }
+
+    public static ByNetworkMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ByNetworkMonitor.class) {
+                if (sInstance == null) {
+                    sInstance = new ByNetworkMonitor(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ByNetworkMonitor(Context context) {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            // 无法获取时按有网络处理
+            isConnected = true;
+            return;
+        }
+        try {
+            // 只在初始化时查询一次
+            Network network = cm.getActiveNetwork();
+            update(network == null ? null : cm.getNetworkCapabilities(network));
+            cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+                    update(capabilities);
+                    notifyChanged();
+                }
+
+                @Override
+                public void onLost(@NonNull Network network) {
+                    update(null);
+                    notifyChanged();
+                }
+            });
+        } catch (Exception e) {
+            // 没有ACCESS_NETWORK_STATE权限等
+            e.printStackTrace();
+            isConnected = true;
+        }
+    }
+
+    private void update(NetworkCapabilities capabilities) {
+        if (capabilities == null) {
+            isConnected = false;
+            isMetered = false;
+            mDownstreamKbps = 0;
+            return;
+        }
+        isConnected = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+        isMetered = !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+        mDownstreamKbps = capabilities.getLinkDownstreamBandwidthKbps();
+    }
+
+    /**
+     * 回调在ConnectivityManager的线程，切换到主线程
+     */
+    private void notifyChanged() {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (ByWebView byWebView : ByWebView.getLiveInstances()) {
+                    byWebView.onNetworkChanged(ByNetworkMonitor.this);
+                }
+                for (OnNetworkChangedListener listener : mListeners) {
+                    listener.onNetworkChanged(ByNetworkMonitor.this);
+                }
+            }
+        });
+    }
+
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    /**
+     * 是否计费网络，如移动数据
+     */
+    public boolean isMetered() {
+        return isMetered;
+    }
+
+    /**
+     * 系统估计的下行带宽，单位kbps，未知时为0
+     */
+    public int getDownstreamKbps() {
+        return mDownstreamKbps;
+    }
+
+    public boolean isLowBandwidth() {
+        return isConnected && mDownstreamKbps > 0 && mDownstreamKbps < mLowBandwidthKbps;
+    }
+
+    /**
+     * 是否优先使用缓存(LOAD_CACHE_ELSE_NETWORK)
+     */
+    public boolean shouldPreferCache() {
+        return !isConnected || (isPreferCacheOnMetered && isMetered) || isLowBandwidth();
+    }
+
+    /**
+     * @param lowBandwidthKbps 下行带宽低于这个值时优先使用缓存，默认1000kbps
+     */
+    public ByNetworkMonitor setLowBandwidthKbps(int lowBandwidthKbps) {
+        this.mLowBandwidthKbps = lowBandwidthKbps;
+        notifyChanged();
+        return this;
+    }
+
+    /**
+     * @param preferCacheOnMetered 计费网络时是否优先使用缓存，默认true
+     */
+    public ByNetworkMonitor setPreferCacheOnMetered(boolean preferCacheOnMetered) {
+        this.isPreferCacheOnMetered = preferCacheOnMetered;
+        notifyChanged();
+        return this;
+    }
+
+    public void addListener(OnNetworkChangedListener listener) {
+        if (listener != null && !mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnNetworkChangedListener listener) {
+        mListeners.remove(listener);
+    }
+}
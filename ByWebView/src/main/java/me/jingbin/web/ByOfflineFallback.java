@@ -0,0 +1,322 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.webkit.CookieManager;
+import android.webkit.ValueCallback;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 离线兜底：主页面加载成功后保存为网页归档(MHTML，包含图片、样式等子资源)，
+ * 主页面加载失败时显示保存的副本和离线提示，后台重试，网络恢复后再加载在线内容
+ * - 每个url一个文件，超过数量时删除最久的
+ * - 副本在单独的WebView中使用file://加载，原来的WebView不开启文件访问
+ * - 重试时在副本下面加载在线页面，加载成功后才移除副本
+ * <p>
+ * 通过 ByWebView.Builder.setOfflineFallback() 使用，多个ByWebView可以共用同一个实例
+ */
+public class ByOfflineFallback {
+
+    private static final String SUFFIX = ".mht";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final int mMaxEntries;
+    private final long mMaxAgeMs;
+    private final int mTimeoutMs;
+    private final long mRetryDelayMs;
+    private final long mMaxRetryDelayMs;
+    private final String mBannerText;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ByOfflineFallback");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    // 统计
+    private final AtomicInteger mSaveCount = new AtomicInteger();
+    private int mFallbackCount;
+    private int mRecoverCount;
+
+    private ByOfflineFallback(Builder builder) {
+        this.mDir = builder.mDir;
+        this.mMaxEntries = builder.mMaxEntries;
+        this.mMaxAgeMs = builder.mMaxAgeMs;
+        this.mTimeoutMs = builder.mTimeoutMs;
+        this.mRetryDelayMs = builder.mRetryDelayMs;
+        this.mMaxRetryDelayMs = builder.mMaxRetryDelayMs;
+        this.mBannerText = builder.mBannerText;
+    }
+
+    /**
+     * 主页面加载成功后保存，主线程调用
+     */
+    void save(WebView view, String url) {
+        if (!isHttpUrl(url)) {
+            return;
+        }
+        mDir.mkdirs();
+        final File file = getFile(url);
+        final File tmp = new File(file.getPath() + TMP_SUFFIX);
+        // 异步写入临时文件，完成后再替换，失败时不影响上一次的副本
+        view.saveWebArchive(tmp.getPath(), false, new ValueCallback<String>() {
+            @Override
+            public void onReceiveValue(final String value) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (value != null && tmp.renameTo(file)) {
+                            mSaveCount.incrementAndGet();
+                            trim();
+                        } else {
+                            tmp.delete();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * @return 保存的副本的地址，没有或已过期时返回null
+     */
+    String getArchiveUrl(String url) {
+        if (!isHttpUrl(url)) {
+            return null;
+        }
+        File file = getFile(url);
+        if (!file.exists() || System.currentTimeMillis() - file.lastModified() > mMaxAgeMs) {
+            return null;
+        }
+        return Uri.fromFile(file).toString();
+    }
+
+    boolean isArchiveUrl(String url) {
+        return url != null && url.startsWith(Uri.fromFile(mDir).toString());
+    }
+
+    /**
+     * 在后台线程检查在线页面是否可以访问，主线程回调
+     */
+    void probe(final String url, final ValueCallback<Boolean> callback) {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final boolean isReachable = isReachable(url);
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onReceiveValue(isReachable);
+                    }
+                });
+            }
+        });
+    }
+
+    private boolean isReachable(String url) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(mTimeoutMs);
+            connection.setReadTimeout(mTimeoutMs);
+            connection.setInstanceFollowRedirects(true);
+            String cookie = CookieManager.getInstance().getCookie(url);
+            if (!TextUtils.isEmpty(cookie)) {
+                connection.setRequestProperty("Cookie", cookie);
+            }
+            int code = connection.getResponseCode();
+            // 跳转到其他域名(如公共WiFi的认证页)当作不可访问
+            if (!connection.getURL().getHost().equalsIgnoreCase(new URL(url).getHost())) {
+                return false;
+            }
+            // 没有跟随的跳转(如https -> http)和服务端错误时继续显示离线副本
+            return code < HttpURLConnection.HTTP_MULT_CHOICE || (code >= HttpURLConnection.HTTP_BAD_REQUEST && code < HttpURLConnection.HTTP_INTERNAL_ERROR);
+        } catch (Exception e) {
+            return false;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    private File getFile(String url) {
+        // 忽略#后面的部分
+        int index = url.indexOf('#');
+        return new File(mDir, ByWebTools.md5(index == -1 ? url : url.substring(0, index)) + SUFFIX);
+    }
+
+    private static boolean isHttpUrl(String url) {
+        return !TextUtils.isEmpty(url) && (url.startsWith("http:") || url.startsWith("https:"));
+    }
+
+    /**
+     * 超过数量时删除最久的副本
+     */
+    private void trim() {
+        File[] files = mDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (files == null || files.length <= mMaxEntries) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        int count = files.length;
+        for (File file : files) {
+            if (count <= mMaxEntries) {
+                break;
+            }
+            if (file.delete()) {
+                count--;
+            }
+        }
+    }
+
+    /**
+     * 删除全部副本
+     */
+    public void clear() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+        });
+    }
+
+    long getRetryDelay() {
+        return mRetryDelayMs;
+    }
+
+    long getMaxRetryDelay() {
+        return mMaxRetryDelayMs;
+    }
+
+    String getBannerText() {
+        return mBannerText;
+    }
+
+    void onFallback() {
+        mFallbackCount++;
+    }
+
+    void onRecovered() {
+        mRecoverCount++;
+    }
+
+    /**
+     * 保存副本的次数
+     */
+    public int getSaveCount() {
+        return mSaveCount.get();
+    }
+
+    /**
+     * 加载失败时显示副本的次数
+     */
+    public int getFallbackCount() {
+        return mFallbackCount;
+    }
+
+    /**
+     * 重试成功，从副本切换回在线内容的次数
+     */
+    public int getRecoverCount() {
+        return mRecoverCount;
+    }
+
+    public static class Builder {
+        private final File mDir;
+        private int mMaxEntries = 20;
+        private long mMaxAgeMs = 7 * 24 * 60 * 60 * 1000L;
+        private int mTimeoutMs = 10 * 1000;
+        private long mRetryDelayMs = 3 * 1000;
+        private long mMaxRetryDelayMs = 60 * 1000;
+        private String mBannerText = "网络不可用，当前显示的是离线内容";
+
+        /**
+         * @param dir 保存目录，如 new File(context.getFilesDir(), "by_offline")
+         */
+        public Builder(@NonNull File dir) {
+            this.mDir = dir;
+        }
+
+        /**
+         * @param maxEntries 最多保存的页面数，默认20
+         */
+        public Builder setMaxEntries(int maxEntries) {
+            this.mMaxEntries = Math.max(1, maxEntries);
+            return this;
+        }
+
+        /**
+         * @param maxAgeMs 超过这个时间的副本不再使用，默认7天
+         */
+        public Builder setMaxAge(long maxAgeMs) {
+            this.mMaxAgeMs = maxAgeMs;
+            return this;
+        }
+
+        public Builder setTimeout(int timeoutMs) {
+            this.mTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * 重试间隔，每次失败后加倍
+         *
+         * @param retryDelayMs    第一次重试的间隔，默认3秒
+         * @param maxRetryDelayMs 最大间隔，默认60秒
+         */
+        public Builder setRetryDelay(long retryDelayMs, long maxRetryDelayMs) {
+            this.mRetryDelayMs = Math.max(500, retryDelayMs);
+            this.mMaxRetryDelayMs = Math.max(mRetryDelayMs, maxRetryDelayMs);
+            return this;
+        }
+
+        /**
+         * @param bannerText 显示副本时顶部的提示，null时不显示
+         */
+        public Builder setBannerText(String bannerText) {
+            this.mBannerText = bannerText;
+            return this;
+        }
+
+        public ByOfflineFallback build() {
+            return new ByOfflineFallback(this);
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * H5离线包：整个H5应用从本地版本目录中加载，不经过网络
+ * <p>
+ * 包是一个zip，根目录有manifest.json：
+ * <pre>
+ * {
+ *   "id": "learn",
+ *   "version": 12,
+ *   "baseVersion": 11,                                   // 只有增量包有，表示基于哪个版本
+ *   "prefixes": {"https://h5.xx.com/learn/": "dist/"},   // URL前缀 -> 包内目录
+ *   "files": {"dist/index.html": "sha256", ...},         // 新版本完整的文件列表
+ *   "removed": ["dist/old.js"]                           // 可选
+ * }
+ * </pre>
+ * 增量包只包含变化的文件(文件级差分)，未变化的从当前版本复制。
+ * 所有文件校验sha256后整体切换，中途失败不影响当前版本。
+ * manifest中的id和路径不能指向目录外，否则拒绝安装。
+ * <p>
+ * 目录结构：root/包id/版本号_安装时间/，root/包id/current 记录当前版本的目录名
+ */
+public class ByOfflinePackages implements ByRequestInterceptor {
+
+    private static final String MANIFEST = "manifest.json";
+    private static final String CURRENT = "current";
+    private static final String INDEX = "index.html";
+
+    private final File mRootDir;
+    /**
+     * 包id -> 当前版本，整体替换，读的时候不用加锁
+     */
+    private volatile Map<String, Installed> mInstalled = Collections.emptyMap();
+    private volatile boolean isLoaded = false;
+
+    /**
+     * @param rootDir 离线包根目录，如 new File(context.getFilesDir(), "by_offline")
+     */
+    public ByOfflinePackages(@NonNull File rootDir) {
+        this.mRootDir = rootDir;
+    }
+
+    @Override
+    public WebResourceResponse intercept(WebView view, WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        ensureLoaded();
+        String url = request.getUrl().toString();
+        for (Installed installed : mInstalled.values()) {
+            File file = installed.find(url);
+            if (file != null) {
+                try {
+                    Map<String, String> headers = new HashMap<>();
+                    headers.put("Access-Control-Allow-Origin", "*");
+                    return new WebResourceResponse(getMimeType(file.getName()), "UTF-8", 200, "OK", headers, new FileInputStream(file));
+                } catch (IOException e) {
+                    return null;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 当前版本号，未安装时为-1
+     */
+    public int getVersion(String packageId) {
+        ensureLoaded();
+        Installed installed = mInstalled.get(packageId);
+        return installed == null ? -1 : installed.version;
+    }
+
+    /**
+     * 下载并安装，有baseVersion时为增量包。需在子线程调用
+     *
+     * @param sha256 整个zip的sha256，必须提供
+     */
+    public void update(String packageUrl, String sha256) throws IOException {
+        File tmp = new File(mRootDir, "download_" + System.currentTimeMillis() + ".zip");
+        HttpURLConnection connection = null;
+        try {
+            mRootDir.mkdirs();
+            connection = (HttpURLConnection) new URL(packageUrl).openConnection();
+            connection.setConnectTimeout(15 * 1000);
+            connection.setReadTimeout(30 * 1000);
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+                throw new IOException("download failed: " + connection.getResponseCode());
+            }
+            copy(connection.getInputStream(), new FileOutputStream(tmp));
+            install(tmp, sha256);
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * 安装本地的全量包或增量包。需在子线程调用
+     *
+     * @param sha256 整个zip的sha256，必须提供
+     */
+    public synchronized void install(File zip, String sha256) throws IOException {
+        ensureLoaded();
+        if (TextUtils.isEmpty(sha256)) {
+            throw new IOException("package sha256 required: " + zip);
+        }
+        if (!sha256.equalsIgnoreCase(sha256(zip))) {
+            throw new IOException("package checksum mismatch: " + zip);
+        }
+        File staging = new File(mRootDir, "staging_" + System.currentTimeMillis());
+        try {
+            unzip(zip, staging);
+            Manifest manifest = Manifest.parse(readText(new File(staging, MANIFEST)));
+            // id是包目录名，不能是 ".."、"a/b" 等
+            File packageDir = resolve(mRootDir, manifest.id);
+            if (!packageDir.getParentFile().getCanonicalFile().equals(mRootDir.getCanonicalFile())) {
+                throw new IOException("illegal package id: " + manifest.id);
+            }
+            for (String path : manifest.files.keySet()) {
+                resolve(staging, path);
+            }
+            for (String path : manifest.removed) {
+                resolve(staging, path);
+            }
+            Installed current = mInstalled.get(manifest.id);
+            if (manifest.baseVersion >= 0) {
+                // 增量包：补齐未变化的文件
+                if (current == null || current.version != manifest.baseVersion) {
+                    throw new IOException("patch base " + manifest.baseVersion + " does not match installed "
+                            + (current == null ? -1 : current.version));
+                }
+                for (String path : manifest.files.keySet()) {
+                    File target = resolve(staging, path);
+                    if (!target.exists()) {
+                        File source = resolve(current.dir, path);
+                        if (!source.exists()) {
+                            throw new IOException("missing file in patch and base: " + path);
+                        }
+                        target.getParentFile().mkdirs();
+                        copy(new FileInputStream(source), new FileOutputStream(target));
+                    }
+                }
+                for (String path : manifest.removed) {
+                    resolve(staging, path).delete();
+                }
+            }
+            for (Map.Entry<String, String> file : manifest.files.entrySet()) {
+                if (!file.getValue().equalsIgnoreCase(sha256(resolve(staging, file.getKey())))) {
+                    throw new IOException("file checksum mismatch: " + file.getKey());
+                }
+            }
+            packageDir.mkdirs();
+            // 每次安装使用新目录，重新安装正在使用的版本时不影响正在读取的请求；current切换前失败不影响当前版本
+            File versionDir = new File(packageDir, manifest.version + "_" + System.currentTimeMillis());
+            if (!staging.renameTo(versionDir)) {
+                throw new IOException("rename failed: " + versionDir);
+            }
+            try {
+                writeCurrent(packageDir, versionDir.getName());
+            } catch (IOException e) {
+                deleteRecursively(versionDir);
+                throw e;
+            }
+
+            Map<String, Installed> installed = new LinkedHashMap<>(mInstalled);
+            installed.put(manifest.id, new Installed(manifest, versionDir));
+            mInstalled = Collections.unmodifiableMap(installed);
+            // 保留上一个版本，防止正在读取的请求失败，更早的版本删除
+            deleteOldVersions(packageDir, versionDir.getName(), current == null ? null : current.dir.getName());
+        } finally {
+            deleteRecursively(staging);
+        }
+    }
+
+    /**
+     * 删除离线包，之后的请求走网络
+     */
+    public synchronized void uninstall(String packageId) {
+        ensureLoaded();
+        Map<String, Installed> installed = new LinkedHashMap<>(mInstalled);
+        installed.remove(packageId);
+        mInstalled = Collections.unmodifiableMap(installed);
+        deleteRecursively(new File(mRootDir, packageId));
+    }
+
+    private void ensureLoaded() {
+        if (isLoaded) {
+            return;
+        }
+        synchronized (this) {
+            if (!isLoaded) {
+                load();
+                isLoaded = true;
+            }
+        }
+    }
+
+    private void load() {
+        File[] packageDirs = mRootDir.listFiles();
+        if (packageDirs == null) {
+            return;
+        }
+        Map<String, Installed> installed = new LinkedHashMap<>();
+        for (File packageDir : packageDirs) {
+            File current = new File(packageDir, CURRENT);
+            if (!packageDir.isDirectory() || !current.exists()) {
+                continue;
+            }
+            try {
+                File versionDir = resolve(packageDir, readText(current).trim());
+                Manifest manifest = Manifest.parse(readText(new File(versionDir, MANIFEST)));
+                installed.put(manifest.id, new Installed(manifest, versionDir));
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        mInstalled = Collections.unmodifiableMap(installed);
+    }
+
+    /**
+     * 先写临时文件再重命名，保证current文件是完整的
+     */
+    private static void writeCurrent(File packageDir, String versionDirName) throws IOException {
+        File tmp = new File(packageDir, CURRENT + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(versionDirName.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(packageDir, CURRENT))) {
+            throw new IOException("rename failed: " + CURRENT);
+        }
+    }
+
+    private static void deleteOldVersions(File packageDir, String versionDirName, String previousDirName) {
+        File[] files = packageDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()
+                    && !file.getName().equals(versionDirName)
+                    && !file.getName().equals(previousDirName)) {
+                deleteRecursively(file);
+            }
+        }
+    }
+
+    /**
+     * dir下的相对路径，防止 ../ 等指向目录外
+     */
+    private static File resolve(File dir, String path) throws IOException {
+        File file = new File(dir, path);
+        if (TextUtils.isEmpty(path) || !file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+            throw new IOException("illegal path: " + path);
+        }
+        return file;
+    }
+
+    private static void unzip(File zip, File targetDir) throws IOException {
+        ZipInputStream in = new ZipInputStream(new FileInputStream(zip));
+        try {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                File file = resolve(targetDir, entry.getName());
+                if (entry.isDirectory()) {
+                    file.mkdirs();
+                    continue;
+                }
+                file.getParentFile().mkdirs();
+                OutputStream out = new FileOutputStream(file);
+                try {
+                    byte[] buffer = new byte[8 * 1024];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try {
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        } finally {
+            ByWebTools.closeQuietly(in);
+            ByWebTools.closeQuietly(out);
+        }
+    }
+
+    static String sha256(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return ByWebTools.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String readText(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(new FileInputStream(file), out);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String getMimeType(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        String extension = dot < 0 ? "" : fileName.substring(dot + 1).toLowerCase(Locale.US);
+        if ("js".equals(extension) || "mjs".equals(extension)) {
+            return "application/javascript";
+        }
+        String mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return mimeType == null ? "application/octet-stream" : mimeType;
+    }
+
+    private static class Manifest {
+        String id;
+        int version;
+        int baseVersion = -1;
+        // URL前缀 -> 包内目录，按前缀长度倒序，优先匹配更长的
+        final List<String[]> prefixes = new ArrayList<>();
+        final Map<String, String> files = new LinkedHashMap<>();
+        final List<String> removed = new ArrayList<>();
+
+        static Manifest parse(String json) throws IOException {
+            try {
+                JSONObject object = new JSONObject(json);
+                Manifest manifest = new Manifest();
+                manifest.id = object.getString("id");
+                manifest.version = object.getInt("version");
+                manifest.baseVersion = object.optInt("baseVersion", -1);
+                JSONObject prefixes = object.getJSONObject("prefixes");
+                Iterator<String> keys = prefixes.keys();
+                while (keys.hasNext()) {
+                    String prefix = keys.next();
+                    manifest.prefixes.add(new String[]{prefix, prefixes.getString(prefix)});
+                }
+                Collections.sort(manifest.prefixes, new Comparator<String[]>() {
+                    @Override
+                    public int compare(String[] o1, String[] o2) {
+                        return o2[0].length() - o1[0].length();
+                    }
+                });
+                JSONObject files = object.getJSONObject("files");
+                keys = files.keys();
+                while (keys.hasNext()) {
+                    String path = keys.next();
+                    manifest.files.put(path, files.getString(path));
+                }
+                JSONArray removed = object.optJSONArray("removed");
+                if (removed != null) {
+                    for (int i = 0; i < removed.length(); i++) {
+                        manifest.removed.add(removed.getString(i));
+                    }
+                }
+                return manifest;
+            } catch (Exception e) {
+                throw new IOException("invalid manifest", e);
+            }
+        }
+    }
+
+    private static class Installed {
+        final int version;
+        final File dir;
+        final List<String[]> prefixes;
+
+        Installed(Manifest manifest, File dir) {
+            this.version = manifest.version;
+            this.dir = dir;
+            this.prefixes = manifest.prefixes;
+        }
+
+        /**
+         * @return URL对应的本地文件，不存在时为null
+         */
+        File find(String url) {
+            for (String[] prefix : prefixes) {
+                if (url.startsWith(prefix[0])) {
+                    String path = Uri.parse(url).getPath();
+                    String prefixPath = Uri.parse(prefix[0]).getPath();
+                    if (path == null) {
+                        return null;
+                    }
+                    String relative = prefixPath == null || !path.startsWith(prefixPath) ? path : path.substring(prefixPath.length());
+                    if (relative.startsWith("/")) {
+                        relative = relative.substring(1);
+                    }
+                    if (relative.isEmpty() || relative.endsWith("/")) {
+                        relative = relative + INDEX;
+                    }
+                    File file = new File(dir, prefix[1] + relative);
+                    try {
+                        // 防止 ../ 读到包目录外
+                        if (!file.getCanonicalPath().startsWith(dir.getCanonicalPath() + File.separator)) {
+                            return null;
+                        }
+                    } catch (IOException e) {
+                        return null;
+                    }
+                    return file.isFile() ? file : null;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,426 @@
+package me.jingbin.web;
+
+import android.text.TextUtils;
+import android.webkit.CookieManager;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Cache;
+import okhttp3.CacheControl;
+import okhttp3.Connection;
+import okhttp3.CookieJar;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * 子资源(GET)通过App的OkHttpClient请求，和原生请求共用连接池、HTTP/2连接和拦截器(如Chucker)：
+ * - 不处理主页面、非GET、Range请求，请求失败、重定向(3xx)时交给WebView自己请求
+ * - 响应体边读边返回给WebView，不缓存在内存中
+ * - 返回的响应不会进入WebView的缓存，需要OkHttp的Cache；ByWebView的缓存模式(如无网络时优先缓存)映射为CacheControl
+ * - Cookie使用CookieManager，和WebView一致；跨站请求不带Cookie也不保存Set-Cookie，和不接受第三方Cookie一致
+ * - 统计连接复用、HTTP/2、首包和总耗时，可按比例采样和WebView自己请求对比(配合ByHarRecorder)
+ * <p>
+ * ByWebView不直接依赖OkHttp，使用时App需要添加OkHttp依赖：
+ * <pre>
+ * ByWebView.with(activity)
+ *         .setOkHttpInterceptor(new ByOkHttpInterceptor.Builder(okHttpClient)
+ *                 .setCache(new Cache(new File(context.getCacheDir(), "web_http"), 50 * 1024 * 1024))
+ *                 .build())
+ * </pre>
+ */
+public class ByOkHttpInterceptor implements ByRequestInterceptor {
+
+    private final OkHttpClient mClient;
+    private final float mSampleRate;
+    private final Set<Connection> mConnections = Collections.newSetFromMap(new WeakHashMap<Connection, Boolean>());
+
+    // 统计
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mFallbackCount = new AtomicLong();
+    private final AtomicLong mRedirectCount = new AtomicLong();
+    private final AtomicLong mConnectionCount = new AtomicLong();
+    private final AtomicLong mReusedCount = new AtomicLong();
+    private final AtomicLong mHttp2Count = new AtomicLong();
+    private final AtomicLong mHeaderTimeMs = new AtomicLong();
+    private final AtomicLong mTotalTimeMs = new AtomicLong();
+    private final AtomicLong mCompletedCount = new AtomicLong();
+    private final AtomicLong mBytes = new AtomicLong();
+
+    private ByOkHttpInterceptor(Builder builder) {
+        this.mSampleRate = builder.mSampleRate;
+        OkHttpClient.Builder clientBuilder = builder.mClient.newBuilder()
+                // 重定向交给WebView，地址栏和相对路径才正确
+                .followRedirects(false)
+                .followSslRedirects(false)
+                // Cookie由CookieManager处理
+                .cookieJar(CookieJar.NO_COOKIES)
+                .addNetworkInterceptor(new Interceptor() {
+                    @NonNull
+                    @Override
+                    public Response intercept(@NonNull Chain chain) throws IOException {
+                        recordConnection(chain.connection());
+                        return chain.proceed(chain.request());
+                    }
+                });
+        if (builder.mCache != null) {
+            clientBuilder.cache(builder.mCache);
+        }
+        for (Interceptor interceptor : builder.mInterceptors) {
+            clientBuilder.addInterceptor(interceptor);
+        }
+        // newBuilder()共用连接池和线程池
+        this.mClient = clientBuilder.build();
+    }
+
+    private void recordConnection(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        boolean isNew;
+        synchronized (mConnections) {
+            isNew = mConnections.add(connection);
+        }
+        if (isNew) {
+            mConnectionCount.incrementAndGet();
+        } else {
+            mReusedCount.incrementAndGet();
+        }
+        if (connection.protocol() == Protocol.HTTP_2) {
+            mHttp2Count.incrementAndGet();
+        }
+    }
+
+    @Override
+    public WebResourceResponse intercept(WebView view, WebResourceRequest request) {
+        if (request.isForMainFrame() || !"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        String url = request.getUrl().toString();
+        if (!url.startsWith("http:") && !url.startsWith("https:")) {
+            return null;
+        }
+        Map<String, String> requestHeaders = request.getRequestHeaders();
+        if (requestHeaders != null && containsIgnoreCase(requestHeaders, "Range")) {
+            // 音视频分段请求
+            return null;
+        }
+        if (mSampleRate < 1 && ThreadLocalRandom.current().nextFloat() >= mSampleRate) {
+            return null;
+        }
+        mRequestCount.incrementAndGet();
+        long start = System.currentTimeMillis();
+        Response response = null;
+        try {
+            boolean isSameSite = isSameSite(ByWebView.getPageUrl(view), url);
+            response = mClient.newCall(buildRequest(url, requestHeaders, ByWebView.getCacheMode(view), isSameSite)).execute();
+            int code = response.code();
+            if (code == 504 && response.networkResponse() == null && response.cacheResponse() == null) {
+                // only-if-cached没有缓存，交给WebView从它的缓存中查找
+                mFallbackCount.incrementAndGet();
+                response.close();
+                return null;
+            }
+            if (code >= 300 && code < 400) {
+                // WebResourceResponse不支持3xx
+                mRedirectCount.incrementAndGet();
+                response.close();
+                return null;
+            }
+            mHeaderTimeMs.addAndGet(System.currentTimeMillis() - start);
+            return toWebResponse(url, response, start, isSameSite);
+        } catch (Exception e) {
+            mFallbackCount.incrementAndGet();
+            if (response != null) {
+                response.close();
+            }
+            return null;
+        }
+    }
+
+    private Request buildRequest(String url, Map<String, String> requestHeaders, int cacheMode, boolean isSameSite) {
+        Request.Builder builder = new Request.Builder().url(url).get();
+        CacheControl cacheControl = toCacheControl(cacheMode);
+        if (requestHeaders != null) {
+            for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                if (header.getKey() == null || header.getValue() == null
+                        // OkHttp自动添加并解压，WebResourceResponse需要解压后的内容
+                        || "Accept-Encoding".equalsIgnoreCase(header.getKey())
+                        || "Cookie".equalsIgnoreCase(header.getKey())
+                        || (cacheControl != null && "Cache-Control".equalsIgnoreCase(header.getKey()))) {
+                    continue;
+                }
+                builder.header(header.getKey(), header.getValue());
+            }
+        }
+        if (cacheControl != null) {
+            builder.cacheControl(cacheControl);
+        }
+        if (isSameSite) {
+            String cookie = CookieManager.getInstance().getCookie(url);
+            if (!TextUtils.isEmpty(cookie)) {
+                builder.header("Cookie", cookie);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * WebView的缓存模式对应的CacheControl，LOAD_DEFAULT时为null
+     */
+    private static CacheControl toCacheControl(int cacheMode) {
+        switch (cacheMode) {
+            case WebSettings.LOAD_CACHE_ELSE_NETWORK:
+                // 有缓存时不管是否过期都使用
+                return new CacheControl.Builder().maxStale(Integer.MAX_VALUE, TimeUnit.SECONDS).build();
+            case WebSettings.LOAD_CACHE_ONLY:
+                return CacheControl.FORCE_CACHE;
+            case WebSettings.LOAD_NO_CACHE:
+                return CacheControl.FORCE_NETWORK;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 按可注册域名(eTLD+1)判断是否同站，页面未知时按跨站处理
+     */
+    static boolean isSameSite(String pageUrl, String url) {
+        HttpUrl page = pageUrl == null ? null : HttpUrl.parse(pageUrl);
+        HttpUrl request = HttpUrl.parse(url);
+        if (page == null || request == null) {
+            return false;
+        }
+        if (page.host().equalsIgnoreCase(request.host())) {
+            return true;
+        }
+        String pageDomain = page.topPrivateDomain();
+        return pageDomain != null && pageDomain.equalsIgnoreCase(request.topPrivateDomain());
+    }
+
+    private WebResourceResponse toWebResponse(String url, final Response response, final long start, boolean isSameSite) {
+        ResponseBody body = response.body();
+        Headers headers = response.headers();
+        Map<String, String> responseHeaders = new HashMap<>();
+        CookieManager cookieManager = CookieManager.getInstance();
+        for (String name : headers.names()) {
+            List<String> values = headers.values(name);
+            if ("Set-Cookie".equalsIgnoreCase(name)) {
+                if (isSameSite) {
+                    for (String value : values) {
+                        cookieManager.setCookie(url, value);
+                    }
+                }
+                continue;
+            }
+            responseHeaders.put(name, TextUtils.join(", ", values));
+        }
+        String mimeType = null;
+        String encoding = null;
+        MediaType contentType = body != null ? body.contentType() : null;
+        if (contentType != null) {
+            mimeType = contentType.type() + "/" + contentType.subtype();
+            if (contentType.charset() != null) {
+                encoding = contentType.charset().name();
+            }
+        }
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(url);
+            mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase(Locale.US));
+        }
+        InputStream data = body == null ? null : new FilterInputStream(body.byteStream()) {
+            private boolean isClosed = false;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    mBytes.incrementAndGet();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(@NonNull byte[] buffer, int offset, int count) throws IOException {
+                int read = super.read(buffer, offset, count);
+                if (read > 0) {
+                    mBytes.addAndGet(read);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (!isClosed) {
+                    isClosed = true;
+                    mCompletedCount.incrementAndGet();
+                    mTotalTimeMs.addAndGet(System.currentTimeMillis() - start);
+                }
+                response.close();
+            }
+        };
+        String reasonPhrase = response.message();
+        if (TextUtils.isEmpty(reasonPhrase)) {
+            // HTTP/2没有reason phrase，WebResourceResponse不允许为空
+            reasonPhrase = response.code() < 400 ? "OK" : "Error";
+        }
+        return new WebResourceResponse(mimeType, encoding, response.code(), reasonPhrase, responseHeaders, data);
+    }
+
+    private static boolean containsIgnoreCase(Map<String, String> headers, String name) {
+        for (String key : headers.keySet()) {
+            if (name.equalsIgnoreCase(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 通过OkHttp请求的次数
+     */
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * 请求失败交给WebView的次数
+     */
+    public long getFallbackCount() {
+        return mFallbackCount.get();
+    }
+
+    /**
+     * 重定向交给WebView的次数
+     */
+    public long getRedirectCount() {
+        return mRedirectCount.get();
+    }
+
+    /**
+     * 使用过的不同连接数(可能是原生请求建立的)
+     */
+    public long getConnectionCount() {
+        return mConnectionCount.get();
+    }
+
+    /**
+     * 再次使用同一个连接的请求数
+     */
+    public long getReusedCount() {
+        return mReusedCount.get();
+    }
+
+    /**
+     * 使用HTTP/2的请求数
+     */
+    public long getHttp2Count() {
+        return mHttp2Count.get();
+    }
+
+    /**
+     * 平均收到响应头的耗时
+     */
+    public long getAverageHeaderTimeMs() {
+        long count = mRequestCount.get() - mFallbackCount.get() - mRedirectCount.get();
+        return count <= 0 ? 0 : mHeaderTimeMs.get() / count;
+    }
+
+    /**
+     * 平均WebView读取完响应体的耗时
+     */
+    public long getAverageTotalTimeMs() {
+        long count = mCompletedCount.get();
+        return count == 0 ? 0 : mTotalTimeMs.get() / count;
+    }
+
+    public long getBytes() {
+        return mBytes.get();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByOkHttpInterceptor{request=" + mRequestCount.get() + ", fallback=" + mFallbackCount.get()
+                + ", redirect=" + mRedirectCount.get() + ", connections=" + mConnectionCount.get()
+                + ", reused=" + mReusedCount.get() + ", http2=" + mHttp2Count.get()
+                + ", headerMs=" + getAverageHeaderTimeMs() + ", totalMs=" + getAverageTotalTimeMs()
+                + ", bytes=" + mBytes.get() + "}";
+    }
+
+    public static class Builder {
+        private final OkHttpClient mClient;
+        private final List<Interceptor> mInterceptors = new ArrayList<>();
+        private float mSampleRate = 1;
+        private Cache mCache;
+
+        /**
+         * @param client App的OkHttpClient，共用连接池、线程池和拦截器
+         */
+        public Builder(@NonNull OkHttpClient client) {
+            this.mClient = client;
+        }
+
+        /**
+         * 子资源的缓存，OkHttpClient没有设置Cache时必须设置
+         */
+        public Builder setCache(Cache cache) {
+            this.mCache = cache;
+            return this;
+        }
+
+        /**
+         * 额外的拦截器，如 DoLocalKit.localInterceptor(context)
+         */
+        public Builder addInterceptors(List<Interceptor> interceptors) {
+            if (interceptors != null) {
+                mInterceptors.addAll(interceptors);
+            }
+            return this;
+        }
+
+        /**
+         * @param sampleRate 通过OkHttp请求的比例 0-1，默认1。小于1时其余的请求由WebView处理，用来对比耗时
+         */
+        public Builder setSampleRate(float sampleRate) {
+            this.mSampleRate = Math.max(0, Math.min(1, sampleRate));
+            return this;
+        }
+
+        /**
+         * @throws IllegalStateException 没有Cache时，每次加载页面都会重新请求所有子资源
+         */
+        public ByOkHttpInterceptor build() {
+            if (mCache == null && mClient.cache() == null) {
+                throw new IllegalStateException("ByOkHttpInterceptor requires an OkHttp Cache, see setCache()");
+            }
+            return new ByOkHttpInterceptor(this);
+        }
+    }
+}
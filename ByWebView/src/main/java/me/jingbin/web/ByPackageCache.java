@@ -0,0 +1,105 @@
+package me.jingbin.web;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Build;
+import android.text.TextUtils;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 缓存App是否安装，避免每次跳转都通过PackageManager查询(binder调用)
+ * 收到PACKAGE_ADDED、PACKAGE_REMOVED、PACKAGE_REPLACED广播时移除对应的缓存
+ * <p>
+ * Android 11以上需要在AndroidManifest中通过queries声明要查询的包名
+ */
+class ByPackageCache {
+
+    private static volatile ByPackageCache sInstance;
+
+    private final Context mContext;
+    private final Map<String, Boolean> mInstalled = new ConcurrentHashMap<>();
+    private final Executor mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ByPackageCache");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static ByPackageCache getInstance(Context context) {
+        if (sInstance == null) {
+            synchronized (ByPackageCache.class) {
+                if (sInstance == null) {
+                    sInstance = new ByPackageCache(context.getApplicationContext());
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ByPackageCache(Context context) {
+        this.mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                Uri data = intent.getData();
+                if (data != null && data.getSchemeSpecificPart() != null) {
+                    mInstalled.remove(data.getSchemeSpecificPart());
+                }
+            }
+        };
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            // 系统广播，NOT_EXPORTED也能收到
+            context.registerReceiver(receiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            context.registerReceiver(receiver, filter);
+        }
+    }
+
+    /**
+     * 没有缓存时查询一次PackageManager
+     */
+    boolean isInstalled(String packageName) {
+        if (TextUtils.isEmpty(packageName)) {
+            return false;
+        }
+        Boolean installed = mInstalled.get(packageName);
+        if (installed == null) {
+            installed = ByWebTools.hasPackage(mContext, packageName);
+            mInstalled.put(packageName, installed);
+        }
+        return installed;
+    }
+
+    /**
+     * 在后台线程提前查询，跳转时不再有binder调用
+     */
+    void prefetch(final Collection<String> packageNames) {
+        if (packageNames.isEmpty()) {
+            return;
+        }
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (String packageName : packageNames) {
+                    isInstalled(packageName);
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,305 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 子资源预加载：
+ * - 记录每个页面(按URL规则归类)加载了哪些子资源及顺序
+ * - 下次loadUrl()同一类页面时，在HTML还在加载时并行把前N个子资源下载到ByResourceCache
+ * - 每个host记录的数据有内存上限，超过时淘汰最久未访问的页面
+ * - 统计准确率：预加载的资源中实际被页面用到的比例
+ * <p>
+ * 需要配合ByResourceCache使用，多个ByWebView可以共用同一个实例
+ */
+public class ByPrefetcher implements ByRequestInterceptor {
+
+    /**
+     * 每个页面最多记录的子资源个数
+     */
+    private static final int MAX_RESOURCES_PER_PAGE = 64;
+
+    private final ByResourceCache mResourceCache;
+    private final int mTopN;
+    private final long mHostBudgetBytes;
+    private final ExecutorService mExecutor;
+
+    /**
+     * host -> (页面规则 -> 记录)，accessOrder为true，遍历时第一个是最久未访问的
+     */
+    private final Map<String, LinkedHashMap<String, PageRecord>> mHosts = new HashMap<>();
+    private final Map<String, Long> mHostBytes = new HashMap<>();
+    /**
+     * 每个WebView当前页面的记录
+     */
+    private final Map<WebView, PageRecord> mCurrentPages = Collections.synchronizedMap(new WeakHashMap<WebView, PageRecord>());
+    /**
+     * 每个WebView当前页面已预加载但还没有请求的资源，下一次loadUrl()时清空
+     */
+    private final Map<WebView, Set<String>> mPendingPrefetched = Collections.synchronizedMap(new WeakHashMap<WebView, Set<String>>());
+
+    // 统计
+    private final AtomicLong mPrefetchCount = new AtomicLong();
+    private final AtomicLong mUsedCount = new AtomicLong();
+
+    /**
+     * @param topN            每次预加载的子资源个数
+     * @param hostBudgetBytes 每个host记录数据的内存上限
+     */
+    public ByPrefetcher(@NonNull ByResourceCache resourceCache, int topN, long hostBudgetBytes) {
+        this.mResourceCache = resourceCache;
+        this.mTopN = topN;
+        this.mHostBudgetBytes = hostBudgetBytes;
+        this.mExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(topN, 4)), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ByPrefetcher-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public ByPrefetcher(@NonNull ByResourceCache resourceCache) {
+        this(resourceCache, 8, 64 * 1024);
+    }
+
+    /**
+     * 记录子资源，不拦截
+     */
+    @Override
+    public WebResourceResponse intercept(WebView view, WebResourceRequest request) {
+        String url = request.getUrl().toString();
+        if (request.isForMainFrame()) {
+            // 页面内跳转等不是通过loadUrl()发起的导航，只记录不预加载
+            mCurrentPages.put(view, getPageRecord(url));
+            return null;
+        }
+        Set<String> pending = mPendingPrefetched.get(view);
+        if (pending != null && pending.remove(url)) {
+            mUsedCount.incrementAndGet();
+        }
+        PageRecord page = mCurrentPages.get(view);
+        if (page != null && "GET".equalsIgnoreCase(request.getMethod()) && mResourceCache.isCacheable(url)) {
+            record(page, url);
+        }
+        return null;
+    }
+
+    /**
+     * ByWebView.loadUrl()时调用，预加载这类页面常用的子资源
+     *
+     * @param userAgent WebView的UA，预加载请求使用相同的UA
+     */
+    void onLoadUrl(WebView view, String url, String userAgent) {
+        if (TextUtils.isEmpty(url) || !(url.startsWith("http:") || url.startsWith("https:"))) {
+            return;
+        }
+        PageRecord page = getPageRecord(url);
+        mCurrentPages.put(view, page);
+        // 上一个页面预加载但没有用到的不再统计
+        Set<String> pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        mPendingPrefetched.put(view, pending);
+        List<String> urls;
+        synchronized (this) {
+            page.loadCount++;
+            urls = page.top(mTopN);
+        }
+        if (urls.isEmpty()) {
+            return;
+        }
+        final Map<String, String> headers = new HashMap<>();
+        if (!TextUtils.isEmpty(userAgent)) {
+            headers.put("User-Agent", userAgent);
+        }
+        headers.put("Referer", url);
+        for (final String resource : urls) {
+            mPrefetchCount.incrementAndGet();
+            pending.add(resource);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mResourceCache.load(url, resource, headers, false);
+                }
+            });
+        }
+    }
+
+    private synchronized PageRecord getPageRecord(String url) {
+        Uri uri = Uri.parse(url);
+        String host = uri.getHost() == null ? "" : uri.getHost();
+        LinkedHashMap<String, PageRecord> pages = mHosts.get(host);
+        if (pages == null) {
+            pages = new LinkedHashMap<>(16, 0.75f, true);
+            mHosts.put(host, pages);
+        }
+        String key = toPattern(uri);
+        PageRecord page = pages.get(key);
+        if (page == null) {
+            page = new PageRecord(host, key);
+            pages.put(key, page);
+            addHostBytes(host, page.bytes);
+        }
+        return page;
+    }
+
+    private synchronized void record(PageRecord page, String url) {
+        ResourceRecord resource = page.resources.get(url);
+        if (resource != null) {
+            resource.lastLoad = page.loadCount;
+            resource.hitCount++;
+            return;
+        }
+        if (page.resources.size() >= MAX_RESOURCES_PER_PAGE) {
+            return;
+        }
+        resource = new ResourceRecord(url, page.resources.size());
+        resource.lastLoad = page.loadCount;
+        page.resources.put(url, resource);
+        long bytes = estimateBytes(url);
+        page.bytes += bytes;
+        addHostBytes(page.host, bytes);
+    }
+
+    /**
+     * 超过host的内存上限时，淘汰最久未访问的页面记录(各WebView的当前页面除外)
+     */
+    private void addHostBytes(String host, long bytes) {
+        Long current = mHostBytes.get(host);
+        long total = (current == null ? 0 : current) + bytes;
+        LinkedHashMap<String, PageRecord> pages = mHosts.get(host);
+        if (pages != null) {
+            Iterator<PageRecord> iterator = pages.values().iterator();
+            while (total > mHostBudgetBytes && iterator.hasNext()) {
+                PageRecord eldest = iterator.next();
+                if (mCurrentPages.containsValue(eldest)) {
+                    continue;
+                }
+                iterator.remove();
+                total -= eldest.bytes;
+            }
+        }
+        mHostBytes.put(host, total);
+    }
+
+    /**
+     * 页面规则：去掉query和fragment，纯数字的路径段替换为*，如 /lesson/123 -> /lesson/*
+     */
+    static String toPattern(Uri uri) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(uri.getScheme()).append("://").append(uri.getAuthority());
+        for (String segment : uri.getPathSegments()) {
+            sb.append('/');
+            sb.append(TextUtils.isDigitsOnly(segment) ? "*" : segment);
+        }
+        return sb.toString();
+    }
+
+    private static long estimateBytes(String url) {
+        // 字符串 + 对象和Map节点的大致开销
+        return url.length() * 2L + 64;
+    }
+
+    public long getPrefetchCount() {
+        return mPrefetchCount.get();
+    }
+
+    public long getUsedCount() {
+        return mUsedCount.get();
+    }
+
+    /**
+     * 准确率：被页面用到的预加载 / 全部预加载
+     */
+    public float getAccuracy() {
+        long prefetch = mPrefetchCount.get();
+        return prefetch == 0 ? 0f : mUsedCount.get() / (float) prefetch;
+    }
+
+    public synchronized long getHostBytes(String host) {
+        Long bytes = mHostBytes.get(host);
+        return bytes == null ? 0 : bytes;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByPrefetcher{prefetch=" + mPrefetchCount + ", used=" + mUsedCount + ", accuracy=" + getAccuracy() + "}";
+    }
+
+    private static class PageRecord {
+        final String host;
+        final String key;
+        final LinkedHashMap<String, ResourceRecord> resources = new LinkedHashMap<>();
+        int loadCount;
+        long bytes;
+
+        PageRecord(String host, String key) {
+            this.host = host;
+            this.key = key;
+            this.bytes = estimateBytes(key);
+        }
+
+        /**
+         * 最近一次加载用到的资源，按出现次数倒序、首次出现顺序正序
+         */
+        List<String> top(int n) {
+            List<ResourceRecord> list = new ArrayList<>();
+            for (ResourceRecord resource : resources.values()) {
+                if (resource.lastLoad >= loadCount - 1) {
+                    list.add(resource);
+                }
+            }
+            Collections.sort(list, new Comparator<ResourceRecord>() {
+                @Override
+                public int compare(ResourceRecord o1, ResourceRecord o2) {
+                    if (o1.hitCount != o2.hitCount) {
+                        return o2.hitCount - o1.hitCount;
+                    }
+                    return o1.order - o2.order;
+                }
+            });
+            List<String> urls = new ArrayList<>();
+            for (int i = 0; i < list.size() && i < n; i++) {
+                urls.add(list.get(i).url);
+            }
+            return urls;
+        }
+    }
+
+    private static class ResourceRecord {
+        final String url;
+        final int order;
+        int hitCount = 1;
+        int lastLoad;
+
+        ResourceRecord(String url, int order) {
+            this.url = url;
+            this.order = order;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package me.jingbin.web;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.WebResourceError;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预渲染：在没有添加到界面的WebView中提前加载下一个页面，ByWebView.loadUrl()匹配时直接换上
+ * - 所有ByWebView共用数量上限，超过时丢弃最早的
+ * - 超过有效期没有使用时销毁
+ * - 统计请求、命中和浪费(未使用就销毁)的次数
+ * <p>
+ * 通过 ByWebView.prerender() 使用，只能在主线程调用
+ */
+public class ByPrerenderer {
+
+    private static volatile ByPrerenderer sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Entry> mEntries = new ArrayList<>();
+    private int mMaxCount = 1;
+    private long mTtlMs = 60 * 1000;
+
+    // 统计
+    private int mRequestCount;
+    private int mHitCount;
+    private int mPatternHitCount;
+    private int mWasteCount;
+
+    public static ByPrerenderer getInstance() {
+        if (sInstance == null) {
+            synchronized (ByPrerenderer.class) {
+                if (sInstance == null) {
+                    sInstance = new ByPrerenderer();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    private ByPrerenderer() {
+    }
+
+    static class Entry {
+        final ByWebView owner;
+        final String url;
+        final String urlPrefix;
+        final WebView webView;
+        boolean isFinished;
+        boolean isFailed;
+        Runnable expireRunnable;
+
+        Entry(ByWebView owner, String url, String urlPrefix, WebView webView) {
+            this.owner = owner;
+            this.url = url;
+            this.urlPrefix = urlPrefix;
+            this.webView = webView;
+        }
+
+        boolean isExactMatch(String url) {
+            return stripFragment(this.url).equals(stripFragment(url));
+        }
+
+        boolean matches(String url) {
+            return isExactMatch(url) || (urlPrefix != null && url.startsWith(urlPrefix));
+        }
+    }
+
+    /**
+     * 预渲染使用的WebViewClient：请求经过ByWebView的拦截器(不包括预加载，不记录HAR)，不跳转其他App
+     */
+    private class PrerenderClient extends WebViewClient {
+        private final Entry mEntry;
+        private final List<ByRequestInterceptor> mInterceptors;
+
+        PrerenderClient(Entry entry, List<ByRequestInterceptor> interceptors) {
+            this.mEntry = entry;
+            this.mInterceptors = interceptors;
+        }
+
+        @Override
+        public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+            if (mInterceptors != null) {
+                for (int i = 0; i < mInterceptors.size(); i++) {
+                    WebResourceResponse response = mInterceptors.get(i).intercept(view, request);
+                    if (response != null) {
+                        return response;
+                    }
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
+            String scheme = request.getUrl().getScheme();
+            return !"http".equals(scheme) && !"https".equals(scheme);
+        }
+
+        @Override
+        public void onPageStarted(WebView view, String url, Bitmap favicon) {
+            mEntry.isFinished = false;
+            ByWebView.setPageUrl(view, url);
+        }
+
+        @Override
+        public void onPageFinished(WebView view, String url) {
+            mEntry.isFinished = true;
+        }
+
+        @Override
+        public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
+            if (request.isForMainFrame()) {
+                mEntry.isFailed = true;
+            }
+        }
+
+        @RequiresApi(api = Build.VERSION_CODES.O)
+        @Override
+        public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+            discard(mEntry);
+            return true;
+        }
+    }
+
+    /**
+     * @param maxCount 所有ByWebView最多同时预渲染的页面数，默认1，0表示不预渲染
+     */
+    public ByPrerenderer setMaxCount(int maxCount) {
+        this.mMaxCount = Math.max(0, maxCount);
+        while (mEntries.size() > mMaxCount) {
+            discard(mEntries.get(0));
+        }
+        return this;
+    }
+
+    public int getMaxCount() {
+        return mMaxCount;
+    }
+
+    /**
+     * @param ttlMs 预渲染后多久没有使用就销毁，默认60秒
+     */
+    public ByPrerenderer setTtl(long ttlMs) {
+        this.mTtlMs = ttlMs;
+        return this;
+    }
+
+    boolean contains(ByWebView owner, String url) {
+        for (Entry entry : mEntries) {
+            if (entry.owner == owner && entry.isExactMatch(url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 设置WebViewClient并开始加载
+     */
+    void add(ByWebView owner, List<ByRequestInterceptor> interceptors, WebView webView, String url, String urlPrefix) {
+        mRequestCount++;
+        while (!mEntries.isEmpty() && mEntries.size() >= mMaxCount) {
+            discard(mEntries.get(0));
+        }
+        final Entry entry = new Entry(owner, url, urlPrefix, webView);
+        webView.setWebViewClient(new PrerenderClient(entry, interceptors));
+        entry.expireRunnable = new Runnable() {
+            @Override
+            public void run() {
+                discard(entry);
+            }
+        };
+        mEntries.add(entry);
+        mMainHandler.postDelayed(entry.expireRunnable, mTtlMs);
+        webView.loadUrl(url);
+    }
+
+    /**
+     * 取出匹配的预渲染页面，取出后由ByWebView负责销毁
+     *
+     * @return null 表示没有或加载失败
+     */
+    Entry take(ByWebView owner, String url) {
+        Entry matched = null;
+        for (Entry entry : mEntries) {
+            if (entry.owner != owner || !entry.matches(url)) {
+                continue;
+            }
+            // 优先完全匹配
+            if (matched == null || entry.isExactMatch(url)) {
+                matched = entry;
+            }
+        }
+        if (matched == null) {
+            return null;
+        }
+        if (matched.isFailed) {
+            discard(matched);
+            return null;
+        }
+        mEntries.remove(matched);
+        mMainHandler.removeCallbacks(matched.expireRunnable);
+        if (matched.isExactMatch(url)) {
+            mHitCount++;
+        } else {
+            mPatternHitCount++;
+        }
+        return matched;
+    }
+
+    private void discard(Entry entry) {
+        if (!mEntries.remove(entry)) {
+            return;
+        }
+        mWasteCount++;
+        mMainHandler.removeCallbacks(entry.expireRunnable);
+        entry.webView.stopLoading();
+        entry.webView.setWebViewClient(null);
+        entry.webView.destroy();
+    }
+
+    /**
+     * ByWebView销毁时丢弃它的预渲染页面
+     */
+    void discardAll(ByWebView owner) {
+        for (Entry entry : new ArrayList<>(mEntries)) {
+            if (entry.owner == owner) {
+                discard(entry);
+            }
+        }
+    }
+
+    /**
+     * 丢弃全部预渲染页面，内存不足时ByMemoryGovernor会调用
+     */
+    public void clear() {
+        for (Entry entry : new ArrayList<>(mEntries)) {
+            discard(entry);
+        }
+    }
+
+    private static String stripFragment(String url) {
+        int index = url.indexOf('#');
+        return index == -1 ? url : url.substring(0, index);
+    }
+
+    /**
+     * 预渲染的次数
+     */
+    public int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * url完全匹配，直接换上的次数
+     */
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * 前缀匹配，换上后再加载实际url的次数
+     */
+    public int getPatternHitCount() {
+        return mPatternHitCount;
+    }
+
+    /**
+     * 未使用就销毁(过期、超过数量、加载失败、内存不足)的次数
+     */
+    public int getWasteCount() {
+        return mWasteCount;
+    }
+
+    public int getPendingCount() {
+        return mEntries.size();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByPrerenderer{request=" + mRequestCount + ", hit=" + mHitCount
+                + ", patternHit=" + mPatternHitCount + ", waste=" + mWasteCount
+                + ", pending=" + mEntries.size() + "}";
+    }
+}
@@ -0,0 +1,17 @@
+package me.jingbin.web;
+
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+/**
+ * 拦截WebView的资源请求，在ByWebViewClient.shouldInterceptRequest中按添加顺序调用。
+ * 注意：运行在WebView的IO线程，不是主线程
+ */
+public interface ByRequestInterceptor {
+
+    /**
+     * @return 不为null时直接使用该返回，不再交给后面的拦截器和WebView
+     */
+    WebResourceResponse intercept(WebView view, WebResourceRequest request);
+}
@@ -0,0 +1,718 @@
+package me.jingbin.web;
+
+import android.net.Uri;
+import android.text.TextUtils;
+import android.webkit.CookieManager;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 子资源磁盘缓存(js、css、图片、字体)，在shouldInterceptRequest中拦截：
+ * - 按后缀匹配规则，每个规则有自己的MIME类型和有效期
+ * - 总大小超过上限时按LRU淘汰
+ * - 过期后用ETag/Last-Modified重新验证，304时直接使用本地文件
+ * - 网络失败时使用过期的本地文件
+ * <p>
+ * 多个ByWebView可以共用同一个实例，一般在Application里创建
+ */
+public class ByResourceCache implements ByRequestInterceptor {
+
+    private static final String DATA_SUFFIX = ".data";
+    private static final String META_SUFFIX = ".meta";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final String META_MIME = "mime";
+    private static final String META_ENCODING = "encoding";
+    private static final String META_ETAG = "etag";
+    private static final String META_LAST_MODIFIED = "lastModified";
+    private static final String META_ALLOW_ORIGIN = "allowOrigin";
+    private static final String META_STORED_AT = "storedAt";
+
+    private final File mDir;
+    private final long mMaxBytes;
+    private final List<Rule> mRules;
+    private final int mTimeoutMs;
+
+    /**
+     * accessOrder为true，遍历时第一个就是最久未使用的
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(64, 0.75f, true);
+    private long mSize;
+    private boolean isLoaded = false;
+    /**
+     * 正在下载的请求，key -> 完成时结束
+     */
+    private final Map<String, CompletableFuture<Void>> mInFlight = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong mRequestCount = new AtomicLong();
+    private final AtomicLong mHitCount = new AtomicLong();
+    private final AtomicLong mRevalidateCount = new AtomicLong();
+    private final AtomicLong mStaleCount = new AtomicLong();
+    private final AtomicLong mMissCount = new AtomicLong();
+    private final AtomicLong mBytesSaved = new AtomicLong();
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+
+    private ByResourceCache(Builder builder) {
+        this.mDir = builder.mDir;
+        this.mMaxBytes = builder.mMaxBytes;
+        this.mRules = builder.mRules.isEmpty() ? defaultRules() : builder.mRules;
+        this.mTimeoutMs = builder.mTimeoutMs;
+    }
+
+    /**
+     * 默认规则：脚本和样式10分钟后重新验证，图片和字体7天
+     */
+    public static List<Rule> defaultRules() {
+        long tenMinutes = 10 * 60 * 1000L;
+        long sevenDays = 7 * 24 * 60 * 60 * 1000L;
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule("application/javascript", tenMinutes, "js", "mjs"));
+        rules.add(new Rule("text/css", tenMinutes, "css"));
+        rules.add(new Rule("image/png", sevenDays, "png"));
+        rules.add(new Rule("image/jpeg", sevenDays, "jpg", "jpeg"));
+        rules.add(new Rule("image/gif", sevenDays, "gif"));
+        rules.add(new Rule("image/webp", sevenDays, "webp"));
+        rules.add(new Rule("image/svg+xml", sevenDays, "svg"));
+        rules.add(new Rule("font/woff", sevenDays, "woff"));
+        rules.add(new Rule("font/woff2", sevenDays, "woff2"));
+        rules.add(new Rule("font/ttf", sevenDays, "ttf"));
+        return rules;
+    }
+
+    @Override
+    public WebResourceResponse intercept(WebView view, WebResourceRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())) {
+            return null;
+        }
+        return load(ByWebView.getPageUrl(view), request.getUrl().toString(), request.getRequestHeaders(), true);
+    }
+
+    /**
+     * 查找缓存，没有或过期时请求网络并写入缓存。
+     * 只有和页面同站的请求带cookie；私有的响应(private、no-cache、Set-Cookie、Vary: Cookie)不写入缓存，
+     * 防止共用设备时把一个用户的响应给下一个用户
+     *
+     * @param pageUrl      发起请求的页面，用来判断是否同站
+     * @param needResponse false时只写入缓存(预加载)，返回null
+     */
+    WebResourceResponse load(String pageUrl, String url, Map<String, String> requestHeaders, boolean needResponse) {
+        if (TextUtils.isEmpty(url) || !(url.startsWith("http:") || url.startsWith("https:"))) {
+            return null;
+        }
+        Rule rule = findRule(url);
+        if (rule == null) {
+            return null;
+        }
+        mRequestCount.incrementAndGet();
+        String key = ByWebTools.md5(url);
+        Entry entry = get(key);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt < rule.maxAgeMs) {
+            mHitCount.incrementAndGet();
+            mBytesSaved.addAndGet(entry.length);
+            return needResponse ? toResponse(entry) : null;
+        }
+        CompletableFuture<Void> flight = new CompletableFuture<>();
+        CompletableFuture<Void> pending = mInFlight.putIfAbsent(key, flight);
+        if (pending != null) {
+            // 同一个url正在下载(如预加载还没完成)，等它完成后再查缓存，不重复下载
+            flight = null;
+            try {
+                pending.get(mTimeoutMs * 2L, TimeUnit.MILLISECONDS);
+            } catch (Exception ignore) {
+            }
+            entry = get(key);
+            if (entry != null && System.currentTimeMillis() - entry.storedAt < rule.maxAgeMs) {
+                mHitCount.incrementAndGet();
+                mBytesSaved.addAndGet(entry.length);
+                return needResponse ? toResponse(entry) : null;
+            }
+            // 没有写入缓存(私有的响应、失败)，自己请求
+        }
+        try {
+            return fetch(pageUrl, url, requestHeaders, needResponse, rule, key, entry);
+        } finally {
+            if (flight != null) {
+                mInFlight.remove(key);
+                flight.complete(null);
+            }
+        }
+    }
+
+    private WebResourceResponse fetch(String pageUrl, String url, Map<String, String> requestHeaders, boolean needResponse,
+                                      Rule rule, String key, Entry entry) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(mTimeoutMs);
+            connection.setReadTimeout(mTimeoutMs);
+            if (requestHeaders != null) {
+                for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+                    if (!"Cookie".equalsIgnoreCase(header.getKey())) {
+                        connection.setRequestProperty(header.getKey(), header.getValue());
+                    }
+                }
+            }
+            boolean isSameSite = ByWebTools.isSameSite(pageUrl, url);
+            if (isSameSite) {
+                String cookie = CookieManager.getInstance().getCookie(url);
+                if (!TextUtils.isEmpty(cookie)) {
+                    connection.setRequestProperty("Cookie", cookie);
+                }
+            }
+            if (entry != null) {
+                if (!TextUtils.isEmpty(entry.etag)) {
+                    connection.setRequestProperty("If-None-Match", entry.etag);
+                }
+                if (!TextUtils.isEmpty(entry.lastModified)) {
+                    connection.setRequestProperty("If-Modified-Since", entry.lastModified);
+                }
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null) {
+                mRevalidateCount.incrementAndGet();
+                mBytesSaved.addAndGet(entry.length);
+                entry.storedAt = System.currentTimeMillis();
+                writeMeta(entry);
+                return needResponse ? toResponse(entry) : null;
+            }
+            if (code != HttpURLConnection.HTTP_OK || !isStorable(connection)) {
+                // 不写入缓存，已经请求过，直接把响应交给WebView，避免WebView再请求一次
+                mMissCount.incrementAndGet();
+                if (entry != null && code == HttpURLConnection.HTTP_OK) {
+                    // 已经变成私有的响应，删除旧的缓存
+                    remove(key);
+                }
+                if (!needResponse) {
+                    return null;
+                }
+                WebResourceResponse response = toStreamResponse(url, connection, rule, isSameSite);
+                if (response != null) {
+                    // 读完或关闭流时断开
+                    connection = null;
+                }
+                return response;
+            }
+            Entry newEntry = new Entry(key);
+            parseContentType(connection.getContentType(), rule, newEntry);
+            newEntry.etag = connection.getHeaderField("ETag");
+            newEntry.lastModified = connection.getHeaderField("Last-Modified");
+            newEntry.allowOrigin = connection.getHeaderField("Access-Control-Allow-Origin");
+            newEntry.storedAt = System.currentTimeMillis();
+            newEntry.length = download(connection.getInputStream(), key);
+            mMissCount.incrementAndGet();
+            mBytesDownloaded.addAndGet(newEntry.length);
+            writeMeta(newEntry);
+            put(newEntry);
+            return needResponse ? toResponse(newEntry) : null;
+        } catch (StoreException e) {
+            // 写文件失败不是网络问题，不使用过期的缓存
+            if (BuildConfig.DEBUG) {
+                e.printStackTrace();
+            }
+            return null;
+        } catch (IOException e) {
+            if (entry != null) {
+                // 连接或读取失败，使用过期的缓存
+                mStaleCount.incrementAndGet();
+                mBytesSaved.addAndGet(entry.length);
+                return needResponse ? toResponse(entry) : null;
+            }
+            if (BuildConfig.DEBUG) {
+                e.printStackTrace();
+            }
+            return null;
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) {
+                e.printStackTrace();
+            }
+            return null;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 是否有匹配的规则
+     */
+    boolean isCacheable(String url) {
+        return !TextUtils.isEmpty(url) && (url.startsWith("http:") || url.startsWith("https:")) && findRule(url) != null;
+    }
+
+    private Rule findRule(String url) {
+        String path = Uri.parse(url).getPath();
+        if (path == null) {
+            return null;
+        }
+        int dot = path.lastIndexOf('.');
+        if (dot < 0 || dot < path.lastIndexOf('/')) {
+            return null;
+        }
+        String extension = path.substring(dot + 1).toLowerCase(Locale.US);
+        for (Rule rule : mRules) {
+            if (rule.extensions.contains(extension)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    private static void parseContentType(String contentType, Rule rule, Entry entry) {
+        entry.mimeType = rule.mimeType;
+        if (TextUtils.isEmpty(contentType)) {
+            return;
+        }
+        String[] parts = contentType.split(";");
+        if (!TextUtils.isEmpty(parts[0].trim())) {
+            entry.mimeType = parts[0].trim();
+        }
+        for (int i = 1; i < parts.length; i++) {
+            String part = parts[i].trim();
+            if (part.toLowerCase(Locale.US).startsWith("charset=")) {
+                entry.encoding = part.substring("charset=".length()).replace("\"", "");
+            }
+        }
+    }
+
+    /**
+     * 私有的响应不写入缓存
+     */
+    private static boolean isStorable(HttpURLConnection connection) {
+        String cacheControl = connection.getHeaderField("Cache-Control");
+        if (cacheControl != null) {
+            cacheControl = cacheControl.toLowerCase(Locale.US);
+            if (cacheControl.contains("no-store") || cacheControl.contains("private") || cacheControl.contains("no-cache")) {
+                return false;
+            }
+        }
+        if (connection.getHeaderField("Set-Cookie") != null) {
+            return false;
+        }
+        String vary = connection.getHeaderField("Vary");
+        return vary == null || !(vary.contains("*") || vary.toLowerCase(Locale.US).contains("cookie"));
+    }
+
+    /**
+     * 读网络失败时抛出IOException，写文件失败时抛出StoreException
+     */
+    private long download(InputStream in, String key) throws IOException {
+        File tmp = new File(mDir, key + "." + Thread.currentThread().getId() + TMP_SUFFIX);
+        long length = 0;
+        OutputStream out = null;
+        try {
+            try {
+                out = new FileOutputStream(tmp);
+            } catch (IOException e) {
+                throw new StoreException(e);
+            }
+            byte[] buffer = new byte[8 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                try {
+                    out.write(buffer, 0, read);
+                } catch (IOException e) {
+                    throw new StoreException(e);
+                }
+                length += read;
+            }
+        } catch (IOException e) {
+            ByWebTools.closeQuietly(out);
+            tmp.delete();
+            throw e;
+        } finally {
+            ByWebTools.closeQuietly(out);
+            ByWebTools.closeQuietly(in);
+        }
+        File data = new File(mDir, key + DATA_SUFFIX);
+        if (!tmp.renameTo(data)) {
+            tmp.delete();
+            throw new StoreException(new IOException("rename failed: " + data));
+        }
+        return length;
+    }
+
+    /**
+     * 写缓存文件失败
+     */
+    private static class StoreException extends IOException {
+        StoreException(IOException cause) {
+            super(cause);
+        }
+    }
+
+    /**
+     * 不缓存的响应，边读边交给WebView；3xx无法通过WebResourceResponse返回，返回null
+     */
+    private static WebResourceResponse toStreamResponse(String url, final HttpURLConnection connection, Rule rule, boolean isSameSite) throws IOException {
+        int code = connection.getResponseCode();
+        if (code < 200 || (code >= 300 && code < 400) || code > 599) {
+            return null;
+        }
+        Map<String, String> headers = new HashMap<>();
+        CookieManager cookieManager = CookieManager.getInstance();
+        for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() == null || header.getValue() == null) {
+                // 状态行
+                continue;
+            }
+            if ("Set-Cookie".equalsIgnoreCase(header.getKey())) {
+                // WebView不处理拦截响应中的Set-Cookie，跨站请求的不保存
+                if (isSameSite) {
+                    for (String value : header.getValue()) {
+                        cookieManager.setCookie(url, value);
+                    }
+                }
+                continue;
+            }
+            headers.put(header.getKey(), TextUtils.join(", ", header.getValue()));
+        }
+        Entry entry = new Entry(null);
+        parseContentType(connection.getContentType(), rule, entry);
+        InputStream body = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+        InputStream data = body == null ? null : new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    connection.disconnect();
+                }
+            }
+        };
+        if (data == null) {
+            connection.disconnect();
+        }
+        String reasonPhrase = connection.getResponseMessage();
+        if (TextUtils.isEmpty(reasonPhrase)) {
+            // HTTP/2没有reason phrase，WebResourceResponse不允许为空
+            reasonPhrase = code < 400 ? "OK" : "Error";
+        }
+        return new WebResourceResponse(entry.mimeType, entry.encoding, code, reasonPhrase, headers, data);
+    }
+
+    private WebResourceResponse toResponse(Entry entry) {
+        try {
+            InputStream in = new FileInputStream(new File(mDir, entry.key + DATA_SUFFIX));
+            Map<String, String> headers = new HashMap<>();
+            if (!TextUtils.isEmpty(entry.allowOrigin)) {
+                headers.put("Access-Control-Allow-Origin", entry.allowOrigin);
+            }
+            return new WebResourceResponse(entry.mimeType, entry.encoding, 200, "OK", headers, in);
+        } catch (IOException e) {
+            // 文件被删除
+            remove(entry.key);
+            return null;
+        }
+    }
+
+    private synchronized Entry get(String key) {
+        ensureLoaded();
+        return mEntries.get(key);
+    }
+
+    private synchronized void put(Entry entry) {
+        Entry old = mEntries.put(entry.key, entry);
+        if (old != null) {
+            mSize -= old.length;
+        }
+        mSize += entry.length;
+        trimToSize(mMaxBytes);
+    }
+
+    private synchronized void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mSize -= entry.length;
+        }
+        new File(mDir, key + DATA_SUFFIX).delete();
+        new File(mDir, key + META_SUFFIX).delete();
+    }
+
+    /**
+     * 淘汰最久未使用的缓存，直到总大小不超过maxBytes
+     */
+    public synchronized void trimToSize(long maxBytes) {
+        ensureLoaded();
+        Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > maxBytes && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            mSize -= eldest.length;
+            new File(mDir, eldest.key + DATA_SUFFIX).delete();
+            new File(mDir, eldest.key + META_SUFFIX).delete();
+        }
+    }
+
+    public void clear() {
+        trimToSize(0);
+    }
+
+    public synchronized long getSize() {
+        return mSize;
+    }
+
+    public long getMaxSize() {
+        return mMaxBytes;
+    }
+
+    /**
+     * 第一次使用时从磁盘恢复索引，按文件修改时间排序
+     */
+    private void ensureLoaded() {
+        if (isLoaded) {
+            return;
+        }
+        isLoaded = true;
+        if (!mDir.exists() && !mDir.mkdirs()) {
+            return;
+        }
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> metas = new ArrayList<>();
+        for (File file : files) {
+            if (file.getName().endsWith(META_SUFFIX)) {
+                metas.add(file);
+            } else if (file.getName().endsWith(TMP_SUFFIX)) {
+                file.delete();
+            }
+        }
+        Collections.sort(metas, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        for (File meta : metas) {
+            String key = meta.getName().substring(0, meta.getName().length() - META_SUFFIX.length());
+            Entry entry = readMeta(key, meta);
+            if (entry != null) {
+                mEntries.put(key, entry);
+                mSize += entry.length;
+            } else {
+                meta.delete();
+                new File(mDir, key + DATA_SUFFIX).delete();
+            }
+        }
+        trimToSize(mMaxBytes);
+    }
+
+    private Entry readMeta(String key, File meta) {
+        File data = new File(mDir, key + DATA_SUFFIX);
+        if (!data.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(meta);
+            Properties properties = new Properties();
+            properties.load(in);
+            Entry entry = new Entry(key);
+            entry.mimeType = properties.getProperty(META_MIME);
+            entry.encoding = properties.getProperty(META_ENCODING);
+            entry.etag = properties.getProperty(META_ETAG);
+            entry.lastModified = properties.getProperty(META_LAST_MODIFIED);
+            entry.allowOrigin = properties.getProperty(META_ALLOW_ORIGIN);
+            entry.storedAt = Long.parseLong(properties.getProperty(META_STORED_AT, "0"));
+            entry.length = data.length();
+            return entry;
+        } catch (Exception e) {
+            return null;
+        } finally {
+            ByWebTools.closeQuietly(in);
+        }
+    }
+
+    private void writeMeta(Entry entry) {
+        Properties properties = new Properties();
+        setProperty(properties, META_MIME, entry.mimeType);
+        setProperty(properties, META_ENCODING, entry.encoding);
+        setProperty(properties, META_ETAG, entry.etag);
+        setProperty(properties, META_LAST_MODIFIED, entry.lastModified);
+        setProperty(properties, META_ALLOW_ORIGIN, entry.allowOrigin);
+        properties.setProperty(META_STORED_AT, String.valueOf(entry.storedAt));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(new File(mDir, entry.key + META_SUFFIX));
+            properties.store(out, null);
+        } catch (IOException e) {
+            if (BuildConfig.DEBUG) {
+                e.printStackTrace();
+            }
+        } finally {
+            ByWebTools.closeQuietly(out);
+        }
+    }
+
+    private static void setProperty(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
+    public long getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public long getHitCount() {
+        return mHitCount.get();
+    }
+
+    /**
+     * 304后使用本地文件的次数
+     */
+    public long getRevalidateCount() {
+        return mRevalidateCount.get();
+    }
+
+    /**
+     * 网络失败时使用过期缓存的次数
+     */
+    public long getStaleCount() {
+        return mStaleCount.get();
+    }
+
+    public long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * 命中率：没有下载内容就返回的请求 / 匹配规则的请求
+     */
+    public float getHitRatio() {
+        long request = mRequestCount.get();
+        if (request == 0) {
+            return 0f;
+        }
+        return (mHitCount.get() + mRevalidateCount.get() + mStaleCount.get()) / (float) request;
+    }
+
+    /**
+     * 没有从网络下载而节省的字节数
+     */
+    public long getBytesSaved() {
+        return mBytesSaved.get();
+    }
+
+    public long getBytesDownloaded() {
+        return mBytesDownloaded.get();
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByResourceCache{size=" + getSize() + "/" + mMaxBytes
+                + ", request=" + mRequestCount + ", hit=" + mHitCount + ", revalidate=" + mRevalidateCount
+                + ", stale=" + mStaleCount + ", miss=" + mMissCount
+                + ", hitRatio=" + getHitRatio() + ", bytesSaved=" + mBytesSaved + "}";
+    }
+
+    private static class Entry {
+        final String key;
+        String mimeType;
+        String encoding;
+        String etag;
+        String lastModified;
+        String allowOrigin;
+        long storedAt;
+        long length;
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * 缓存规则：匹配的后缀、默认MIME类型、有效期(过期后重新验证)
+     */
+    public static class Rule {
+        final String mimeType;
+        final long maxAgeMs;
+        final List<String> extensions;
+
+        public Rule(String mimeType, long maxAgeMs, String... extensions) {
+            this.mimeType = mimeType;
+            this.maxAgeMs = maxAgeMs;
+            List<String> list = new ArrayList<>();
+            for (String extension : extensions) {
+                list.add(extension.toLowerCase(Locale.US));
+            }
+            this.extensions = list;
+        }
+    }
+
+    public static class Builder {
+        private final File mDir;
+        private long mMaxBytes = 50 * 1024 * 1024L;
+        private int mTimeoutMs = 15 * 1000;
+        private final List<Rule> mRules = new ArrayList<>();
+
+        /**
+         * @param dir 缓存目录，如 new File(context.getCacheDir(), "by_web_cache")
+         */
+        public Builder(@NonNull File dir) {
+            this.mDir = dir;
+        }
+
+        /**
+         * @param maxBytes 缓存总大小上限，默认50M
+         */
+        public Builder setMaxSize(long maxBytes) {
+            this.mMaxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder setTimeout(int timeoutMs) {
+            this.mTimeoutMs = timeoutMs;
+            return this;
+        }
+
+        /**
+         * 添加规则后不再使用默认规则
+         */
+        public Builder addRule(Rule rule) {
+            mRules.add(rule);
+            return this;
+        }
+
+        public Builder addRules(Rule... rules) {
+            mRules.addAll(Arrays.asList(rules));
+            return this;
+        }
+
+        public ByResourceCache build() {
+            return new ByResourceCache(this);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package me.jingbin.web;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Parcel;
+
+import androidx.webkit.WebViewCompat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 把WebView的前进后退记录(saveState)和滚动位置保存到文件，进程被杀后重新打开时恢复
+ * - 保存会合并：一段时间内多次调用只保存最后一次
+ * - saveState在主线程执行，写文件在后台线程，先写临时文件再重命名
+ * - 同时保存系统和WebView的版本，升级后saveState的格式可能变化，版本不一致时丢弃
+ */
+class ByStateStore {
+
+    static final String KEY_SCROLL_X = "by_scroll_x";
+    static final String KEY_SCROLL_Y = "by_scroll_y";
+    /**
+     * 合并保存的时间
+     */
+    private static final long SAVE_DELAY_MS = 500;
+    private static final String DIR_NAME = "by_web_state";
+    private static final Executor EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "ByStateStore");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final File mFile;
+    private final String mVersion;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final StateProvider mProvider;
+    private final Runnable mSaveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveNow();
+        }
+    };
+
+    interface StateProvider {
+        /**
+         * @return null 表示没有可以保存的记录
+         */
+        Bundle saveState();
+    }
+
+    ByStateStore(Context context, String key, StateProvider provider) {
+        this.mFile = new File(new File(context.getFilesDir(), DIR_NAME), ByWebTools.md5(key) + ".state");
+        this.mProvider = provider;
+        this.mVersion = getVersion(context);
+    }
+
+    /**
+     * 系统版本 + WebView版本，如 "33|google/.../release-keys|com.google.android.webview/120.0.6099.230"
+     */
+    private static String getVersion(Context context) {
+        StringBuilder sb = new StringBuilder().append(Build.VERSION.SDK_INT).append('|').append(Build.FINGERPRINT);
+        try {
+            PackageInfo webView = WebViewCompat.getCurrentWebViewPackage(context);
+            if (webView != null) {
+                sb.append('|').append(webView.packageName).append('/').append(webView.versionName);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 延迟保存，合并短时间内的多次调用
+     */
+    void scheduleSave() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mHandler.postDelayed(mSaveRunnable, SAVE_DELAY_MS);
+    }
+
+    /**
+     * 立即保存(onPause时)，主线程调用
+     */
+    void saveNow() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        Bundle state = mProvider.saveState();
+        if (state == null) {
+            return;
+        }
+        Parcel parcel = Parcel.obtain();
+        final byte[] data;
+        try {
+            parcel.writeString(mVersion);
+            parcel.writeBundle(state);
+            data = parcel.marshall();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            parcel.recycle();
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(data);
+            }
+        });
+    }
+
+    private void write(byte[] data) {
+        File dir = mFile.getParentFile();
+        if (dir != null) {
+            dir.mkdirs();
+        }
+        File tmp = new File(mFile.getPath() + ".tmp");
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                tmp.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+        } finally {
+            ByWebTools.closeQuietly(out);
+        }
+    }
+
+    /**
+     * 读取保存的记录，文件很小，在构造ByWebView时同步读取
+     *
+     * @return null 表示没有保存、读取失败或版本不一致
+     */
+    Bundle read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        InputStream in = null;
+        Parcel parcel = Parcel.obtain();
+        try {
+            byte[] data = new byte[(int) mFile.length()];
+            in = new FileInputStream(mFile);
+            int offset = 0;
+            int count;
+            while (offset < data.length && (count = in.read(data, offset, data.length - offset)) > 0) {
+                offset += count;
+            }
+            parcel.unmarshall(data, 0, offset);
+            parcel.setDataPosition(0);
+            if (!mVersion.equals(parcel.readString())) {
+                // 系统或WebView升级过
+                mFile.delete();
+                return null;
+            }
+            Bundle state = parcel.readBundle(ByStateStore.class.getClassLoader());
+            if (state != null) {
+                state.setClassLoader(ByStateStore.class.getClassLoader());
+            }
+            return state;
+        } catch (Exception e) {
+            // 文件损坏
+            e.printStackTrace();
+            mFile.delete();
+            return null;
+        } finally {
+            parcel.recycle();
+            ByWebTools.closeQuietly(in);
+        }
+    }
+
+    void cancel() {
+        mHandler.removeCallbacks(mSaveRunnable);
+    }
+
+    void clear() {
+        cancel();
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mFile.delete();
+            }
+        });
+    }
+}
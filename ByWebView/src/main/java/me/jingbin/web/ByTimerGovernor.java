@@ -0,0 +1,109 @@
+package me.jingbin.web;
+
+import android.os.Build;
+import android.webkit.WebView;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * 按可见的ByWebView计数管理JS定时器和渲染进程优先级，主线程调用：
+ * - pauseTimers()/resumeTimers()作用于进程内所有WebView，只在没有可见的ByWebView时暂停
+ * - 每个WebView单独onPause()/onResume()
+ * - 可见时渲染进程优先级为IMPORTANT(崩溃降级后为BOUND)，不可见时为WAIVED
+ * <p>
+ * 重复调用onVisible()/onHidden()不影响计数
+ */
+class ByTimerGovernor {
+
+    private static final ByTimerGovernor sInstance = new ByTimerGovernor();
+
+    private final Set<ByWebView> mVisible = Collections.newSetFromMap(new WeakHashMap<ByWebView, Boolean>());
+    private boolean isTimersPaused = false;
+
+    static ByTimerGovernor getInstance() {
+        return sInstance;
+    }
+
+    private ByTimerGovernor() {
+    }
+
+    void onVisible(ByWebView byWebView) {
+        WebView webView = byWebView.getWebView();
+        if (webView == null) {
+            return;
+        }
+        mVisible.add(byWebView);
+        webView.onResume();
+        if (isTimersPaused) {
+            isTimersPaused = false;
+            webView.resumeTimers();
+        }
+        applyRendererPriority(byWebView);
+    }
+
+    void onHidden(ByWebView byWebView) {
+        WebView webView = byWebView.getWebView();
+        if (webView == null) {
+            return;
+        }
+        mVisible.remove(byWebView);
+        webView.onPause();
+        if (mVisible.isEmpty() && !isTimersPaused) {
+            isTimersPaused = true;
+            webView.pauseTimers();
+        }
+        applyRendererPriority(byWebView);
+    }
+
+    /**
+     * 销毁前调用，销毁的是最后一个可见的ByWebView且还有其他ByWebView时暂停定时器
+     */
+    void onDestroy(ByWebView byWebView) {
+        if (!mVisible.remove(byWebView) || !mVisible.isEmpty() || isTimersPaused) {
+            return;
+        }
+        for (ByWebView other : ByWebView.getLiveInstances()) {
+            if (other != byWebView && other.getWebView() != null) {
+                isTimersPaused = true;
+                other.getWebView().pauseTimers();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 按是否可见设置渲染进程优先级，重新创建WebView后也需要调用
+     */
+    void applyRendererPriority(ByWebView byWebView) {
+        WebView webView = byWebView.getWebView();
+        if (webView == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        int priority;
+        if (!mVisible.contains(byWebView)) {
+            priority = WebView.RENDERER_PRIORITY_WAIVED;
+        } else if (byWebView.isRendererDegraded()) {
+            priority = WebView.RENDERER_PRIORITY_BOUND;
+        } else {
+            priority = WebView.RENDERER_PRIORITY_IMPORTANT;
+        }
+        webView.setRendererPriorityPolicy(priority, false);
+    }
+
+    boolean isVisible(ByWebView byWebView) {
+        return mVisible.contains(byWebView);
+    }
+
+    /**
+     * 可见的ByWebView数量
+     */
+    int getVisibleCount() {
+        return mVisible.size();
+    }
+
+    boolean isTimersPaused() {
+        return isTimersPaused;
+    }
+}
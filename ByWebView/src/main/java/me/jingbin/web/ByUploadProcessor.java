@@ -0,0 +1,343 @@
+package me.jingbin.web;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.webkit.ValueCallback;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上传前处理选择的图片，在后台线程执行：
+ * - 按inSampleSize解码，再缩放到最大边长
+ * - 按EXIF方向旋转后重新压缩为JPEG或WebP，重新压缩后不包含EXIF信息(位置等)
+ * - JPEG不支持透明，有透明通道的图片(如PNG)压缩为PNG
+ * - 写入缓存目录，返回file:// Uri，多张图片并行处理
+ * - 不是图片、GIF或处理失败时返回原来的Uri
+ * <p>
+ * 通过 ByWebView.Builder.setUploadProcessor() 使用
+ */
+public class ByUploadProcessor {
+
+    private static final String TAG = "ByUploadProcessor";
+    public static final int FORMAT_JPEG = 0;
+    public static final int FORMAT_WEBP = 1;
+    private static final String FILE_PREFIX = "by_upload_";
+    /**
+     * 处理新的图片时删除超过这个时间的缓存
+     */
+    private static final long CACHE_EXPIRE_MS = 60 * 60 * 1000;
+
+    private final File mCacheDir;
+    private final int mMaxDimension;
+    private final int mQuality;
+    private final int mFormat;
+    private final ExecutorService mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger mFileIndex = new AtomicInteger();
+
+    private ByUploadProcessor(Builder builder) {
+        this.mCacheDir = builder.mCacheDir;
+        this.mMaxDimension = builder.mMaxDimension;
+        this.mQuality = builder.mQuality;
+        this.mFormat = builder.mFormat;
+        this.mExecutor = Executors.newFixedThreadPool(builder.mParallelism, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ByUploadProcessor-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * 并行处理，全部完成后在主线程回调，顺序和uris一致
+     */
+    public void process(Context context, @NonNull final Uri[] uris, @NonNull final ValueCallback<Uri[]> callback) {
+        if (uris.length == 0) {
+            callback.onReceiveValue(uris);
+            return;
+        }
+        final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        final Uri[] results = new Uri[uris.length];
+        final AtomicInteger remaining = new AtomicInteger(uris.length);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trimCache();
+            }
+        });
+        for (int i = 0; i < uris.length; i++) {
+            final int index = i;
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Uri result = null;
+                    try {
+                        result = processImage(resolver, uris[index]);
+                    } catch (Throwable e) {
+                        // 包括OutOfMemoryError，使用原图
+                        Log.e(TAG, "处理图片失败: " + e.getMessage());
+                    }
+                    results[index] = result != null ? result : uris[index];
+                    if (remaining.decrementAndGet() == 0) {
+                        mMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                callback.onReceiveValue(results);
+                            }
+                        });
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * @return null 表示不需要处理
+     */
+    private Uri processImage(ContentResolver resolver, Uri uri) throws IOException {
+        String mimeType = resolver.getType(uri);
+        if (mimeType != null && (!mimeType.startsWith("image/") || "image/gif".equals(mimeType))) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0 || "image/gif".equals(options.outMimeType)) {
+            return null;
+        }
+        int orientation = readOrientation(resolver, uri);
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, mMaxDimension);
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            return null;
+        }
+        Bitmap output = transform(bitmap, orientation);
+        if (output != bitmap) {
+            bitmap.recycle();
+        }
+        // 转为JPEG时透明部分会变成黑色
+        boolean isPng = mFormat == FORMAT_JPEG && output.hasAlpha();
+        File file = new File(mCacheDir, FILE_PREFIX + System.currentTimeMillis() + "_" + mFileIndex.incrementAndGet()
+                + (mFormat == FORMAT_WEBP ? ".webp" : isPng ? ".png" : ".jpg"));
+        OutputStream out = null;
+        try {
+            mCacheDir.mkdirs();
+            out = new FileOutputStream(file);
+            if (!output.compress(isPng ? Bitmap.CompressFormat.PNG : getCompressFormat(), mQuality, out)) {
+                file.delete();
+                return null;
+            }
+        } finally {
+            ByWebTools.closeQuietly(out);
+            output.recycle();
+        }
+        return Uri.fromFile(file);
+    }
+
+    private static Bitmap decode(ContentResolver resolver, Uri uri, BitmapFactory.Options options) throws IOException {
+        InputStream in = resolver.openInputStream(uri);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            ByWebTools.closeQuietly(in);
+        }
+    }
+
+    private static int readOrientation(ContentResolver resolver, Uri uri) {
+        InputStream in = null;
+        try {
+            in = resolver.openInputStream(uri);
+            if (in == null) {
+                return ExifInterface.ORIENTATION_NORMAL;
+            }
+            return new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        } catch (Exception e) {
+            return ExifInterface.ORIENTATION_NORMAL;
+        } finally {
+            ByWebTools.closeQuietly(in);
+        }
+    }
+
+    /**
+     * 2的幂，解码后的长边不小于maxDimension
+     */
+    static int calculateInSampleSize(int width, int height, int maxDimension) {
+        int inSampleSize = 1;
+        int longSide = Math.max(width, height);
+        while (longSide / (inSampleSize * 2) >= maxDimension) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * 缩放到最大边长并按EXIF方向旋转，只创建一次Bitmap
+     */
+    private Bitmap transform(Bitmap bitmap, int orientation) {
+        Matrix matrix = new Matrix();
+        int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longSide > mMaxDimension) {
+            float scale = mMaxDimension / (float) longSide;
+            matrix.postScale(scale, scale);
+        }
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(-90);
+                break;
+            default:
+                break;
+        }
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+    }
+
+    @SuppressWarnings("deprecation")
+    private Bitmap.CompressFormat getCompressFormat() {
+        if (mFormat == FORMAT_WEBP) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                return Bitmap.CompressFormat.WEBP_LOSSY;
+            }
+            return Bitmap.CompressFormat.WEBP;
+        }
+        return Bitmap.CompressFormat.JPEG;
+    }
+
+    private void trimCache() {
+        File[] files = mCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        long expire = System.currentTimeMillis() - CACHE_EXPIRE_MS;
+        for (File file : files) {
+            if (file.getName().startsWith(FILE_PREFIX) && file.lastModified() < expire) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * 删除全部处理后的图片
+     */
+    public void clearCache() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                File[] files = mCacheDir.listFiles();
+                if (files == null) {
+                    return;
+                }
+                for (File file : files) {
+                    if (file.getName().startsWith(FILE_PREFIX)) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    public static class Builder {
+        private final File mCacheDir;
+        private int mMaxDimension = 1920;
+        private int mQuality = 80;
+        private int mFormat = FORMAT_JPEG;
+        private int mParallelism = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        /**
+         * @param context 缓存目录为 context.getCacheDir()/by_upload
+         */
+        public Builder(@NonNull Context context) {
+            this(new File(context.getCacheDir(), "by_upload"));
+        }
+
+        public Builder(@NonNull File cacheDir) {
+            this.mCacheDir = cacheDir;
+        }
+
+        /**
+         * @param maxDimension 长边的最大像素，默认1920
+         */
+        public Builder setMaxDimension(int maxDimension) {
+            this.mMaxDimension = Math.max(1, maxDimension);
+            return this;
+        }
+
+        /**
+         * @param quality 压缩质量 0-100，默认80
+         */
+        public Builder setQuality(int quality) {
+            this.mQuality = Math.max(0, Math.min(100, quality));
+            return this;
+        }
+
+        /**
+         * @param format FORMAT_JPEG(默认)、FORMAT_WEBP
+         */
+        public Builder setFormat(int format) {
+            this.mFormat = format;
+            return this;
+        }
+
+        /**
+         * @param parallelism 同时处理的图片数，默认不超过4
+         */
+        public Builder setParallelism(int parallelism) {
+            if (parallelism > 0) {
+                this.mParallelism = parallelism;
+            }
+            return this;
+        }
+
+        public ByUploadProcessor build() {
+            return new ByUploadProcessor(this);
+        }
+    }
+}
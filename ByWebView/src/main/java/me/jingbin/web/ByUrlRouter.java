@@ -0,0 +1,291 @@
+package me.jingbin.web;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 网页跳转的路由：按scheme或前缀匹配规则，决定是否由WebView加载、屏蔽或唤起其他App
+ * - 规则编译成前缀树，一次遍历找到最长匹配的规则，不区分大小写
+ * - LAUNCH需要的App是否安装使用ByPackageCache缓存，build()时在后台线程提前查询
+ * - 设置了ByApkDownloader时，路径以.apk结尾的链接在App内下载，优先于其他规则
+ * <p>
+ * 示例：
+ * <pre>
+ * ByUrlRouter router = new ByUrlRouter.Builder(context)
+ *         .allow("https://")
+ *         .block("tbopen:")
+ *         .launch("alipays:", "com.eg.android.AlipayGphone")
+ *         .custom("myapp://", handler)
+ *         .setDefaultAction(ByUrlRouter.ACTION_LAUNCH)
+ *         .build();
+ * </pre>
+ */
+public class ByUrlRouter {
+
+    /**
+     * 由WebView加载
+     */
+    public static final int ACTION_ALLOW = 0;
+    /**
+     * 不加载也不唤起
+     */
+    public static final int ACTION_BLOCK = 1;
+    /**
+     * 唤起其他App，设置了包名时只在App已安装时唤起
+     */
+    public static final int ACTION_LAUNCH = 2;
+    /**
+     * 自定义处理
+     */
+    public static final int ACTION_CUSTOM = 3;
+
+    private static ByUrlRouter sDefault;
+
+    private final Node mRoot;
+    private final Rule mDefaultRule;
+    private final ByPackageCache mPackageCache;
+    private final ByApkDownloader mApkDownloader;
+
+    private ByUrlRouter(Builder builder) {
+        this.mRoot = builder.mRoot;
+        this.mApkDownloader = builder.mApkDownloader;
+        this.mDefaultRule = new Rule(builder.mDefaultAction, null, null);
+        this.mPackageCache = ByPackageCache.getInstance(builder.mContext);
+        mPackageCache.prefetch(builder.mPackages);
+    }
+
+    /**
+     * 和原来的 ByWebTools.handleThirdApp() 一致的默认规则
+     */
+    public static synchronized ByUrlRouter getDefault(Context context) {
+        if (sDefault == null) {
+            sDefault = new Builder(context)
+                    .custom("http", new Handler() {
+                        @Override
+                        public boolean handle(Activity activity, String url) {
+                            // 可能有提示下载Apk文件
+                            if (url.contains(".apk")) {
+                                launch(activity, url);
+                                return true;
+                            }
+                            return false;
+                        }
+                    })
+                    // 网页跳支付宝支付
+                    .launch("alipays", "com.eg.android.AlipayGphone")
+                    // 微信支付
+                    .launch("weixin://wap/pay", "com.tencent.mm")
+                    // 会唤起手机里有的App，如果不想被唤起，添加屏蔽即可
+                    .block("tbopen:")// 淘宝
+                    .block("openapp.jdmobile:")// 京东
+                    .block("jdmobile:")//京东
+                    .block("zhihu:")// 知乎
+                    .block("vipshop:")//
+                    .block("youku:")//优酷
+                    .block("uclink:")// UC
+                    .block("ucbrowser:")// UC
+                    .block("newsapp:")//
+                    .block("sinaweibo:")// 新浪微博
+                    .block("suning:")//
+                    .block("pinduoduo:")// 拼多多
+                    .block("qtt:")//
+                    .block("baiduboxapp:")// 百度
+                    .block("baiduhaokan:")// 百度看看
+                    .setDefaultAction(ACTION_LAUNCH)
+                    .build();
+        }
+        return sDefault;
+    }
+
+    /**
+     * @param activity 页面已关闭时为null，不会唤起App
+     * @return true 表示已处理，WebView不加载
+     */
+    public boolean route(Activity activity, String url) {
+        if (TextUtils.isEmpty(url)) {
+            return false;
+        }
+        if (mApkDownloader != null && ByApkDownloader.isApkUrl(url)) {
+            mApkDownloader.download(url);
+            return true;
+        }
+        Rule rule = match(url);
+        switch (rule.action) {
+            case ACTION_ALLOW:
+                return false;
+            case ACTION_LAUNCH:
+                if (rule.packageName == null || mPackageCache.isInstalled(rule.packageName)) {
+                    launch(activity, url);
+                }
+                return true;
+            case ACTION_CUSTOM:
+                return rule.handler.handle(activity, url);
+            case ACTION_BLOCK:
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 匹配的规则的动作
+     */
+    public int getAction(String url) {
+        return TextUtils.isEmpty(url) ? ACTION_ALLOW : match(url).action;
+    }
+
+    /**
+     * 最长前缀匹配
+     */
+    private Rule match(String url) {
+        Rule rule = mDefaultRule;
+        Node node = mRoot;
+        for (int i = 0, length = url.length(); i < length; i++) {
+            node = node.children.get(Character.toLowerCase(url.charAt(i)));
+            if (node == null) {
+                break;
+            }
+            if (node.rule != null) {
+                rule = node.rule;
+            }
+        }
+        return rule;
+    }
+
+    static void launch(Context context, String url) {
+        if (context == null) {
+            return;
+        }
+        try {
+            Intent intent = new Intent();
+            intent.setAction(Intent.ACTION_VIEW);
+            intent.setData(Uri.parse(url));
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            context.startActivity(intent);
+        } catch (Exception e) {
+            if (BuildConfig.DEBUG) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 自定义处理
+     */
+    public interface Handler {
+        /**
+         * @return true 表示已处理，WebView不加载
+         */
+        boolean handle(Activity activity, String url);
+    }
+
+    private static class Rule {
+        final int action;
+        final String packageName;
+        final Handler handler;
+
+        Rule(int action, String packageName, Handler handler) {
+            this.action = action;
+            this.packageName = packageName;
+            this.handler = handler;
+        }
+    }
+
+    private static class Node {
+        final Map<Character, Node> children = new HashMap<>(4);
+        Rule rule;
+    }
+
+    public static class Builder {
+        private final Context mContext;
+        private final Node mRoot = new Node();
+        private final Set<String> mPackages = new HashSet<>();
+        private int mDefaultAction = ACTION_ALLOW;
+        private ByApkDownloader mApkDownloader;
+
+        public Builder(@NonNull Context context) {
+            this.mContext = context.getApplicationContext();
+        }
+
+        public Builder allow(String prefix) {
+            return addRule(prefix, new Rule(ACTION_ALLOW, null, null));
+        }
+
+        public Builder block(String prefix) {
+            return addRule(prefix, new Rule(ACTION_BLOCK, null, null));
+        }
+
+        /**
+         * 唤起其他App
+         */
+        public Builder launch(String prefix) {
+            return launch(prefix, null);
+        }
+
+        /**
+         * @param requiredPackage 只在这个App已安装时唤起
+         */
+        public Builder launch(String prefix, String requiredPackage) {
+            if (!TextUtils.isEmpty(requiredPackage)) {
+                mPackages.add(requiredPackage);
+            }
+            return addRule(prefix, new Rule(ACTION_LAUNCH, TextUtils.isEmpty(requiredPackage) ? null : requiredPackage, null));
+        }
+
+        public Builder custom(String prefix, @NonNull Handler handler) {
+            return addRule(prefix, new Rule(ACTION_CUSTOM, null, handler));
+        }
+
+        /**
+         * 没有匹配的规则时的动作，默认ACTION_ALLOW，不支持ACTION_CUSTOM
+         */
+        public Builder setDefaultAction(int action) {
+            if (action != ACTION_CUSTOM) {
+                this.mDefaultAction = action;
+            }
+            return this;
+        }
+
+        /**
+         * 路径以.apk结尾的链接在App内下载，不再唤起浏览器，是否自动安装见 ByApkDownloader
+         */
+        public Builder setApkDownloader(ByApkDownloader apkDownloader) {
+            this.mApkDownloader = apkDownloader;
+            return this;
+        }
+
+        /**
+         * 相同前缀的规则，后添加的生效
+         */
+        private Builder addRule(String prefix, Rule rule) {
+            if (TextUtils.isEmpty(prefix)) {
+                return this;
+            }
+            Node node = mRoot;
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = Character.toLowerCase(prefix.charAt(i));
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.rule = rule;
+            return this;
+        }
+
+        public ByUrlRouter build() {
+            return new ByUrlRouter(this);
+        }
+    }
+}
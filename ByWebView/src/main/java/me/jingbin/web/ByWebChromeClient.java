@@ -4,6 +4,7 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.content.ClipData;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.ActivityInfo;
@@ -56,6 +57,7 @@ public class ByWebChromeClient extends WebChromeClient {
 
     private OnChromeClientCallback onChromeClientCallback;
     private ValueCallback<Uri[]> mUploadMessageForAndroid5;
+    private ByUploadProcessor mUploadProcessor;
     private static final int RESULT_CODE_FILE_CHOOSER = 1;
     private static final int RESULT_CODE_FILE_CHOOSER_FOR_ANDROID_5 = 2;
     private static final String TAG = "ByWebChromeClient";
@@ -169,6 +171,7 @@ public class ByWebChromeClient extends WebChromeClient {
     @Override
     public void onProgressChanged(WebView view, int newProgress) {
         super.onProgressChanged(view, newProgress);
+        mByWebView.handleProgressChanged(newProgress);
         // 进度条
         if (mByWebView.getProgressBar() != null) {
             mByWebView.getProgressBar().setWebProgress(newProgress);
@@ -311,7 +314,8 @@ public class ByWebChromeClient extends WebChromeClient {
     // For Android > 5.0
     @Override
     public boolean onShowFileChooser(WebView webView, ValueCallback<Uri[]> uploadMsg, FileChooserParams fileChooserParams) {
-        openFileChooserImplForAndroid5(uploadMsg);
+        openFileChooserImplForAndroid5(uploadMsg,
+                fileChooserParams != null && fileChooserParams.getMode() == FileChooserParams.MODE_OPEN_MULTIPLE);
         return true;
     }
 
@@ -326,7 +330,10 @@ public class ByWebChromeClient extends WebChromeClient {
         }
     }
 
-    private void openFileChooserImplForAndroid5(ValueCallback<Uri[]> uploadMsg) {
+    /**
+     * @param allowMultiple 网页的input是否有multiple属性
+     */
+    private void openFileChooserImplForAndroid5(ValueCallback<Uri[]> uploadMsg, boolean allowMultiple) {
         Activity mActivity = this.mActivityWeakReference.get();
         if (mActivity != null && !mActivity.isFinishing()) {
             mUploadMessageForAndroid5 = uploadMsg;
@@ -390,10 +397,7 @@ public class ByWebChromeClient extends WebChromeClient {
                 contentSelectionIntent.addCategory(Intent.CATEGORY_OPENABLE);
                 contentSelectionIntent.setType("image/*");
 
-                // Android 11+ 需要额外处理
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
-                    contentSelectionIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, false);
-                }
+                contentSelectionIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, allowMultiple);
 
                 // 创建选择器Intent
                 Intent chooserIntent = Intent.createChooser(contentSelectionIntent, "选择图片");
@@ -476,7 +480,18 @@ public class ByWebChromeClient extends WebChromeClient {
 
         Uri[] results = null;
         if (resultCode == Activity.RESULT_OK) {
-            if (intent != null && intent.getData() != null) {
+            if (intent != null && intent.getClipData() != null && intent.getClipData().getItemCount() > 0) {
+                // 多选的图片
+                ClipData clipData = intent.getClipData();
+                List<Uri> uris = new ArrayList<>();
+                for (int i = 0; i < clipData.getItemCount(); i++) {
+                    Uri uri = clipData.getItemAt(i).getUri();
+                    if (uri != null) {
+                        uris.add(uri);
+                    }
+                }
+                results = uris.toArray(new Uri[0]);
+            } else if (intent != null && intent.getData() != null) {
                 // 从图库选择的图片
                 String dataString = intent.getDataString();
                 if (dataString != null) {
@@ -503,10 +518,20 @@ public class ByWebChromeClient extends WebChromeClient {
         }
 
         // 回调结果
-        if (results != null) {
-            mUploadMessageForAndroid5.onReceiveValue(results);
+        final ValueCallback<Uri[]> uploadMessage = mUploadMessageForAndroid5;
+        Activity mActivity = this.mActivityWeakReference.get();
+        if (results != null && results.length > 0 && mUploadProcessor != null && mActivity != null) {
+            // 在后台线程压缩后再回调
+            mUploadProcessor.process(mActivity, results, new ValueCallback<Uri[]>() {
+                @Override
+                public void onReceiveValue(Uri[] value) {
+                    uploadMessage.onReceiveValue(value);
+                }
+            });
+        } else if (results != null) {
+            uploadMessage.onReceiveValue(results);
         } else {
-            mUploadMessageForAndroid5.onReceiveValue(new Uri[]{});
+            uploadMessage.onReceiveValue(new Uri[]{});
         }
 
         // 清理
@@ -548,6 +573,10 @@ public class ByWebChromeClient extends WebChromeClient {
         }
     }
 
+    void setUploadProcessor(ByUploadProcessor uploadProcessor) {
+        this.mUploadProcessor = uploadProcessor;
+    }
+
     public void setOnChromeClientCallback(OnChromeClientCallback onChromeClientCallback) {
         this.onChromeClientCallback = onChromeClientCallback;
     }
@@ -0,0 +1,418 @@
+package me.jingbin.web;
+
+import android.app.Activity;
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.webkit.WebView;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * 多个网页标签切换：只保留最近使用的K个ByWebView，其余的保存记录后销毁
+ * - 销毁前保存url、前进后退记录(含滚动位置)和截图
+ * - 切换回已销毁的标签时先显示截图，重新创建的WebView恢复记录，页面加载完成后移除截图
+ * - K根据应用可用内存计算，内存不足(onTrimMemory)时减少
+ * <p>
+ * 示例：
+ * <pre>
+ * ByWebTabManager tabManager = new ByWebTabManager(activity, container, new ByWebTabManager.TabFactory() {
+ *     public ByWebView.Builder createBuilder(String tag) {
+ *         return ByWebView.with(activity).setOnByWebClientCallback(callback);
+ *     }
+ * });
+ * tabManager.showTab("homework", url);
+ * </pre>
+ */
+public class ByWebTabManager {
+
+    /**
+     * 截图缩放比例，显示时再拉伸
+     */
+    private static final float SNAPSHOT_SCALE = 0.5f;
+    /**
+     * 页面一直没有加载完成时，最多显示截图的时间
+     */
+    private static final long SNAPSHOT_TIMEOUT_MS = 5000;
+
+    private final Activity mActivity;
+    private final ViewGroup mContainer;
+    private final TabFactory mFactory;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    /**
+     * 按使用顺序排列，最近使用的在最后
+     */
+    private final LinkedHashMap<String, Tab> mTabs = new LinkedHashMap<>();
+    private final ComponentCallbacks2 mTrimCallback;
+    private Tab mCurrent;
+    private ImageView mSnapshotView;
+    private int mMaxLiveTabs;
+    private int mTrimmedLiveTabs;
+
+    // 统计
+    private int mEvictCount;
+    private int mRehydrateCount;
+
+    public interface TabFactory {
+        /**
+         * 创建标签的ByWebView，不需要设置setWebParent()
+         */
+        ByWebView.Builder createBuilder(String tag);
+    }
+
+    private static class Tab {
+        final String tag;
+        String url;
+        ByWebView byWebView;
+        Bundle state;
+        Bitmap snapshot;
+
+        Tab(String tag, String url) {
+            this.tag = tag;
+            this.url = url;
+        }
+    }
+
+    public ByWebTabManager(@NonNull Activity activity, @NonNull ViewGroup container, @NonNull TabFactory factory) {
+        this.mActivity = activity;
+        this.mContainer = container;
+        this.mFactory = factory;
+        this.mMaxLiveTabs = calculateMaxLiveTabs(activity);
+        this.mTrimmedLiveTabs = mMaxLiveTabs;
+        this.mTrimCallback = new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                trim(level);
+            }
+
+            @Override
+            public void onConfigurationChanged(@NonNull Configuration newConfig) {
+
+            }
+
+            @Override
+            public void onLowMemory() {
+                trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+            }
+        };
+        activity.getApplicationContext().registerComponentCallbacks(mTrimCallback);
+    }
+
+    /**
+     * 根据应用的内存上限计算：低内存设备1个，之后每64MB一个，最多4个
+     */
+    static int calculateMaxLiveTabs(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        if (am == null || am.isLowRamDevice()) {
+            return 1;
+        }
+        ActivityManager.MemoryInfo info = new ActivityManager.MemoryInfo();
+        am.getMemoryInfo(info);
+        if (info.lowMemory) {
+            return 1;
+        }
+        return Math.max(1, Math.min(4, am.getMemoryClass() / 64));
+    }
+
+    /**
+     * 设置最多保留的ByWebView数量，覆盖根据内存计算的值
+     */
+    public ByWebTabManager setMaxLiveTabs(int maxLiveTabs) {
+        this.mMaxLiveTabs = Math.max(1, maxLiveTabs);
+        this.mTrimmedLiveTabs = mMaxLiveTabs;
+        evictIfNeeded();
+        return this;
+    }
+
+    /**
+     * 当前生效的数量，内存不足时会小于setMaxLiveTabs()
+     */
+    public int getMaxLiveTabs() {
+        return mTrimmedLiveTabs;
+    }
+
+    /**
+     * 显示标签，没有时创建
+     *
+     * @param url 创建标签时加载，已有的标签不重新加载
+     */
+    public ByWebView showTab(@NonNull String tag, String url) {
+        Tab tab = mTabs.remove(tag);
+        if (tab == null) {
+            tab = new Tab(tag, url);
+        }
+        mTabs.put(tag, tab);
+        if (tab == mCurrent && tab.byWebView != null) {
+            return tab.byWebView;
+        }
+        // 先移除截图再回收
+        removeSnapshotView();
+        if (mCurrent != null && mCurrent.byWebView != null) {
+            hide(mCurrent);
+        }
+        mCurrent = tab;
+        if (tab.byWebView == null) {
+            create(tab);
+        } else {
+            tab.byWebView.getParentLayout().setVisibility(View.VISIBLE);
+            tab.byWebView.setTabHidden(false);
+            recycleSnapshot(tab);
+        }
+        evictIfNeeded();
+        return tab.byWebView;
+    }
+
+    private void create(final Tab tab) {
+        ByWebView.Builder builder = mFactory.createBuilder(tab.tag);
+        builder.setWebParent(mContainer, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        final ByWebView byWebView = builder.get();
+        tab.byWebView = byWebView;
+        Bundle state = tab.state;
+        tab.state = null;
+        if (state != null && byWebView.restoreStateWithScroll(state)) {
+            mRehydrateCount++;
+        } else if (!TextUtils.isEmpty(tab.url)) {
+            byWebView.loadUrl(tab.url);
+        }
+        if (tab.snapshot != null) {
+            // 恢复期间先显示截图
+            showSnapshotView(tab.snapshot);
+            final Runnable removeSnapshot = new Runnable() {
+                @Override
+                public void run() {
+                    mHandler.removeCallbacks(this);
+                    if (mCurrent == tab) {
+                        removeSnapshotView();
+                        recycleSnapshot(tab);
+                    }
+                }
+            };
+            byWebView.runOnPageFinished(removeSnapshot);
+            mHandler.postDelayed(removeSnapshot, SNAPSHOT_TIMEOUT_MS);
+        }
+    }
+
+    /**
+     * 截图后隐藏，只暂停这个WebView，生命周期的onResume不再恢复
+     */
+    private void hide(Tab tab) {
+        ByWebView byWebView = tab.byWebView;
+        recycleSnapshot(tab);
+        tab.snapshot = capture(byWebView.getWebView());
+        byWebView.getParentLayout().setVisibility(View.GONE);
+        byWebView.setTabHidden(true);
+    }
+
+    /**
+     * 超过数量时销毁最久没有使用的标签
+     */
+    private void evictIfNeeded() {
+        int live = 0;
+        for (Tab tab : mTabs.values()) {
+            if (tab.byWebView != null) {
+                live++;
+            }
+        }
+        Iterator<Tab> iterator = mTabs.values().iterator();
+        while (live > mTrimmedLiveTabs && iterator.hasNext()) {
+            Tab tab = iterator.next();
+            if (tab != mCurrent && tab.byWebView != null) {
+                evict(tab);
+                live--;
+            }
+        }
+    }
+
+    private void evict(Tab tab) {
+        ByWebView byWebView = tab.byWebView;
+        WebView webView = byWebView.getWebView();
+        if (webView != null) {
+            // 已被ByMemoryGovernor休眠时返回休眠前的记录
+            tab.state = byWebView.saveStateWithScroll();
+            String url = !TextUtils.isEmpty(webView.getUrl()) ? webView.getUrl() : byWebView.getCurrentPageUrl();
+            if (!TextUtils.isEmpty(url)) {
+                tab.url = url;
+            }
+        }
+        ViewGroup parentLayout = byWebView.getParentLayout();
+        byWebView.onDestroy();
+        if (parentLayout != null) {
+            mContainer.removeView(parentLayout);
+        }
+        tab.byWebView = null;
+        mEvictCount++;
+    }
+
+    private static Bitmap capture(WebView webView) {
+        if (webView == null || webView.getWidth() <= 0 || webView.getHeight() <= 0) {
+            return null;
+        }
+        try {
+            Bitmap bitmap = Bitmap.createBitmap((int) (webView.getWidth() * SNAPSHOT_SCALE),
+                    (int) (webView.getHeight() * SNAPSHOT_SCALE), Bitmap.Config.RGB_565);
+            Canvas canvas = new Canvas(bitmap);
+            canvas.scale(SNAPSHOT_SCALE, SNAPSHOT_SCALE);
+            canvas.translate(-webView.getScrollX(), -webView.getScrollY());
+            webView.draw(canvas);
+            return bitmap;
+        } catch (Throwable e) {
+            // OutOfMemoryError时不使用截图
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private void showSnapshotView(Bitmap snapshot) {
+        if (mSnapshotView == null) {
+            mSnapshotView = new ImageView(mActivity);
+            mSnapshotView.setScaleType(ImageView.ScaleType.FIT_XY);
+        }
+        mSnapshotView.setImageBitmap(snapshot);
+        if (mSnapshotView.getParent() == null) {
+            mContainer.addView(mSnapshotView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+    }
+
+    private void removeSnapshotView() {
+        if (mSnapshotView != null && mSnapshotView.getParent() != null) {
+            mSnapshotView.setImageBitmap(null);
+            mContainer.removeView(mSnapshotView);
+        }
+    }
+
+    private static void recycleSnapshot(Tab tab) {
+        if (tab.snapshot != null) {
+            tab.snapshot.recycle();
+            tab.snapshot = null;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void trim(int level) {
+        int maxLive;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            maxLive = 1;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW && level != ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            maxLive = Math.max(1, mMaxLiveTabs / 2);
+        } else {
+            return;
+        }
+        if (maxLive < mTrimmedLiveTabs) {
+            mTrimmedLiveTabs = maxLive;
+            evictIfNeeded();
+        }
+    }
+
+    /**
+     * 关闭标签
+     */
+    public void removeTab(String tag) {
+        Tab tab = mTabs.remove(tag);
+        if (tab == null) {
+            return;
+        }
+        if (tab == mCurrent) {
+            removeSnapshotView();
+            mCurrent = null;
+        }
+        if (tab.byWebView != null) {
+            ViewGroup parentLayout = tab.byWebView.getParentLayout();
+            tab.byWebView.onDestroy();
+            if (parentLayout != null) {
+                mContainer.removeView(parentLayout);
+            }
+            tab.byWebView = null;
+        }
+        recycleSnapshot(tab);
+        tab.state = null;
+    }
+
+    /**
+     * 已销毁或没有时返回null
+     */
+    public ByWebView getTab(String tag) {
+        Tab tab = mTabs.get(tag);
+        return tab == null ? null : tab.byWebView;
+    }
+
+    public ByWebView getCurrent() {
+        return mCurrent == null ? null : mCurrent.byWebView;
+    }
+
+    public String getCurrentTag() {
+        return mCurrent == null ? null : mCurrent.tag;
+    }
+
+    /**
+     * 全部标签，最近使用的在最后
+     */
+    public List<String> getTags() {
+        return new ArrayList<>(mTabs.keySet());
+    }
+
+    public boolean isLive(String tag) {
+        return getTab(tag) != null;
+    }
+
+    /**
+     * 因为超过数量被销毁的次数
+     */
+    public int getEvictCount() {
+        return mEvictCount;
+    }
+
+    /**
+     * 从保存的记录恢复的次数
+     */
+    public int getRehydrateCount() {
+        return mRehydrateCount;
+    }
+
+    public boolean handleKeyEvent(int keyCode, KeyEvent event) {
+        ByWebView current = getCurrent();
+        return current != null && current.handleKeyEvent(keyCode, event);
+    }
+
+    public void onResume() {
+        // 内存恢复后重新使用设置的数量
+        mTrimmedLiveTabs = mMaxLiveTabs;
+        ByWebView current = getCurrent();
+        if (current != null) {
+            current.onResume();
+        }
+    }
+
+    public void onPause() {
+        ByWebView current = getCurrent();
+        if (current != null) {
+            current.onPause();
+        }
+    }
+
+    public void onDestroy() {
+        mActivity.getApplicationContext().unregisterComponentCallbacks(mTrimCallback);
+        mHandler.removeCallbacksAndMessages(null);
+        removeSnapshotView();
+        for (String tag : new ArrayList<>(mTabs.keySet())) {
+            removeTab(tag);
+        }
+        mCurrent = null;
+    }
+}
@@ -4,8 +4,6 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
 import android.net.Uri;
 import android.os.Build;
 import android.text.TextUtils;
@@ -13,6 +11,14 @@ import android.webkit.CookieManager;
 import android.webkit.CookieSyncManager;
 import android.webkit.WebView;
 
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * @author jingbin
  */
@@ -66,6 +72,30 @@ public class ByWebTools {
         }
     }
 
+    /**
+     * 异步同步cookie，不阻塞调用线程，多个域名时使用ByCookieJar一次提交
+     *
+     * @param cookies   "a=1;b=2"
+     * @param emptyKeys 需要清空的cookie名，用来清空cookie里的登录信息
+     */
+    public static CompletableFuture<Boolean> syncCookieAsync(WebView webView, String url, String cookies, String... emptyKeys) {
+        ByCookieJar cookieJar = new ByCookieJar().acceptThirdPartyCookies(webView);
+        if (!TextUtils.isEmpty(url)) {
+            // 和syncCookie()一致，cookies中有的不清空；先清空再设置，按顺序提交
+            if (emptyKeys != null) {
+                for (String key : emptyKeys) {
+                    if (!TextUtils.isEmpty(key) && (TextUtils.isEmpty(cookies) || !cookies.contains(key))) {
+                        cookieJar.remove(url, key);
+                    }
+                }
+            }
+            if (!TextUtils.isEmpty(cookies)) {
+                cookieJar.add(url, cookies.split(";"));
+            }
+        }
+        return cookieJar.commit();
+    }
+
     /**
      * 处理Android5.0以下手机不能直接打开mp4后缀的链接
      *
@@ -102,89 +132,87 @@ public class ByWebTools {
     }
 
     /**
-     * 默认处理流程：网页里可能唤起其他的app
+     * 默认处理流程：网页里可能唤起其他的app，规则见 ByUrlRouter.getDefault()
      */
     public static boolean handleThirdApp(Activity activity, String backUrl) {
-        /**http开头直接跳过*/
-        if (backUrl.startsWith("http")) {
-            // 可能有提示下载Apk文件
-            if (backUrl.contains(".apk")) {
-                startActivity(activity, backUrl);
-                return true;
-            }
-            return false;
-        }
-        if (backUrl.contains("alipays")) {
-            // 网页跳支付宝支付
-            if (hasPackage(activity, "com.eg.android.AlipayGphone")) {
-                startActivity(activity, backUrl);
-            }
+        return ByUrlRouter.getDefault(activity).route(activity, backUrl);
+    }
 
-        } else if (backUrl.contains("weixin://wap/pay")) {
-            // 微信支付
-            if (hasPackage(activity, "com.tencent.mm")) {
-                startActivity(activity, backUrl);
-            }
-        } else {
+    /**
+     * 判断网络是否连通，使用ByNetworkMonitor缓存的状态
+     */
+    static boolean isNetworkConnected(Context context) {
+        /*如果context为空，就返回false，表示网络未连接*/
+        return context != null && ByNetworkMonitor.getInstance(context).isConnected();
+    }
 
-            // 会唤起手机里有的App，如果不想被唤起，复制出来然后添加屏蔽即可
-            boolean isJump = true;
-            if (backUrl.contains("tbopen:")// 淘宝
-                    || backUrl.contains("openapp.jdmobile:")// 京东
-                    || backUrl.contains("jdmobile:")//京东
-                    || backUrl.contains("zhihu:")// 知乎
-                    || backUrl.contains("vipshop:")//
-                    || backUrl.contains("youku:")//优酷
-                    || backUrl.contains("uclink:")// UC
-                    || backUrl.contains("ucbrowser:")// UC
-                    || backUrl.contains("newsapp:")//
-                    || backUrl.contains("sinaweibo:")// 新浪微博
-                    || backUrl.contains("suning:")//
-                    || backUrl.contains("pinduoduo:")// 拼多多
-                    || backUrl.contains("qtt:")//
-                    || backUrl.contains("baiduboxapp:")// 百度
-                    || backUrl.contains("baiduhaokan:")// 百度看看
-            ) {
-                isJump = false;
-            }
-            if (isJump) {
-                startActivity(activity, backUrl);
+    private static Boolean sHasOkHttp;
+
+    /**
+     * 请求是否和页面同站，跨站请求不带cookie、不保存Set-Cookie。
+     * 有OkHttp时按可注册域名(eTLD+1)判断；没有时只把相同域名或上下级域名当作同站，页面未知时按跨站处理
+     */
+    static boolean isSameSite(String pageUrl, String url) {
+        if (sHasOkHttp == null) {
+            try {
+                Class.forName("okhttp3.HttpUrl");
+                sHasOkHttp = true;
+            } catch (Throwable e) {
+                sHasOkHttp = false;
             }
         }
-        return true;
+        if (sHasOkHttp) {
+            return ByOkHttpInterceptor.isSameSite(pageUrl, url);
+        }
+        String pageHost = pageUrl == null ? null : Uri.parse(pageUrl).getHost();
+        String host = url == null ? null : Uri.parse(url).getHost();
+        if (TextUtils.isEmpty(pageHost) || TextUtils.isEmpty(host)) {
+            return false;
+        }
+        pageHost = pageHost.toLowerCase(Locale.US);
+        host = host.toLowerCase(Locale.US);
+        return pageHost.equals(host) || pageHost.endsWith("." + host) || host.endsWith("." + pageHost);
     }
 
-    private static void startActivity(Context context, String url) {
+    /**
+     * 用作缓存文件名
+     */
+    static String md5(String value) {
         try {
-            Intent intent = new Intent();
-            intent.setAction("android.intent.action.VIEW");
-            intent.setData(Uri.parse(url));
-            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            context.startActivity(intent);
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            return toHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
         } catch (Exception e) {
-            if (BuildConfig.DEBUG) {
-                e.printStackTrace();
-            }
+            return String.valueOf(value.hashCode());
         }
     }
 
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
     /**
-     * 判断网络是否连通
+     * 把JSONObject/JSONArray解析出来的值转回JSON格式，和evaluateJavascript的返回格式一致
      */
-    static boolean isNetworkConnected(Context context) {
-        try {
-            if (context != null) {
-                @SuppressWarnings("static-access")
-                ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
-                NetworkInfo info = cm.getActiveNetworkInfo();
-                return info != null && info.isConnected();
-            } else {
-                /**如果context为空，就返回false，表示网络未连接*/
-                return false;
+    static String toJsonString(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return "null";
+        } else if (value instanceof String) {
+            return JSONObject.quote((String) value);
+        } else {
+            return value.toString();
+        }
+    }
+
+    static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (Exception ignore) {
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return false;
         }
     }
 
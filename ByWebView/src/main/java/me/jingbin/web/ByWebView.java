@@ -2,19 +2,40 @@ package me.jingbin.web;
 
 import android.annotation.SuppressLint;
 import android.app.Activity;
+import android.content.Context;
 import android.content.Intent;
+import android.graphics.Color;
 import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
 import android.text.TextUtils;
+import android.util.TypedValue;
+import android.view.Gravity;
 import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.webkit.RenderProcessGoneDetail;
+import android.webkit.ValueCallback;
+import android.webkit.WebBackForwardList;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
+import android.webkit.WebViewClient;
 import android.widget.FrameLayout;
+import android.widget.TextView;
 
 import androidx.annotation.LayoutRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 /**
  * 网页可以处理:
@@ -42,15 +63,111 @@ public class ByWebView {
     private Activity activity;
     public ByWebChromeClient mWebChromeClient;
     private ByLoadJsHolder byLoadJsHolder;
+    private ByMessageChannel mMessageChannel;
+    private ByNavigationTiming mNavigationTiming;
+    // 当前页面是否加载完成
+    private boolean isPageFinished = false;
+    private String mPageUrl;
+    // WebView是否从复用池中取出
+    private boolean isFromPool;
+    private String mInterfaceName;
+    private Object mInterfaceObj;
+    private FrameLayout mParentLayout;
+    private ByWebViewClient mByWebViewClient;
+    private OnByWebClientCallback mOnByWebClientCallback;
+    private boolean mUseNavigationTiming;
+    // 渲染进程崩溃恢复
+    private final int mDegradeAfterCrashes;
+    private final int mMaxRecoverCount;
+    private int mCrashCount;
+    private int mRecoverCount;
+    private long mRecoverStartTime;
+    private long mLastRecoverDuration = -1;
+    // 内存不足时
+    private boolean isPaused = false;
+    private boolean isPausedByGovernor = false;
+    private Bundle mHibernatedState;
+    // 进程被杀后恢复
+    private ByStateStore mStateStore;
+    private boolean isRestored = false;
+    private boolean isRestoring = false;
+    private int mRestoreScrollX;
+    private int mRestoreScrollY;
+    private Runnable mOnPageFinishedAction;
+    // 离线兜底
+    private ByOfflineFallback mOfflineFallback;
+    private boolean isMainFrameError = false;
+    private String mOfflineLiveUrl;
+    private long mOfflineRetryDelay;
+    private Runnable mOfflineRetryRunnable;
+    private TextView mOfflineBanner;
+    /**
+     * 显示离线副本的WebView，盖在mWebView上面，副本不进入mWebView的前进后退记录，
+     * 重试时在下面的mWebView中加载在线页面，加载成功后再移除
+     */
+    private WebView mOfflineView;
+    // 定时器、渲染进程优先级
+    private boolean isRendererDegraded = false;
+    private boolean isTabHidden = false;
+    private LifecycleOwner mLifecycleOwner;
+    private DefaultLifecycleObserver mLifecycleObserver;
+    // 预渲染换上之前的记录
+    private Bundle mPrerenderBackState;
+    /**
+     * 未销毁的ByWebView，只在主线程访问
+     */
+    private static final Set<ByWebView> sLiveInstances = Collections.newSetFromMap(new WeakHashMap<ByWebView, Boolean>());
+    // 拦截器在后台线程不能调用WebView的方法，按WebView记录当前页面和缓存模式
+    private static final Map<WebView, String> sPageUrls = Collections.synchronizedMap(new WeakHashMap<WebView, String>());
+    private static final Map<WebView, Integer> sCacheModes = Collections.synchronizedMap(new WeakHashMap<WebView, Integer>());
+    private ByResourceCache mResourceCache;
+    private ByOfflinePackages mOfflinePackages;
+    private ByPrefetcher mPrefetcher;
+    private ByBlockFilter mBlockFilter;
+    // 预渲染使用的拦截器，不包括预加载
+    private List<ByRequestInterceptor> mPrerenderInterceptors;
+    // 前缀匹配换上预渲染页面后，实际的url显示后清除预渲染的记录
+    private boolean isClearHistoryOnCommit;
+    private ByNetworkMonitor mNetworkMonitor;
+    /**
+     * 上一次网络变化时是否已连接，只在断开 -> 连接时立即重试
+     */
+    private boolean isLastConnected;
+    private boolean isAutoCacheMode = true;
 
     private ByWebView(Builder builder) {
         this.activity = builder.mActivity;
         this.mErrorTitle = builder.mErrorTitle;
         this.mErrorLayoutId = builder.mErrorLayoutId;
+        this.mOnByWebClientCallback = builder.mOnByWebClientCallback;
+        this.mUseNavigationTiming = builder.mUseNavigationTiming;
+        this.mDegradeAfterCrashes = builder.mDegradeAfterCrashes;
+        this.mMaxRecoverCount = builder.mMaxRecoverCount;
+        this.mOfflineFallback = builder.mOfflineFallback;
+        this.isAutoCacheMode = builder.mAutoCacheMode;
+        this.mNetworkMonitor = ByNetworkMonitor.getInstance(activity);
+        this.isLastConnected = mNetworkMonitor.isConnected();
 
-        FrameLayout parentLayout = new FrameLayout(activity);
+        FrameLayout parentLayout = new FrameLayout(activity) {
+            @Override
+            protected void onVisibilityChanged(@NonNull View changedView, int visibility) {
+                super.onVisibilityChanged(changedView, visibility);
+                if (visibility == View.VISIBLE) {
+                    onShown();
+                }
+            }
+
+            @Override
+            protected void onWindowVisibilityChanged(int visibility) {
+                super.onWindowVisibilityChanged(visibility);
+                if (visibility == View.VISIBLE) {
+                    onShown();
+                }
+            }
+        };
+        mParentLayout = parentLayout;
         // 设置WebView
-        setWebView(builder.mCustomWebView);
+        setWebView(builder.mCustomWebView, builder.mUseWebViewPool);
         parentLayout.addView(mWebView, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
         // 进度条布局
         handleWebProgress(builder, parentLayout);
@@ -59,55 +176,692 @@ public class ByWebView {
         } else {
             builder.mWebContainer.addView(parentLayout, builder.mLayoutParams);
         }
-        // 配置
-        handleSetting();
         // 视频、照片、进度条
         mWebChromeClient = new ByWebChromeClient(activity, this);
         mWebChromeClient.setOnByWebChromeCallback(builder.mOnTitleProgressCallback);
         mWebChromeClient.setOnChromeClientCallback(builder.onChromeClientCallback);
-        mWebView.setWebChromeClient(mWebChromeClient);
+        mWebChromeClient.setUploadProcessor(builder.mUploadProcessor);
 
         // 错误页面、页面结束、处理DeepLink
-        ByWebViewClient mByWebViewClient = new ByWebViewClient(activity, this);
+        mByWebViewClient = new ByWebViewClient(activity, this);
         mByWebViewClient.setOnByWebClientCallback(builder.mOnByWebClientCallback);
+        List<ByRequestInterceptor> interceptors = handleRequestInterceptors(builder);
+        mByWebViewClient.setRequestInterceptors(interceptors);
+        mPrerenderInterceptors = handlePrerenderInterceptors(interceptors);
+        mByWebViewClient.setHarRecorder(builder.mHarRecorder);
+        mByWebViewClient.setUrlRouter(builder.mUrlRouter);
+
+        if (!TextUtils.isEmpty(builder.mInterfaceName) && builder.mInterfaceObj != null) {
+            mInterfaceName = builder.mInterfaceName;
+            mInterfaceObj = builder.mInterfaceObj;
+        }
+        bindWebView();
+        if (!TextUtils.isEmpty(builder.mRestoreKey)) {
+            handleRestore(builder.mRestoreKey);
+        }
+        sLiveInstances.add(this);
+        ByTimerGovernor.getInstance().onVisible(this);
+        handleLifecycle(builder);
+    }
+
+    /**
+     * 跟随生命周期自动调用onResume()、onPause()、onDestroy()，默认使用Activity(需要是LifecycleOwner)
+     */
+    private void handleLifecycle(Builder builder) {
+        LifecycleOwner owner = builder.mLifecycleOwner;
+        if (owner == null && activity instanceof LifecycleOwner) {
+            owner = (LifecycleOwner) activity;
+        }
+        if (owner == null) {
+            return;
+        }
+        mLifecycleOwner = owner;
+        mLifecycleObserver = new DefaultLifecycleObserver() {
+            @Override
+            public void onResume(@NonNull LifecycleOwner owner) {
+                if (!isTabHidden) {
+                    ByWebView.this.onResume();
+                }
+            }
+
+            @Override
+            public void onPause(@NonNull LifecycleOwner owner) {
+                ByWebView.this.onPause();
+            }
+
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                ByWebView.this.onDestroy();
+            }
+        };
+        owner.getLifecycle().addObserver(mLifecycleObserver);
+    }
+
+    /**
+     * ByWebTabManager：切换标签时隐藏、显示，隐藏时生命周期的onResume不再恢复
+     */
+    void setTabHidden(boolean hidden) {
+        isTabHidden = hidden;
+        if (hidden) {
+            onPause();
+        } else {
+            onResume();
+        }
+    }
+
+    /**
+     * 恢复上次保存的前进后退记录，优先使用缓存加载最后的页面
+     */
+    private void handleRestore(String restoreKey) {
+        mStateStore = new ByStateStore(activity, restoreKey, new ByStateStore.StateProvider() {
+            @Override
+            public Bundle saveState() {
+                return saveStateWithScroll();
+            }
+        });
+        Bundle state = mStateStore.read();
+        if (state != null) {
+            isRestored = restoreStateWithScroll(state);
+            if (!isRestored) {
+                // 记录无法恢复，不再重复尝试
+                mStateStore.clear();
+            }
+        }
+    }
+
+    /**
+     * 前进后退记录和滚动位置
+     *
+     * @return null 表示没有可以保存的记录
+     */
+    Bundle saveStateWithScroll() {
+        if (mHibernatedState != null) {
+            // 休眠时WebView是空的，记录在mHibernatedState中
+            return new Bundle(mHibernatedState);
+        }
+        if (mWebView == null || isRestoring) {
+            return null;
+        }
+        Bundle state = new Bundle();
+        if (mWebView.saveState(state) == null) {
+            return null;
+        }
+        state.putInt(ByStateStore.KEY_SCROLL_X, mWebView.getScrollX());
+        state.putInt(ByStateStore.KEY_SCROLL_Y, mWebView.getScrollY());
+        return state;
+    }
+
+    /**
+     * 恢复saveStateWithScroll()保存的记录，页面加载完成前优先使用缓存
+     */
+    boolean restoreStateWithScroll(Bundle state) {
+        isRestoring = true;
+        applyCacheMode();
+        WebBackForwardList list;
+        try {
+            list = mWebView.restoreState(state);
+        } catch (Exception e) {
+            // 记录损坏或格式不兼容
+            e.printStackTrace();
+            list = null;
+        }
+        if (list == null) {
+            isRestoring = false;
+            applyCacheMode();
+            return false;
+        }
+        mRestoreScrollX = state.getInt(ByStateStore.KEY_SCROLL_X);
+        mRestoreScrollY = state.getInt(ByStateStore.KEY_SCROLL_Y);
+        return true;
+    }
+
+    /**
+     * 下一次页面加载完成时执行一次，ByWebTabManager用来移除快照
+     */
+    void runOnPageFinished(Runnable action) {
+        mOnPageFinishedAction = action;
+    }
+
+    ViewGroup getParentLayout() {
+        return mParentLayout;
+    }
+
+    /**
+     * 恢复的页面加载完成，改回按网络状态的缓存模式，恢复滚动位置
+     */
+    private void finishRestore() {
+        isRestoring = false;
+        applyCacheMode();
+        if (mRestoreScrollY != 0 || mRestoreScrollX != 0) {
+            final WebView webView = mWebView;
+            webView.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (webView.getScrollY() == 0 && webView.getScrollX() == 0) {
+                        webView.scrollTo(mRestoreScrollX, mRestoreScrollY);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 是否恢复了上次保存的记录(Builder.setRestoreKey())，恢复时Builder.loadUrl()不再加载
+     */
+    public boolean isRestored() {
+        return isRestored;
+    }
+
+    /**
+     * 删除保存的记录，如用户主动退出时
+     */
+    public void clearSavedState() {
+        if (mStateStore != null) {
+            mStateStore.clear();
+        }
+    }
+
+    /**
+     * 配置WebView，渲染进程崩溃后重新创建的WebView也使用这里的配置
+     */
+    private void bindWebView() {
+        // 配置
+        handleSetting(mWebView);
+        mWebView.setWebChromeClient(mWebChromeClient);
         mWebView.setWebViewClient(mByWebViewClient);
 
-        handleJsInterface(builder);
+        handleJsInterface();
+        if (mNavigationTiming != null) {
+            mNavigationTiming.attach(mWebView);
+        } else if (mUseNavigationTiming) {
+            mNavigationTiming = new ByNavigationTiming(mWebView, mOnByWebClientCallback);
+        }
+        // 换WebView后继续使用原来的对象，调用方持有的引用仍然有效
+        if (byLoadJsHolder != null) {
+            byLoadJsHolder.attach(mWebView);
+        }
+        if (mMessageChannel != null) {
+            mMessageChannel.attach(mWebView);
+        }
 
         // 移除有风险的WebView系统隐藏接口
         mWebView.removeJavascriptInterface("searchBoxJavaBridge_");
         mWebView.removeJavascriptInterface("accessibility");
         mWebView.removeJavascriptInterface("accessibilityTraversal");
+        ByTimerGovernor.getInstance().applyRendererPriority(this);
     }
 
     /**
-     * 配置自定义的WebView
+     * 配置自定义的WebView，没有自定义时优先从复用池中取
      */
-    private void setWebView(WebView mCustomWebView) {
+    private void setWebView(WebView mCustomWebView, boolean useWebViewPool) {
         if (mCustomWebView != null) {
             mWebView = mCustomWebView;
+        } else if (useWebViewPool && ByWebViewPool.getInstance().isPrepared()) {
+            mWebView = ByWebViewPool.getInstance().acquire(activity);
+            isFromPool = true;
         } else {
             mWebView = new WebView(activity);
         }
     }
 
+    /**
+     * 拦截顺序：屏蔽 -> 预加载(只记录) -> 自定义拦截器 -> 离线包 -> 资源缓存 -> OkHttp
+     */
+    private List<ByRequestInterceptor> handleRequestInterceptors(Builder builder) {
+        mResourceCache = builder.mResourceCache;
+        mOfflinePackages = builder.mOfflinePackages;
+        mPrefetcher = builder.mPrefetcher;
+        mBlockFilter = builder.mBlockFilter;
+        List<ByRequestInterceptor> interceptors = new ArrayList<>();
+        if (mBlockFilter != null) {
+            // 屏蔽的请求不需要再查找预加载和缓存
+            interceptors.add(mBlockFilter);
+        }
+        if (mPrefetcher != null) {
+            interceptors.add(mPrefetcher);
+        }
+        interceptors.addAll(builder.mRequestInterceptors);
+        if (mOfflinePackages != null) {
+            interceptors.add(mOfflinePackages);
+        }
+        if (mResourceCache != null) {
+            interceptors.add(mResourceCache);
+        }
+        if (builder.mOkHttpInterceptor != null) {
+            // 本地没有时才请求网络
+            interceptors.add(builder.mOkHttpInterceptor);
+        }
+        return interceptors.isEmpty() ? null : Collections.unmodifiableList(interceptors);
+    }
+
+    /**
+     * 预渲染的请求不经过预加载，否则会改变预加载记录的当前页面
+     */
+    private List<ByRequestInterceptor> handlePrerenderInterceptors(List<ByRequestInterceptor> interceptors) {
+        if (interceptors == null) {
+            return null;
+        }
+        List<ByRequestInterceptor> prerenderInterceptors = new ArrayList<>(interceptors);
+        prerenderInterceptors.remove(mPrefetcher);
+        return Collections.unmodifiableList(prerenderInterceptors);
+    }
+
     @SuppressLint({"JavascriptInterface", "AddJavascriptInterface"})
-    private void handleJsInterface(Builder builder) {
-        if (!TextUtils.isEmpty(builder.mInterfaceName) && builder.mInterfaceObj != null) {
-            mWebView.addJavascriptInterface(builder.mInterfaceObj, builder.mInterfaceName);
+    private void handleJsInterface() {
+        if (mInterfaceObj != null) {
+            mWebView.addJavascriptInterface(mInterfaceObj, mInterfaceName);
         }
     }
 
     public ByLoadJsHolder getLoadJsHolder() {
         if (byLoadJsHolder == null) {
             byLoadJsHolder = new ByLoadJsHolder(mWebView);
+            byLoadJsHolder.initPageState(isPageFinished, mPageUrl);
         }
         return byLoadJsHolder;
     }
 
-    @SuppressLint("SetJavaScriptEnabled")
-    private void handleSetting() {
+    /**
+     * 基于WebMessagePort的通信通道，页面加载完成后自动连接，用于高频的原生和H5通信
+     */
+    public ByMessageChannel getMessageChannel() {
+        if (mMessageChannel == null) {
+            mMessageChannel = new ByMessageChannel(mWebView);
+        }
+        return mMessageChannel;
+    }
+
+    /**
+     * 原生发起的导航：loadUrl()、reload()、goBack()
+     */
+    private void onNavigation() {
+        isPageFinished = false;
+        if (byLoadJsHolder != null) {
+            byLoadJsHolder.onNavigation();
+        }
+    }
+
+    /**
+     * ByWebViewClient.onPageStarted
+     */
+    void handlePageStarted(String url) {
+        isPageFinished = false;
+        isMainFrameError = false;
+        mPageUrl = url;
+        setPageUrl(mWebView, url);
+        if (byLoadJsHolder != null) {
+            byLoadJsHolder.onPageStarted(url);
+        }
+        if (mNavigationTiming != null) {
+            mNavigationTiming.onPageStarted(url);
+        }
+        if (mMessageChannel != null) {
+            mMessageChannel.reset();
+        }
+    }
+
+    /**
+     * ByWebViewClient.onPageFinished
+     */
+    void handlePageFinished(String url) {
+        isPageFinished = true;
+        mPageUrl = url;
+        handlePageCommitVisible(url);
+        if (isRestoring) {
+            finishRestore();
+        }
+        if (mOfflineFallback != null && !isMainFrameError && !mOfflineFallback.isArchiveUrl(url)) {
+            if (mOfflineLiveUrl != null) {
+                // 重试成功，已显示在线内容
+                mOfflineFallback.onRecovered();
+                exitOffline();
+            }
+            mOfflineFallback.save(mWebView, url);
+        }
+        if (mStateStore != null) {
+            mStateStore.scheduleSave();
+        }
+        if (mOnPageFinishedAction != null) {
+            Runnable action = mOnPageFinishedAction;
+            mOnPageFinishedAction = null;
+            action.run();
+        }
+        if (mRecoverStartTime > 0) {
+            mLastRecoverDuration = SystemClock.elapsedRealtime() - mRecoverStartTime;
+            mRecoverStartTime = 0;
+            if (mOnByWebClientCallback != null) {
+                mOnByWebClientCallback.onRenderProcessRecovered(mWebView, mLastRecoverDuration);
+            }
+        }
+        if (byLoadJsHolder != null) {
+            byLoadJsHolder.onPageFinished(url);
+        }
+        if (mNavigationTiming != null) {
+            mNavigationTiming.onPageFinished(url);
+        }
+        if (mMessageChannel != null) {
+            mMessageChannel.connect();
+        }
+    }
+
+    /**
+     * ByWebViewClient.onPageCommitVisible，新页面已提交时清除前缀匹配换上的预渲染页面的记录，
+     * 返回时不会回到没有访问过的预渲染页面，而是恢复换上之前的记录
+     */
+    void handlePageCommitVisible(String url) {
+        if (isClearHistoryOnCommit && mWebView != null) {
+            isClearHistoryOnCommit = false;
+            mWebView.clearHistory();
+        }
+    }
+
+    /**
+     * ByWebChromeClient.onProgressChanged
+     */
+    void handleProgressChanged(int newProgress) {
+        if (mNavigationTiming != null) {
+            mNavigationTiming.onProgressChanged(newProgress);
+        }
+    }
+
+    /**
+     * ByWebViewClient.onRenderProcessGone
+     * 移除崩溃的WebView，在原来的位置重新创建并恢复前进后退记录，避免整个App崩溃
+     *
+     * @return true 表示已处理
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    boolean handleRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+        if (view != mWebView || mParentLayout == null) {
+            // 已经处理过的WebView
+            destroyDeadWebView(view);
+            return true;
+        }
+        mCrashCount++;
+        long startTime = SystemClock.elapsedRealtime();
+        boolean isRecover = mCrashCount <= mMaxRecoverCount
+                && (mOnByWebClientCallback == null || mOnByWebClientCallback.onRenderProcessGone(detail.didCrash(), mCrashCount));
+
+        // 前进后退记录在浏览器进程中，崩溃后仍可以保存；失败时只加载当前页面
+        Bundle state = null;
+        try {
+            Bundle current = new Bundle();
+            if (view.saveState(current) != null) {
+                state = current;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        String url = mPageUrl;
+
+        recreateWebView();
+        if (!isRecover) {
+            // 新的WebView没有记录，点击错误页面时reload()加载mPageUrl
+            showErrorView();
+            return true;
+        }
+        mRecoverCount++;
+        mRecoverStartTime = startTime;
+        isPageFinished = false;
+        if (state == null || mWebView.restoreState(state) == null) {
+            if (!TextUtils.isEmpty(url)) {
+                mWebView.loadUrl(url);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 销毁当前的WebView，在原来的位置创建新的WebView
+     */
+    private void recreateWebView() {
+        WebView old = mWebView;
+        detachWebViewHolders();
+        int index = mParentLayout.indexOfChild(old);
+        destroyDeadWebView(old);
+        isFromPool = false;
+        mWebView = newWebViewLike(old);
+        mParentLayout.addView(mWebView, Math.max(index, 0),
+                new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        bindWebView();
+        if (mCrashCount >= mDegradeAfterCrashes) {
+            degradeRenderer();
+        }
+    }
+
+    /**
+     * 自定义的WebView子类通过(Context)构造方法创建同样的类型，失败时使用WebView
+     * 子类需要的其他设置可以在 OnByWebClientCallback.onRenderProcessRecovered() 中处理
+     */
+    private WebView newWebViewLike(WebView old) {
+        if (old.getClass() != WebView.class) {
+            try {
+                return old.getClass().getConstructor(Context.class).newInstance(activity);
+            } catch (Exception e) {
+                if (BuildConfig.DEBUG) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return new WebView(activity);
+    }
+
+    private void destroyDeadWebView(WebView view) {
+        ViewGroup parent = (ViewGroup) view.getParent();
+        if (parent != null) {
+            parent.removeView(view);
+        }
+        view.setWebChromeClient(null);
+        view.setWebViewClient(null);
+        view.destroy();
+    }
+
+    /**
+     * 换WebView前(预渲染换上、崩溃或休眠后重新创建)释放持有WebView的对象在旧WebView上的资源，
+     * 对象保留，bindWebView()时绑定到新的WebView
+     */
+    private void detachWebViewHolders() {
+        if (byLoadJsHolder != null) {
+            byLoadJsHolder.release();
+        }
+        if (mMessageChannel != null) {
+            mMessageChannel.release();
+        }
+        if (mNavigationTiming != null) {
+            mNavigationTiming.release();
+        }
+    }
+
+    /**
+     * 销毁时释放持有WebView的对象
+     */
+    private void releaseWebViewHolders() {
+        detachWebViewHolders();
+        byLoadJsHolder = null;
+        mMessageChannel = null;
+        mNavigationTiming = null;
+    }
+
+    /**
+     * 多次崩溃后降低渲染进程的负载：不加载网络图片、不预先绘制屏幕外的内容、降低渲染进程优先级
+     */
+    private void degradeRenderer() {
         WebSettings ws = mWebView.getSettings();
+        ws.setBlockNetworkImage(true);
+        ws.setOffscreenPreRaster(false);
+        isRendererDegraded = true;
+        ByTimerGovernor.getInstance().applyRendererPriority(this);
+    }
+
+    boolean isRendererDegraded() {
+        return isRendererDegraded;
+    }
+
+    static List<ByWebView> getLiveInstances() {
+        return new ArrayList<>(sLiveInstances);
+    }
+
+    /**
+     * 是否不可见：Activity已onPause或WebView没有显示
+     */
+    boolean isHidden() {
+        return isPaused || mWebView == null || !mWebView.isShown();
+    }
+
+    /**
+     * ByMemoryGovernor：暂停不可见的WebView，重新显示或onResume()时继续
+     */
+    void pauseByGovernor() {
+        if (!isPausedByGovernor && mWebView != null) {
+            isPausedByGovernor = true;
+            mWebView.onPause();
+        }
+    }
+
+    /**
+     * 重新显示时(如切换回这个tab，Activity没有onPause()/onResume())恢复被ByMemoryGovernor休眠或暂停的WebView
+     */
+    private void onShown() {
+        if (isPaused || mWebView == null || !mWebView.isShown()) {
+            return;
+        }
+        if (mHibernatedState != null) {
+            wakeUp();
+        }
+        if (isPausedByGovernor) {
+            isPausedByGovernor = false;
+            mWebView.onResume();
+        }
+    }
+
+    /**
+     * ByMemoryGovernor：保存前进后退记录后销毁WebView(释放渲染进程的内存)，换成空的WebView，重新显示或onResume()时恢复
+     *
+     * @return 是否休眠
+     */
+    boolean hibernate() {
+        if (mHibernatedState != null || mWebView == null || mParentLayout == null) {
+            return false;
+        }
+        Bundle state = new Bundle();
+        if (mWebView.saveState(state) == null) {
+            return false;
+        }
+        mHibernatedState = state;
+        recreateWebView();
+        isPausedByGovernor = false;
+        return true;
+    }
+
+    private void wakeUp() {
+        Bundle state = mHibernatedState;
+        mHibernatedState = null;
+        isPageFinished = false;
+        if (mWebView.restoreState(state) == null && !TextUtils.isEmpty(mPageUrl)) {
+            mWebView.loadUrl(mPageUrl);
+        }
+    }
+
+    /**
+     * 当前页面的url，休眠或崩溃重新创建后WebView.getUrl()为null时使用
+     */
+    String getCurrentPageUrl() {
+        return mPageUrl;
+    }
+
+    /**
+     * 是否因为内存不足被休眠，重新显示或onResume()时恢复
+     */
+    public boolean isHibernated() {
+        return mHibernatedState != null;
+    }
+
+    /**
+     * 渲染进程崩溃(或被系统回收)的次数
+     */
+    public int getRenderCrashCount() {
+        return mCrashCount;
+    }
+
+    /**
+     * 崩溃后重新创建WebView并恢复的次数
+     */
+    public int getRenderRecoverCount() {
+        return mRecoverCount;
+    }
+
+    /**
+     * 最近一次从崩溃到恢复的页面加载完成的耗时，没有时为-1
+     */
+    public long getLastRecoverDuration() {
+        return mLastRecoverDuration;
+    }
+
+    /**
+     * 缓存模式统一在这里设置：恢复记录时、无网络或弱网时优先使用缓存
+     */
+    private void applyCacheMode() {
+        if (mWebView != null) {
+            applyCacheMode(mWebView);
+        }
+    }
+
+    private void applyCacheMode(WebView webView) {
+        boolean preferCache = isRestoring || (isAutoCacheMode && mNetworkMonitor.shouldPreferCache());
+        int cacheMode = preferCache ? WebSettings.LOAD_CACHE_ELSE_NETWORK : WebSettings.LOAD_DEFAULT;
+        webView.getSettings().setCacheMode(cacheMode);
+        sCacheModes.put(webView, cacheMode);
+    }
+
+    /**
+     * 可在任意线程调用
+     *
+     * @return ByWebView设置的缓存模式，没有时为 LOAD_DEFAULT
+     */
+    static int getCacheMode(WebView webView) {
+        Integer cacheMode = sCacheModes.get(webView);
+        return cacheMode == null ? WebSettings.LOAD_DEFAULT : cacheMode;
+    }
+
+    static void setPageUrl(WebView webView, String url) {
+        sPageUrls.put(webView, url);
+    }
+
+    /**
+     * 可在任意线程调用，用来判断请求是否跨站
+     *
+     * @return 主页面的url，未知时为null
+     */
+    static String getPageUrl(WebView webView) {
+        return sPageUrls.get(webView);
+    }
+
+    /**
+     * ByNetworkMonitor 网络变化，主线程
+     */
+    void onNetworkChanged(ByNetworkMonitor monitor) {
+        applyCacheMode();
+        boolean wasConnected = isLastConnected;
+        isLastConnected = monitor.isConnected();
+        if (mOfflineLiveUrl != null && !wasConnected && isLastConnected) {
+            // 网络恢复，立即重试；已连接时的类型或计费变化不重试
+            mOfflineRetryDelay = 0;
+            scheduleOfflineRetry();
+            mOfflineRetryDelay = mOfflineFallback.getRetryDelay();
+        }
+    }
+
+    /**
+     * 网络状态(缓存的值)
+     */
+    public ByNetworkMonitor getNetworkMonitor() {
+        return mNetworkMonitor;
+    }
+
+    @SuppressLint("SetJavaScriptEnabled")
+    private void handleSetting(WebView webView) {
+        WebSettings ws = webView.getSettings();
         // 保存表单数据
         ws.setSaveFormData(true);
         // 是否应该支持使用其屏幕缩放控件和手势缩放
@@ -119,7 +873,7 @@ public class ByWebView {
             ws.setAppCacheEnabled(true);
         }
         // 设置缓存模式
-        ws.setCacheMode(WebSettings.LOAD_DEFAULT);
+        applyCacheMode(webView);
         // setDefaultZoom  api19被弃用
         // 网页内容的宽度自适应屏幕
         ws.setLoadWithOverviewMode(true);
@@ -179,6 +933,17 @@ public class ByWebView {
     }
 
     public void loadUrl(String url) {
+        exitOffline();
+        if (swapPrerendered(url)) {
+            return;
+        }
+        onNavigation();
+        if (mNavigationTiming != null) {
+            mNavigationTiming.onLoadUrl(url);
+        }
+        if (mPrefetcher != null) {
+            mPrefetcher.onLoadUrl(mWebView, url, mWebView.getSettings().getUserAgentString());
+        }
         if (!TextUtils.isEmpty(url) && url.endsWith("mp4") && Build.VERSION.SDK_INT <= Build.VERSION_CODES.LOLLIPOP_MR1) {
             mWebView.loadData(ByWebTools.getVideoHtmlBody(url), "text/html", "UTF-8");
         } else {
@@ -191,26 +956,326 @@ public class ByWebView {
     }
 
     public void reload() {
+        if (mOfflineLiveUrl != null) {
+            // 显示离线副本时重新加载在线页面
+            String url = mOfflineLiveUrl;
+            exitOffline();
+            loadUrl(url);
+            return;
+        }
+        if (mWebView.getUrl() == null && !TextUtils.isEmpty(mPageUrl)) {
+            // 渲染进程崩溃后重新创建的WebView没有可以reload的页面
+            loadUrl(mPageUrl);
+            return;
+        }
+        onNavigation();
         hideErrorView();
         mWebView.reload();
     }
 
+    /**
+     * 在没有添加到界面的WebView中提前加载下一个页面，之后loadUrl()相同的url时直接换上。
+     * 计费网络、无网络或低带宽时不预渲染，数量上限和有效期见ByPrerenderer
+     *
+     * @return 是否开始预渲染
+     */
+    public boolean prerender(String url) {
+        return prerender(url, null);
+    }
+
+    /**
+     * @param urlPrefix loadUrl()的url以此开头时也换上预渲染的WebView，再在其中加载实际的url
+     *                  (进程、脚本和资源已加载，如同一模板的详情页)
+     */
+    public boolean prerender(String url, String urlPrefix) {
+        ByPrerenderer prerenderer = ByPrerenderer.getInstance();
+        if (mWebView == null || TextUtils.isEmpty(url) || prerenderer.getMaxCount() <= 0
+                || mNetworkMonitor.shouldPreferCache() || prerenderer.contains(this, url)) {
+            return false;
+        }
+        WebView webView = new WebView(activity);
+        handleSetting(webView);
+        if (mInterfaceObj != null) {
+            webView.addJavascriptInterface(mInterfaceObj, mInterfaceName);
+        }
+        webView.removeJavascriptInterface("searchBoxJavaBridge_");
+        webView.removeJavascriptInterface("accessibility");
+        webView.removeJavascriptInterface("accessibilityTraversal");
+        // 没有添加到界面，按容器的大小布局，页面按实际的宽度渲染
+        int width = mParentLayout.getWidth() > 0 ? mParentLayout.getWidth() : activity.getResources().getDisplayMetrics().widthPixels;
+        int height = mParentLayout.getHeight() > 0 ? mParentLayout.getHeight() : activity.getResources().getDisplayMetrics().heightPixels;
+        webView.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        webView.layout(0, 0, width, height);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            webView.setRendererPriorityPolicy(WebView.RENDERER_PRIORITY_WAIVED, false);
+        }
+        prerenderer.add(this, mPrerenderInterceptors, webView, url, urlPrefix);
+        return true;
+    }
+
+    /**
+     * 有匹配的预渲染页面时换上，保存当前的前进后退记录，返回时恢复
+     */
+    private boolean swapPrerendered(String url) {
+        if (mWebView == null || TextUtils.isEmpty(url)) {
+            return false;
+        }
+        ByPrerenderer.Entry entry = ByPrerenderer.getInstance().take(this, url);
+        if (entry == null) {
+            return false;
+        }
+        mPrerenderBackState = saveStateWithScroll();
+        WebView old = mWebView;
+        detachWebViewHolders();
+        int index = mParentLayout.indexOfChild(old);
+        destroyDeadWebView(old);
+        isFromPool = false;
+        isRestoring = false;
+        mWebView = entry.webView;
+        mParentLayout.addView(mWebView, Math.max(index, 0),
+                new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        bindWebView();
+        if (isRendererDegraded) {
+            degradeRenderer();
+        }
+        if (!isPaused) {
+            ByTimerGovernor.getInstance().onVisible(this);
+        }
+        hideErrorView();
+        if (!entry.isExactMatch(url)) {
+            // 前缀匹配，在预热的WebView中加载实际的url，显示后清除预渲染页面的记录
+            onNavigation();
+            isClearHistoryOnCommit = true;
+            mWebView.loadUrl(url);
+            if (mProgressBar != null) {
+                mProgressBar.show();
+            }
+            return true;
+        }
+        // 同步页面状态，和正常加载一样回调
+        String pageUrl = TextUtils.isEmpty(mWebView.getUrl()) ? entry.url : mWebView.getUrl();
+        mByWebViewClient.onPageStarted(mWebView, pageUrl, null);
+        if (!TextUtils.isEmpty(mWebView.getTitle())) {
+            mWebChromeClient.onReceivedTitle(mWebView, mWebView.getTitle());
+        }
+        if (entry.isFinished) {
+            mByWebViewClient.onPageFinished(mWebView, pageUrl);
+            if (mProgressBar != null) {
+                mProgressBar.hide();
+            }
+        } else if (mProgressBar != null) {
+            mProgressBar.show();
+        }
+        return true;
+    }
+
+    /**
+     * ByWebViewClient.onReceivedError 主页面加载失败，有离线副本时显示副本，否则显示错误布局
+     */
+    void handleMainFrameError(String failingUrl) {
+        isMainFrameError = true;
+        if (mOfflineFallback == null || mOfflineFallback.isArchiveUrl(failingUrl)) {
+            exitOffline();
+            showErrorView();
+            return;
+        }
+        final String archiveUrl = mOfflineFallback.getArchiveUrl(failingUrl);
+        if (archiveUrl == null) {
+            exitOffline();
+            showErrorView();
+            return;
+        }
+        if (mOfflineLiveUrl != null && failingUrl.equals(mOfflineLiveUrl)) {
+            // 重试失败，继续显示副本，不闪错误页
+            mOfflineRetryDelay = Math.min(mOfflineRetryDelay * 2, mOfflineFallback.getMaxRetryDelay());
+            scheduleOfflineRetry();
+            return;
+        }
+        if (mOfflineLiveUrl == null) {
+            mOfflineFallback.onFallback();
+        }
+        mOfflineRetryDelay = mOfflineFallback.getRetryDelay();
+        mOfflineLiveUrl = failingUrl;
+        showOfflineView(archiveUrl);
+        showOfflineBanner();
+        scheduleOfflineRetry();
+    }
+
+    /**
+     * 在单独的WebView中显示副本，只有这个WebView允许file://，mWebView不需要开启文件访问
+     */
+    private void showOfflineView(String archiveUrl) {
+        if (mOfflineView == null) {
+            mOfflineView = new WebView(activity);
+            handleSetting(mOfflineView);
+            // 副本是静态的快照
+            mOfflineView.getSettings().setJavaScriptEnabled(false);
+            mOfflineView.getSettings().setAllowFileAccess(true);
+            mOfflineView.setWebViewClient(new WebViewClient() {
+                @Override
+                public boolean shouldOverrideUrlLoading(WebView view, String url) {
+                    if (mOfflineFallback.isArchiveUrl(url)) {
+                        return false;
+                    }
+                    // 副本中点击的链接在mWebView中打开
+                    loadUrl(url);
+                    return true;
+                }
+            });
+            mParentLayout.addView(mOfflineView, mParentLayout.indexOfChild(mWebView) + 1,
+                    new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+        }
+        mOfflineView.loadUrl(archiveUrl);
+    }
+
+    /**
+     * 后台检查在线页面是否可以访问，可以时再加载，失败时间隔加倍
+     */
+    private void scheduleOfflineRetry() {
+        if (mOfflineRetryRunnable != null) {
+            mParentLayout.removeCallbacks(mOfflineRetryRunnable);
+        }
+        mOfflineRetryRunnable = new Runnable() {
+            @Override
+            public void run() {
+                final String url = mOfflineLiveUrl;
+                if (url == null) {
+                    return;
+                }
+                mOfflineFallback.probe(url, new ValueCallback<Boolean>() {
+                    @Override
+                    public void onReceiveValue(Boolean isReachable) {
+                        if (mWebView == null || !url.equals(mOfflineLiveUrl)) {
+                            return;
+                        }
+                        if (isReachable) {
+                            // 在副本下面的mWebView中加载，成功后在handlePageFinished中移除副本，失败时继续显示副本
+                            onNavigation();
+                            mWebView.loadUrl(url);
+                        } else {
+                            mOfflineRetryDelay = Math.min(mOfflineRetryDelay * 2, mOfflineFallback.getMaxRetryDelay());
+                            scheduleOfflineRetry();
+                        }
+                    }
+                });
+            }
+        };
+        mParentLayout.postDelayed(mOfflineRetryRunnable, mOfflineRetryDelay);
+    }
+
+    private void showOfflineBanner() {
+        if (TextUtils.isEmpty(mOfflineFallback.getBannerText())) {
+            return;
+        }
+        if (mOfflineBanner == null) {
+            mOfflineBanner = new TextView(activity);
+            mOfflineBanner.setText(mOfflineFallback.getBannerText());
+            mOfflineBanner.setTextColor(Color.WHITE);
+            mOfflineBanner.setTextSize(TypedValue.COMPLEX_UNIT_SP, 12);
+            mOfflineBanner.setGravity(Gravity.CENTER);
+            mOfflineBanner.setBackgroundColor(0xCC333333);
+            int padding = ByWebTools.dip2px(activity, 6);
+            mOfflineBanner.setPadding(padding, padding, padding, padding);
+            mOfflineBanner.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    // 点击立即重试
+                    mOfflineRetryDelay = 0;
+                    scheduleOfflineRetry();
+                    mOfflineRetryDelay = mOfflineFallback.getRetryDelay();
+                }
+            });
+            mParentLayout.addView(mOfflineBanner, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.WRAP_CONTENT, Gravity.TOP));
+        }
+        mOfflineBanner.setVisibility(View.VISIBLE);
+    }
+
+    private void exitOffline() {
+        mOfflineLiveUrl = null;
+        if (mOfflineRetryRunnable != null) {
+            mParentLayout.removeCallbacks(mOfflineRetryRunnable);
+            mOfflineRetryRunnable = null;
+        }
+        if (mOfflineView != null) {
+            mParentLayout.removeView(mOfflineView);
+            mOfflineView.setWebViewClient(null);
+            mOfflineView.destroy();
+            mOfflineView = null;
+        }
+        if (mOfflineBanner != null) {
+            mOfflineBanner.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * 是否正在显示离线副本(Builder.setOfflineFallback())
+     */
+    public boolean isShowingOfflineCopy() {
+        return mOfflineLiveUrl != null;
+    }
+
+    /**
+     * 使用LifecycleOwner时自动调用，重复调用没有影响
+     */
     public void onResume() {
-        mWebView.onResume();
-        // 支付宝网页版在打开文章详情之后,无法点击按钮下一步
-        mWebView.resumeTimers();
+        if (mWebView == null) {
+            return;
+        }
+        isPaused = false;
+        isPausedByGovernor = false;
+        if (mHibernatedState != null) {
+            wakeUp();
+        }
+        // 支付宝网页版在打开文章详情之后,无法点击按钮下一步(需要resumeTimers)
+        ByTimerGovernor.getInstance().onVisible(this);
     }
 
+    /**
+     * 使用LifecycleOwner时自动调用，只暂停这个WebView，没有其他可见的ByWebView时才暂停全局的定时器
+     */
     public void onPause() {
-        mWebView.onPause();
-        mWebView.pauseTimers();
+        if (mWebView == null) {
+            return;
+        }
+        isPaused = true;
+        if (mStateStore != null) {
+            // 保存最新的滚动位置
+            mStateStore.saveNow();
+        }
+        ByTimerGovernor.getInstance().onHidden(this);
     }
 
     public void onDestroy() {
+        ByTimerGovernor.getInstance().onDestroy(this);
+        if (mLifecycleOwner != null) {
+            mLifecycleOwner.getLifecycle().removeObserver(mLifecycleObserver);
+            mLifecycleOwner = null;
+        }
+        sLiveInstances.remove(this);
+        ByPrerenderer.getInstance().discardAll(this);
+        mPrerenderBackState = null;
+        if (mStateStore != null) {
+            mStateStore.cancel();
+        }
+        if (mOfflineFallback != null) {
+            exitOffline();
+        }
+        releaseWebViewHolders();
+        mHibernatedState = null;
+        mOnPageFinishedAction = null;
         if (mWebChromeClient != null && mWebChromeClient.getVideoFullView() != null) {
             mWebChromeClient.getVideoFullView().removeAllViews();
         }
-        if (mWebView != null) {
+        if (mWebView != null && isFromPool) {
+            // 放回复用池，不销毁
+            if (!TextUtils.isEmpty(mInterfaceName)) {
+                mWebView.removeJavascriptInterface(mInterfaceName);
+            }
+            ByWebViewPool.getInstance().recycle(mWebView);
+            mWebView = null;
+        } else if (mWebView != null) {
             ViewGroup parent = (ViewGroup) mWebView.getParent();
             if (parent != null) {
                 parent.removeView(mWebView);
@@ -249,10 +1314,31 @@ public class ByWebView {
             return true;
 
             // 返回网页上一页
+        } else if (mOfflineLiveUrl != null) {
+            // 关闭副本，加载失败的记录也返回
+            exitOffline();
+            if (mWebView.canGoBack()) {
+                onNavigation();
+                mWebView.goBack();
+                return true;
+            }
+            return false;
         } else if (mWebView.canGoBack()) {
             hideErrorView();
+            onNavigation();
             mWebView.goBack();
             return true;
+        } else if (mPrerenderBackState != null) {
+            // 返回换上预渲染页面之前的记录
+            Bundle state = mPrerenderBackState;
+            mPrerenderBackState = null;
+            hideErrorView();
+            onNavigation();
+            recreateWebView();
+            if (!isPaused) {
+                ByTimerGovernor.getInstance().onVisible(this);
+            }
+            return restoreStateWithScroll(state);
         }
         return false;
     }
@@ -265,6 +1351,22 @@ public class ByWebView {
         return mProgressBar;
     }
 
+    public ByResourceCache getResourceCache() {
+        return mResourceCache;
+    }
+
+    public ByOfflinePackages getOfflinePackages() {
+        return mOfflinePackages;
+    }
+
+    public ByPrefetcher getPrefetcher() {
+        return mPrefetcher;
+    }
+
+    public ByBlockFilter getBlockFilter() {
+        return mBlockFilter;
+    }
+
     /**
      * 显示错误布局
      */
@@ -347,6 +1449,8 @@ public class ByWebView {
         private int mIndex = -1;
         private String mErrorTitle;
         private WebView mCustomWebView;
+        // 默认在复用池开启时使用
+        private boolean mUseWebViewPool = true;
         private String mInterfaceName;
         private Object mInterfaceObj;
         private ViewGroup mWebContainer;
@@ -354,6 +1458,24 @@ public class ByWebView {
         private OnTitleProgressCallback mOnTitleProgressCallback;
         private OnByWebClientCallback mOnByWebClientCallback;
         private OnChromeClientCallback onChromeClientCallback;
+        private ByResourceCache mResourceCache;
+        private ByOfflinePackages mOfflinePackages;
+        private ByPrefetcher mPrefetcher;
+        private boolean mUseNavigationTiming = false;
+        private ByHarRecorder mHarRecorder;
+        private ByUrlRouter mUrlRouter;
+        private ByUploadProcessor mUploadProcessor;
+        // 渲染进程崩溃后
+        private int mDegradeAfterCrashes = 2;
+        private int mMaxRecoverCount = 3;
+        private String mRestoreKey;
+        private ByOfflineFallback mOfflineFallback;
+        private ByBlockFilter mBlockFilter;
+        private boolean mAutoCacheMode = true;
+        // 类型不使用ByOkHttpInterceptor，没有OkHttp依赖时不加载
+        private ByRequestInterceptor mOkHttpInterceptor;
+        private LifecycleOwner mLifecycleOwner;
+        private final List<ByRequestInterceptor> mRequestInterceptors = new ArrayList<>();
 
 
         public Builder setOnChromeClientCallback(OnChromeClientCallback onChromeClientCallback) {
@@ -443,6 +1565,111 @@ public class ByWebView {
             return this;
         }
 
+        /**
+         * @param useWebViewPool 是否从复用池中取WebView，默认true，需先调用ByWebViewPool.prepare()
+         */
+        public Builder useWebViewPool(boolean useWebViewPool) {
+            mUseWebViewPool = useWebViewPool;
+            return this;
+        }
+
+        /**
+         * 页面加载完成、onPause()时把前进后退记录和滚动位置保存到文件，下次使用相同的key创建时恢复，
+         * 用于进程被杀后重新打开时回到之前的页面
+         *
+         * @param restoreKey 区分不同的页面，如 "home"
+         */
+        public Builder setRestoreKey(String restoreKey) {
+            mRestoreKey = restoreKey;
+            return this;
+        }
+
+        /**
+         * 跟随生命周期自动调用onResume()、onPause()、onDestroy()，
+         * 默认使用Activity(AppCompatActivity等)，在Fragment中使用时传入getViewLifecycleOwner()
+         */
+        public Builder setLifecycleOwner(LifecycleOwner lifecycleOwner) {
+            this.mLifecycleOwner = lifecycleOwner;
+            return this;
+        }
+
+        /**
+         * @param autoCacheMode 无网络、计费网络或低带宽时是否自动使用LOAD_CACHE_ELSE_NETWORK，默认true
+         */
+        public Builder setAutoCacheMode(boolean autoCacheMode) {
+            this.mAutoCacheMode = autoCacheMode;
+            return this;
+        }
+
+        /**
+         * 子资源(GET)通过App的OkHttpClient请求，在其他拦截器之后执行
+         */
+        public Builder setOkHttpInterceptor(ByOkHttpInterceptor okHttpInterceptor) {
+            this.mOkHttpInterceptor = okHttpInterceptor;
+            return this;
+        }
+
+        /**
+         * 屏蔽广告、统计等子资源，在其他拦截器之前执行
+         */
+        public Builder setBlockFilter(ByBlockFilter blockFilter) {
+            this.mBlockFilter = blockFilter;
+            return this;
+        }
+
+        /**
+         * 主页面加载失败时显示上次成功加载的副本，后台重试成功后再切换到在线内容
+         */
+        public Builder setOfflineFallback(ByOfflineFallback offlineFallback) {
+            this.mOfflineFallback = offlineFallback;
+            return this;
+        }
+
+        /**
+         * 渲染进程崩溃(或被系统回收)后的处理，默认崩溃2次后降低负载，最多恢复3次
+         *
+         * @param degradeAfterCrashes 崩溃几次后降低渲染进程负载：不加载网络图片、降低优先级
+         * @param maxRecoverCount     最多重新创建WebView恢复几次，超过后显示错误页面，0表示不恢复
+         */
+        public Builder setRenderCrashPolicy(int degradeAfterCrashes, int maxRecoverCount) {
+            mDegradeAfterCrashes = Math.max(1, degradeAfterCrashes);
+            mMaxRecoverCount = Math.max(0, maxRecoverCount);
+            return this;
+        }
+
+        /**
+         * 网页选择图片后，先压缩再交给网页上传
+         */
+        public Builder setUploadProcessor(ByUploadProcessor uploadProcessor) {
+            mUploadProcessor = uploadProcessor;
+            return this;
+        }
+
+        /**
+         * 网页跳转的路由规则，设置后由它决定是否加载或唤起其他App，不再调用OnByWebClientCallback.isOpenThirdApp()
+         */
+        public Builder setUrlRouter(ByUrlRouter urlRouter) {
+            mUrlRouter = urlRouter;
+            return this;
+        }
+
+        /**
+         * 记录请求和页面导航，可导出HAR文件，多个ByWebView可以共用同一个实例
+         */
+        public Builder setHarRecorder(ByHarRecorder harRecorder) {
+            mHarRecorder = harRecorder;
+            return this;
+        }
+
+        /**
+         * 收集每次导航的原生耗时、navigation timing和Web Vitals，
+         * 通过 OnByWebClientCallback.onNavigationReport() 回调
+         */
+        public Builder useNavigationTiming(boolean useNavigationTiming) {
+            mUseNavigationTiming = useNavigationTiming;
+            return this;
+        }
+
         /**
          * @param errorLayoutId 错误页面布局，标题默认“网页打开失败”
          */
@@ -486,6 +1713,40 @@ public class ByWebView {
             return this;
         }
 
+        /**
+         * 子资源磁盘缓存，多个ByWebView可共用一个
+         */
+        public Builder setResourceCache(ByResourceCache resourceCache) {
+            this.mResourceCache = resourceCache;
+            return this;
+        }
+
+        /**
+         * H5离线包，匹配的请求直接从本地版本目录返回，在缓存之前调用
+         */
+        public Builder setOfflinePackages(ByOfflinePackages offlinePackages) {
+            this.mOfflinePackages = offlinePackages;
+            return this;
+        }
+
+        /**
+         * 子资源预加载，loadUrl()时把这类页面常用的子资源提前下载到ByResourceCache
+         */
+        public Builder setPrefetcher(ByPrefetcher prefetcher) {
+            this.mPrefetcher = prefetcher;
+            return this;
+        }
+
+        /**
+         * 添加资源请求拦截器，在离线包和缓存之前调用，运行在WebView的IO线程
+         */
+        public Builder addRequestInterceptor(ByRequestInterceptor interceptor) {
+            if (interceptor != null) {
+                this.mRequestInterceptors.add(interceptor);
+            }
+            return this;
+        }
+
         /**
          * 直接获取ByWebView，避免一定要调用loadUrl()才能获取ByWebView的情况
          */
@@ -494,11 +1755,13 @@ public class ByWebView {
         }
 
         /**
-         * loadUrl()并获取ByWebView
+         * loadUrl()并获取ByWebView，恢复了上次保存的记录时不再加载
          */
         public ByWebView loadUrl(String url) {
             ByWebView byWebView = get();
-            byWebView.loadUrl(url);
+            if (!byWebView.isRestored()) {
+                byWebView.loadUrl(url);
+            }
             return byWebView;
         }
     }
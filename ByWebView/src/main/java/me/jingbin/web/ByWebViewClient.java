@@ -7,6 +7,7 @@ import android.graphics.Bitmap;
 import android.net.http.SslError;
 import android.os.Build;
 import android.text.TextUtils;
+import android.webkit.RenderProcessGoneDetail;
 import android.webkit.SslErrorHandler;
 import android.webkit.WebResourceError;
 import android.webkit.WebResourceRequest;
@@ -17,6 +18,7 @@ import android.webkit.WebViewClient;
 import androidx.annotation.RequiresApi;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * Created by jingbin on 2020/06/30
@@ -31,6 +33,9 @@ public class ByWebViewClient extends WebViewClient {
     private WeakReference<Activity> mActivityWeakReference = null;
     private ByWebView mByWebView;
     private OnByWebClientCallback onByWebClientCallback;
+    private List<ByRequestInterceptor> mRequestInterceptors;
+    private ByHarRecorder mHarRecorder;
+    private ByUrlRouter mUrlRouter;
 
     ByWebViewClient(Activity activity, ByWebView byWebView) {
         mActivityWeakReference = new WeakReference<Activity>(activity);
@@ -41,6 +46,45 @@ public class ByWebViewClient extends WebViewClient {
         this.onByWebClientCallback = onByWebClientCallback;
     }
 
+    void setRequestInterceptors(List<ByRequestInterceptor> requestInterceptors) {
+        this.mRequestInterceptors = requestInterceptors;
+    }
+
+    void setHarRecorder(ByHarRecorder harRecorder) {
+        this.mHarRecorder = harRecorder;
+    }
+
+    void setUrlRouter(ByUrlRouter urlRouter) {
+        this.mUrlRouter = urlRouter;
+    }
+
+    /**
+     * 资源请求依次交给拦截器处理(缓存等)，都不处理时走WebView自己的网络请求
+     */
+    @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        ByHarRecorder harRecorder = mHarRecorder;
+        long start = harRecorder != null ? ByHarRecorder.now() : 0;
+        if (mRequestInterceptors != null) {
+            for (int i = 0; i < mRequestInterceptors.size(); i++) {
+                ByRequestInterceptor interceptor = mRequestInterceptors.get(i);
+                WebResourceResponse response = interceptor.intercept(view, request);
+                if (response != null) {
+                    if (harRecorder != null) {
+                        return harRecorder.recordRequest(view, request, interceptor, start, response);
+                    }
+                    return response;
+                }
+            }
+        }
+        WebResourceResponse response = super.shouldInterceptRequest(view, request);
+        if (harRecorder != null) {
+            return harRecorder.recordRequest(view, request, null, start, response);
+        }
+        return response;
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     @Override
     public boolean shouldOverrideUrlLoading(WebView view, WebResourceRequest request) {
@@ -48,6 +92,9 @@ public class ByWebViewClient extends WebViewClient {
         if (TextUtils.isEmpty(url)) {
             return false;
         }
+        if (mUrlRouter != null) {
+            return mUrlRouter.route(mActivityWeakReference.get(), url);
+        }
         if (onByWebClientCallback != null) {
             return onByWebClientCallback.isOpenThirdApp(url);
         } else {
@@ -65,6 +112,9 @@ public class ByWebViewClient extends WebViewClient {
         if (TextUtils.isEmpty(url)) {
             return false;
         }
+        if (mUrlRouter != null) {
+            return mUrlRouter.route(mActivityWeakReference.get(), url);
+        }
         if (onByWebClientCallback != null) {
             return onByWebClientCallback.isOpenThirdApp(url);
         } else {
@@ -79,12 +129,22 @@ public class ByWebViewClient extends WebViewClient {
 
     @Override
     public void onPageStarted(WebView view, String url, Bitmap favicon) {
+        if (mHarRecorder != null) {
+            mHarRecorder.recordPage(view, "started", url);
+        }
+        mByWebView.handlePageStarted(url);
         if (onByWebClientCallback != null) {
             onByWebClientCallback.onPageStarted(view, url, favicon);
         }
         super.onPageStarted(view, url, favicon);
     }
 
+    @Override
+    public void onPageCommitVisible(WebView view, String url) {
+        super.onPageCommitVisible(view, url);
+        mByWebView.handlePageCommitVisible(url);
+    }
+
     @Override
     public void onPageFinished(WebView view, String url) {
         // html加载完成之后，添加监听图片的点击js函数
@@ -93,6 +153,10 @@ public class ByWebViewClient extends WebViewClient {
                 && !ByWebTools.isNetworkConnected(mActivity) && mByWebView.getProgressBar() != null) {
             mByWebView.getProgressBar().hide();
         }
+        if (mHarRecorder != null) {
+            mHarRecorder.recordPage(view, "finished", url);
+        }
+        mByWebView.handlePageFinished(url);
         if (onByWebClientCallback != null) {
             onByWebClientCallback.onPageFinished(view, url);
         }
@@ -106,12 +170,16 @@ public class ByWebViewClient extends WebViewClient {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
             return;
         }
-        mByWebView.showErrorView();
+        mByWebView.handleMainFrameError(failingUrl);
     }
 
     @Override
     public void onReceivedHttpError(WebView view, WebResourceRequest request, WebResourceResponse errorResponse) {
         super.onReceivedHttpError(view, request, errorResponse);
+        if (mHarRecorder != null) {
+            mHarRecorder.recordError(view, request.getUrl().toString(), request.isForMainFrame(),
+                    errorResponse.getStatusCode(), errorResponse.getReasonPhrase());
+        }
         // 这个方法在 android 6.0才出现。加了正常的页面可能会出现错误页面
 //        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
 //            int statusCode = errorResponse.getStatusCode();
@@ -125,9 +193,13 @@ public class ByWebViewClient extends WebViewClient {
     @Override
     public void onReceivedError(WebView view, WebResourceRequest request, WebResourceError error) {
         super.onReceivedError(view, request, error);
+        if (mHarRecorder != null) {
+            mHarRecorder.recordError(view, request.getUrl().toString(), request.isForMainFrame(),
+                    0, error.getErrorCode() + " " + error.getDescription());
+        }
         if (request.isForMainFrame()) {
             // 是否是为 main frame创建
-            mByWebView.showErrorView();
+            mByWebView.handleMainFrameError(request.getUrl().toString());
         }
     }
 
@@ -157,6 +229,15 @@ public class ByWebViewClient extends WebViewClient {
         }
     }
 
+    /**
+     * 渲染进程崩溃或被回收，不处理时整个App会崩溃
+     */
+    @RequiresApi(api = Build.VERSION_CODES.O)
+    @Override
+    public boolean onRenderProcessGone(WebView view, RenderProcessGoneDetail detail) {
+        return mByWebView.handleRenderProcessGone(view, detail);
+    }
+
     /**
      * 视频全屏播放按返回页面被放大的问题
      */
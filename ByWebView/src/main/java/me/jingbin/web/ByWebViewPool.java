@@ -0,0 +1,237 @@
+package me.jingbin.web;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.content.MutableContextWrapper;
+import android.os.Build;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.view.ViewGroup;
+import android.webkit.WebSettings;
+import android.webkit.WebView;
+import android.webkit.WebViewClient;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * WebView 复用池(可选)：
+ * - Application.onCreate 之后在主线程空闲时预热 WebView 内核，并创建若干个 WebView
+ * - WebView 挂在 MutableContextWrapper 上，取出时切换到当前 Activity，回收时切回 Application
+ * - 统计命中/未命中次数和创建耗时，用来确定池的大小
+ * <p>
+ * 只能在主线程使用
+ */
+public class ByWebViewPool {
+
+    private static volatile ByWebViewPool sInstance;
+
+    private final ArrayDeque<WebView> mPool = new ArrayDeque<>();
+    private Context mAppContext;
+    private int mMaxSize;
+    private boolean isPrepared = false;
+    private boolean isIdleHandlerAdded = false;
+
+    // 统计
+    private int mHitCount;
+    private int mMissCount;
+    private int mRecycleCount;
+    private int mCreateCount;
+    private long mTotalCreateTimeMs;
+    private long mMaxCreateTimeMs;
+    private long mWarmUpTimeMs = -1;
+
+    private ByWebViewPool() {
+    }
+
+    public static ByWebViewPool getInstance() {
+        if (sInstance == null) {
+            synchronized (ByWebViewPool.class) {
+                if (sInstance == null) {
+                    sInstance = new ByWebViewPool();
+                }
+            }
+        }
+        return sInstance;
+    }
+
+    /**
+     * 开启复用池，在Application.onCreate里调用，主线程空闲时才会创建WebView
+     *
+     * @param size 池中保留的WebView个数
+     */
+    public void prepare(@NonNull Application application, int size) {
+        mAppContext = application;
+        mMaxSize = Math.max(size, 0);
+        isPrepared = true;
+        scheduleFill();
+    }
+
+    public boolean isPrepared() {
+        return isPrepared;
+    }
+
+    /**
+     * 取出一个WebView，池为空时直接创建
+     */
+    WebView acquire(Activity activity) {
+        WebView webView = mPool.poll();
+        if (webView != null) {
+            mHitCount++;
+            ((MutableContextWrapper) webView.getContext()).setBaseContext(activity);
+            // 回收前可能被onPause()暂停过
+            webView.onResume();
+        } else {
+            mMissCount++;
+            webView = create(activity);
+        }
+        scheduleFill();
+        return webView;
+    }
+
+    /**
+     * 回收WebView，重置后放回池中；池已满或不是池中创建的WebView直接销毁。
+     * 空白页加载完成后才清空前进后退记录并放回池中，loadDataWithBaseURL()是异步的
+     */
+    void recycle(WebView webView) {
+        if (webView == null) {
+            return;
+        }
+        ViewGroup parent = (ViewGroup) webView.getParent();
+        if (parent != null) {
+            parent.removeView(webView);
+        }
+        webView.stopLoading();
+        webView.removeAllViews();
+        webView.setWebChromeClient(null);
+        if (!isPrepared || mPool.size() >= mMaxSize || !(webView.getContext() instanceof MutableContextWrapper)) {
+            webView.setWebViewClient(null);
+            webView.destroy();
+            return;
+        }
+        ((MutableContextWrapper) webView.getContext()).setBaseContext(mAppContext);
+        resetSettings(webView.getSettings());
+        webView.setWebViewClient(new WebViewClient() {
+            private boolean isReset = false;
+
+            @Override
+            public void onPageFinished(WebView view, String url) {
+                if (isReset) {
+                    return;
+                }
+                isReset = true;
+                view.clearHistory();
+                view.setWebViewClient(null);
+                if (isPrepared && mPool.size() < mMaxSize) {
+                    mPool.offer(view);
+                    mRecycleCount++;
+                } else {
+                    view.destroy();
+                }
+            }
+        });
+        webView.loadDataWithBaseURL(null, "", "text/html", "utf-8", null);
+    }
+
+    /**
+     * 恢复ByWebView在handleSetting()之外修改的设置，不带到下一个使用者
+     */
+    private static void resetSettings(WebSettings settings) {
+        // API 30开始默认不允许访问文件
+        settings.setAllowFileAccess(Build.VERSION.SDK_INT < Build.VERSION_CODES.R);
+        settings.setBlockNetworkImage(false);
+        settings.setOffscreenPreRaster(false);
+        settings.setCacheMode(WebSettings.LOAD_DEFAULT);
+        settings.setTextZoom(100);
+        settings.setUserAgentString(null);
+    }
+
+    /**
+     * 清空池，如内存紧张时
+     */
+    public void clear() {
+        WebView webView;
+        while ((webView = mPool.poll()) != null) {
+            webView.destroy();
+        }
+    }
+
+    private WebView create(Context context) {
+        long start = SystemClock.uptimeMillis();
+        WebView webView = new WebView(new MutableContextWrapper(context));
+        long cost = SystemClock.uptimeMillis() - start;
+        if (mWarmUpTimeMs < 0) {
+            // 第一次创建包含了内核的加载时间
+            mWarmUpTimeMs = cost;
+        }
+        mCreateCount++;
+        mTotalCreateTimeMs += cost;
+        mMaxCreateTimeMs = Math.max(mMaxCreateTimeMs, cost);
+        return webView;
+    }
+
+    private void scheduleFill() {
+        if (!isPrepared || isIdleHandlerAdded || mPool.size() >= mMaxSize) {
+            return;
+        }
+        isIdleHandlerAdded = true;
+        Looper.getMainLooper().getQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                // 每次空闲只创建一个，避免长时间占用主线程
+                if (mPool.size() < mMaxSize) {
+                    mPool.offer(create(mAppContext));
+                }
+                isIdleHandlerAdded = mPool.size() < mMaxSize;
+                return isIdleHandlerAdded;
+            }
+        });
+    }
+
+    public int getSize() {
+        return mPool.size();
+    }
+
+    public int getHitCount() {
+        return mHitCount;
+    }
+
+    public int getMissCount() {
+        return mMissCount;
+    }
+
+    public int getRecycleCount() {
+        return mRecycleCount;
+    }
+
+    public int getCreateCount() {
+        return mCreateCount;
+    }
+
+    /**
+     * 第一次创建WebView的耗时(含内核初始化)，未创建时为-1
+     */
+    public long getWarmUpTimeMs() {
+        return mWarmUpTimeMs;
+    }
+
+    public long getAverageCreateTimeMs() {
+        return mCreateCount == 0 ? 0 : mTotalCreateTimeMs / mCreateCount;
+    }
+
+    public long getMaxCreateTimeMs() {
+        return mMaxCreateTimeMs;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "ByWebViewPool{size=" + mPool.size() + "/" + mMaxSize
+                + ", hit=" + mHitCount + ", miss=" + mMissCount + ", recycle=" + mRecycleCount
+                + ", create=" + mCreateCount + ", warmUp=" + mWarmUpTimeMs + "ms"
+                + ", avgCreate=" + getAverageCreateTimeMs() + "ms, maxCreate=" + mMaxCreateTimeMs + "ms}";
+    }
+}
@@ -18,6 +18,35 @@ public abstract class OnByWebClientCallback {
 
     }
 
+    /**
+     * 一次导航的耗时报告，需要 Builder.useNavigationTiming(true)
+     * 在下一次导航开始或销毁时回调
+     */
+    public void onNavigationReport(ByNavigationReport report) {
+
+    }
+
+    /**
+     * 渲染进程崩溃或被系统回收
+     *
+     * @param didCrash   true 崩溃，false 被系统回收
+     * @param crashCount 这个ByWebView累计的次数
+     * @return true 重新创建WebView并恢复页面，false 显示错误页面
+     */
+    public boolean onRenderProcessGone(boolean didCrash, int crashCount) {
+        return true;
+    }
+
+    /**
+     * 重新创建的WebView恢复的页面加载完成，之前获取的WebView、ByLoadJsHolder等需要重新获取
+     *
+     * @param webView         新的WebView
+     * @param recoverDuration 从崩溃到恢复的页面加载完成的耗时
+     */
+    public void onRenderProcessRecovered(WebView webView, long recoverDuration) {
+
+    }
+
     public boolean isOpenThirdApp(String url) {
         return !url.startsWith("http:") && !url.startsWith("https:");
     }
@@ -11,9 +11,13 @@ import android.graphics.Color;
 import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.Shader;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewPropertyAnimator;
+import android.view.animation.AccelerateDecelerateInterpolator;
 import android.view.animation.DecelerateInterpolator;
+import android.view.animation.Interpolator;
 import android.view.animation.LinearInterpolator;
 import android.widget.FrameLayout;
 
@@ -27,6 +31,8 @@ import androidx.annotation.Nullable;
  * 4. [2019.9.29] 修复当第一次进度返回 0 或超过 10，出现不显示进度条的问题
  * 5. 能显示渐变色
  * 6. 进度在95-100时再次开始进度条透明度问题
+ * 7. RenderThread模式：setRenderThreadMode(true)，进度和透明度通过ViewPropertyAnimator改变RenderNode的属性，
+ * 动画过程中不重绘、不创建对象，主线程繁忙时也不卡顿
  *
  * @author jingbin
  * Link to https://github.com/youlookwhat/WebProgress
@@ -97,6 +103,35 @@ public class WebProgress extends FrameLayout {
     public static final int STARTED = 1;
     public static final int FINISH = 2;
     private float mCurrentProgress = 0F;
+    /**
+     * 渐变色，按控件大小缓存Shader
+     */
+    private boolean isGradient = false;
+    private int mStartColor;
+    private int mEndColor;
+    private int mShaderWidth;
+    private int mShaderHeight;
+
+    /**
+     * RenderThread模式，复用同一个ViewPropertyAnimator，按阶段依次执行：
+     * 匀速到95 -> (结束时)减速到95 -> 到100并渐隐
+     * ViewPropertyAnimator设置了Listener或EndAction时会退回UI线程执行，阶段结束通过postDelayed()处理
+     */
+    private boolean isRenderThreadMode = false;
+    private static final int PHASE_NONE = 0;
+    private static final int PHASE_UNIFORM = 1;
+    private static final int PHASE_DECELERATE = 2;
+    private static final int PHASE_END = 3;
+    private int mPhase = PHASE_NONE;
+    private long mPhaseStartTime;
+    private final Interpolator mLinearInterpolator = new LinearInterpolator();
+    private final Interpolator mDecelerateInterpolator = new DecelerateInterpolator();
+    private final Interpolator mEndInterpolator = new AccelerateDecelerateInterpolator();
+
+    // 调试统计：创建对象(动画、Shader)的次数、绘制的帧数、RenderThread模式下动画的帧数(按时长和刷新率估算)
+    private int mAllocationCount;
+    private int mDrawCount;
+    private int mRenderThreadFrameCount;
 
     public WebProgress(Context context) {
         this(context, null);
@@ -136,8 +171,28 @@ public class WebProgress extends FrameLayout {
     }
 
     public void setColor(int startColor, int endColor) {
-        LinearGradient linearGradient = new LinearGradient(0, 0, mTargetWidth, mTargetHeight, startColor, endColor, Shader.TileMode.CLAMP);
-        mPaint.setShader(linearGradient);
+        if (isGradient && mStartColor == startColor && mEndColor == endColor) {
+            return;
+        }
+        isGradient = true;
+        mStartColor = startColor;
+        mEndColor = endColor;
+        mShaderWidth = 0;
+        updateShader(mTargetWidth, mTargetHeight);
+    }
+
+    /**
+     * 大小或颜色变化时才重新创建Shader
+     */
+    private void updateShader(int width, int height) {
+        if (!isGradient || width <= 0 || height <= 0
+                || (width == mShaderWidth && height == mShaderHeight)) {
+            return;
+        }
+        mShaderWidth = width;
+        mShaderHeight = height;
+        mPaint.setShader(new LinearGradient(0, 0, width, height, mStartColor, mEndColor, Shader.TileMode.CLAMP));
+        mAllocationCount++;
     }
 
     /**
@@ -175,13 +230,20 @@ public class WebProgress extends FrameLayout {
 
     @Override
     protected void dispatchDraw(Canvas canvas) {
-        canvas.drawRect(0, 0, mCurrentProgress / 100 * (float) this.getWidth(), this.getHeight(), mPaint);
+        mDrawCount++;
+        if (isRenderThreadMode) {
+            // 进度通过scaleX显示
+            canvas.drawRect(0, 0, this.getWidth(), this.getHeight(), mPaint);
+        } else {
+            canvas.drawRect(0, 0, mCurrentProgress / 100 * (float) this.getWidth(), this.getHeight(), mPaint);
+        }
     }
 
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         this.mTargetWidth = getMeasuredWidth();
+        updateShader(w, h);
         int screenWidth = getContext().getResources().getDisplayMetrics().widthPixels;
         if (mTargetWidth >= screenWidth) {
             CURRENT_MAX_DECELERATE_SPEED_DURATION = MAX_DECELERATE_SPEED_DURATION;
@@ -200,6 +262,10 @@ public class WebProgress extends FrameLayout {
     }
 
     private void startAnim(boolean isFinished) {
+        if (isRenderThreadMode) {
+            startRenderThreadAnim(isFinished);
+            return;
+        }
 
         float v = isFinished ? 100 : 95;
 
@@ -218,6 +284,7 @@ public class WebProgress extends FrameLayout {
             mAnimator.addUpdateListener(mAnimatorUpdateListener);
             mAnimator.start();
             this.mAnimator = mAnimator;
+            mAllocationCount += 2;
         } else {
 
             ValueAnimator segment95Animator = null;
@@ -247,11 +314,148 @@ public class WebProgress extends FrameLayout {
             mAnimatorSet.addListener(mAnimatorListenerAdapter);
             mAnimatorSet.start();
             mAnimator = mAnimatorSet;
+            mAllocationCount += segment95Animator != null ? 7 : 4;
         }
 
         TAG = STARTED;
     }
 
+    /**
+     * RenderThread模式的动画，mCurrentProgress只在阶段切换时更新
+     */
+    private void startRenderThreadAnim(boolean isFinished) {
+        ViewPropertyAnimator animator = animate();
+        cancelPhase(animator);
+        mCurrentProgress = getScaleX() * 100;
+        setAlpha(1);
+        if (!isFinished) {
+            float residue = 1f - mCurrentProgress / 100 - 0.05f;
+            startPhase(animator.setInterpolator(mLinearInterpolator).scaleX(0.95f),
+                    PHASE_UNIFORM, (long) Math.max(residue * CURRENT_MAX_UNIFORM_SPEED_DURATION, 0));
+        } else if (mCurrentProgress < 95) {
+            float residue = 1f - mCurrentProgress / 100f - 0.05f;
+            startPhase(animator.setInterpolator(mDecelerateInterpolator).scaleX(0.95f),
+                    PHASE_DECELERATE, (long) Math.max(residue * CURRENT_MAX_DECELERATE_SPEED_DURATION, 0));
+        } else {
+            startEndPhase(animator);
+        }
+        TAG = STARTED;
+    }
+
+    private void startEndPhase(ViewPropertyAnimator animator) {
+        startPhase(animator.setInterpolator(mEndInterpolator).scaleX(1f).alpha(0f), PHASE_END, DO_END_ALPHA_DURATION);
+    }
+
+    private void startPhase(ViewPropertyAnimator animator, int phase, long duration) {
+        mPhase = phase;
+        mPhaseStartTime = SystemClock.uptimeMillis();
+        animator.setDuration(duration);
+        postDelayed(mPhaseEndRunnable, duration);
+    }
+
+    /**
+     * 取消当前阶段；不设置Listener，保证在RenderThread上执行
+     */
+    private void cancelPhase(ViewPropertyAnimator animator) {
+        removeCallbacks(mPhaseEndRunnable);
+        animator.setListener(null);
+        animator.cancel();
+        if (mPhase != PHASE_NONE) {
+            countRenderThreadFrames();
+            mPhase = PHASE_NONE;
+        }
+    }
+
+    private void countRenderThreadFrames() {
+        float refreshRate = getDisplay() != null ? getDisplay().getRefreshRate() : 60f;
+        mRenderThreadFrameCount += (int) ((SystemClock.uptimeMillis() - mPhaseStartTime) * refreshRate / 1000);
+    }
+
+    private final Runnable mPhaseEndRunnable = new Runnable() {
+        @Override
+        public void run() {
+            countRenderThreadFrames();
+            if (mPhase == PHASE_DECELERATE) {
+                mCurrentProgress = 95;
+                startEndPhase(animate());
+            } else if (mPhase == PHASE_END) {
+                mPhase = PHASE_NONE;
+                mCurrentProgress = 100;
+                doEnd();
+            } else {
+                mPhase = PHASE_NONE;
+                mCurrentProgress = 95;
+            }
+        }
+    };
+
+    /**
+     * 开启后进度和透明度在RenderThread上更新，动画过程中不重绘；渐变色会随进度缩放
+     */
+    public void setRenderThreadMode(boolean renderThreadMode) {
+        if (isRenderThreadMode == renderThreadMode) {
+            return;
+        }
+        cancelAnim();
+        isRenderThreadMode = renderThreadMode;
+        if (renderThreadMode) {
+            setPivotX(0);
+            setScaleX(mCurrentProgress / 100);
+        } else {
+            setScaleX(1f);
+        }
+        invalidate();
+    }
+
+    public boolean isRenderThreadMode() {
+        return isRenderThreadMode;
+    }
+
+    private void cancelAnim() {
+        if (mAnimator != null && mAnimator.isStarted()) {
+            mAnimator.cancel();
+        }
+        if (mPhase != PHASE_NONE) {
+            cancelPhase(animate());
+            mCurrentProgress = getScaleX() * 100;
+        }
+    }
+
+    /**
+     * 调试用：创建对象(动画、Shader)的次数
+     */
+    public int getAllocationCount() {
+        return mAllocationCount;
+    }
+
+    /**
+     * 调试用：绘制的帧数，RenderThread模式下动画过程中不增加
+     */
+    public int getDrawCount() {
+        return mDrawCount;
+    }
+
+    /**
+     * 调试用：RenderThread模式下动画的帧数，按动画时长和屏幕刷新率估算
+     */
+    public int getRenderThreadFrameCount() {
+        return mRenderThreadFrameCount;
+    }
+
+    /**
+     * 调试用：平均每帧创建对象的次数，帧数包括UI线程绘制的帧和RenderThread动画的帧
+     */
+    public float getAllocationsPerFrame() {
+        int frames = mDrawCount + mRenderThreadFrameCount;
+        return frames == 0 ? 0f : mAllocationCount / (float) frames;
+    }
+
+    public void resetDebugCount() {
+        mAllocationCount = 0;
+        mDrawCount = 0;
+        mRenderThreadFrameCount = 0;
+    }
+
     private ValueAnimator.AnimatorUpdateListener mAnimatorUpdateListener = new ValueAnimator.AnimatorUpdateListener() {
         @Override
         public void onAnimationUpdate(ValueAnimator animation) {
@@ -278,6 +482,9 @@ public class WebProgress extends FrameLayout {
             mAnimator.cancel();
             mAnimator = null;
         }
+        if (mPhase != PHASE_NONE) {
+            cancelPhase(animate());
+        }
     }
 
     private void doEnd() {
@@ -285,14 +492,18 @@ public class WebProgress extends FrameLayout {
             setVisibility(GONE);
             mCurrentProgress = 0f;
             this.setAlpha(1f);
+            if (isRenderThreadMode) {
+                setScaleX(0f);
+            }
         }
         TAG = UN_START;
     }
 
     public void reset() {
+        cancelAnim();
         mCurrentProgress = 0;
-        if (mAnimator != null && mAnimator.isStarted()) {
-            mAnimator.cancel();
+        if (isRenderThreadMode) {
+            setScaleX(0f);
         }
     }
 
@@ -340,6 +551,10 @@ public class WebProgress extends FrameLayout {
         isShow = true;
         setVisibility(View.VISIBLE);
         mCurrentProgress = 0f;
+        if (isRenderThreadMode) {
+            cancelPhase(animate());
+            setScaleX(0f);
+        }
         startAnim(false);
     }
 
@@ -0,0 +1,200 @@
+package me.jingbin.web;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * 使用本地HTTP服务测试分段下载、续传和校验
+ */
+public class ByChunkDownloaderTest {
+
+    private static final int LENGTH = 1024 * 1024 + 123;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private HttpServer mServer;
+    private byte[] mData;
+    private String mSha256;
+    private volatile String mEtag = "\"v1\"";
+    private volatile boolean isRangeSupported = true;
+    /**
+     * 大于0时，每个响应只发送一半就断开，模拟断网
+     */
+    private final AtomicInteger mDropCount = new AtomicInteger();
+    private final AtomicInteger mRangeRequestCount = new AtomicInteger();
+    private final AtomicLong mSentBytes = new AtomicLong();
+
+    @Before
+    public void setUp() throws Exception {
+        mData = new byte[LENGTH];
+        new Random(1).nextBytes(mData);
+        mSha256 = ByWebTools.toHex(MessageDigest.getInstance("SHA-256").digest(mData));
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/app.apk", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.start();
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    private String url() {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + "/app.apk";
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        exchange.getResponseHeaders().set("ETag", mEtag);
+        int start = 0;
+        int end = LENGTH - 1;
+        int code = 200;
+        if (isRangeSupported && range != null && (ifRange == null || ifRange.equals(mEtag))) {
+            String[] parts = range.substring("bytes=".length()).split("-");
+            start = Integer.parseInt(parts[0]);
+            end = Math.min(end, Integer.parseInt(parts[1]));
+            code = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + LENGTH);
+            mRangeRequestCount.incrementAndGet();
+        }
+        int length = end - start + 1;
+        exchange.sendResponseHeaders(code, length);
+        OutputStream output = exchange.getResponseBody();
+        try {
+            if (length > 1 && mDropCount.getAndDecrement() > 0) {
+                output.write(mData, start, length / 2);
+                output.flush();
+                mSentBytes.addAndGet(length / 2);
+                // 没有写完就关闭连接
+                throw new IOException("drop");
+            }
+            output.write(mData, start, length);
+            mSentBytes.addAndGet(length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private ByChunkDownloader newDownloader(int maxRetries) {
+        return new ByChunkDownloader(mFolder.getRoot(), CHUNK_SIZE, 4, 5000, maxRetries);
+    }
+
+    @Test
+    public void downloadsChunksInParallel() throws Exception {
+        final AtomicLong lastProgress = new AtomicLong();
+        File file = newDownloader(0).download(url(), "app.apk", mSha256, new ByChunkDownloader.Listener() {
+            @Override
+            public void onProgress(long downloaded, long total) {
+                assertEquals(LENGTH, total);
+                lastProgress.set(downloaded);
+            }
+        });
+
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+        assertEquals(LENGTH, lastProgress.get());
+        // 探测请求 + 每段一个请求
+        assertEquals(1 + (LENGTH + CHUNK_SIZE - 1) / CHUNK_SIZE, mRangeRequestCount.get());
+        assertFalse(new File(mFolder.getRoot(), "app.apk.properties").exists());
+        assertFalse(new File(mFolder.getRoot(), "app.apk.tmp").exists());
+    }
+
+    @Test
+    public void resumesAfterConnectionDrop() throws Exception {
+        mDropCount.set(Integer.MAX_VALUE);
+        try {
+            newDownloader(0).download(url(), "app.apk", mSha256, null);
+            fail();
+        } catch (IOException expected) {
+        }
+        assertTrue(new File(mFolder.getRoot(), "app.apk.properties").exists());
+
+        mDropCount.set(0);
+        mSentBytes.set(0);
+        File file = newDownloader(0).download(url(), "app.apk", mSha256, null);
+
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+        // 只下载了剩下的部分
+        assertTrue(mSentBytes.get() < LENGTH);
+    }
+
+    @Test
+    public void retriesDroppedChunks() throws Exception {
+        mDropCount.set(3);
+        File file = newDownloader(3).download(url(), "app.apk", mSha256, null);
+
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void restartsWhenFileChanged() throws Exception {
+        mDropCount.set(Integer.MAX_VALUE);
+        try {
+            newDownloader(0).download(url(), "app.apk", mSha256, null);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        mDropCount.set(0);
+        mSentBytes.set(0);
+        mEtag = "\"v2\"";
+        File file = newDownloader(0).download(url(), "app.apk", mSha256, null);
+
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+        assertTrue(mSentBytes.get() >= LENGTH);
+    }
+
+    @Test
+    public void deletesFileWhenSha256Mismatch() throws Exception {
+        try {
+            newDownloader(0).download(url(), "app.apk", "00", null);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        assertFalse(new File(mFolder.getRoot(), "app.apk").exists());
+        assertFalse(new File(mFolder.getRoot(), "app.apk.tmp").exists());
+        assertFalse(new File(mFolder.getRoot(), "app.apk.properties").exists());
+    }
+
+    @Test
+    public void downloadsWithoutRangeSupport() throws Exception {
+        isRangeSupported = false;
+        File file = newDownloader(0).download(url(), "app.apk", mSha256, null);
+
+        assertArrayEquals(mData, Files.readAllBytes(file.toPath()));
+        assertEquals(0, mRangeRequestCount.get());
+    }
+}
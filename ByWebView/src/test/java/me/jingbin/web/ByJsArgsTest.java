@@ -0,0 +1,71 @@
+package me.jingbin.web;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * 字符串转义后写入js代码，不能结束字符串或脚本
+ */
+public class ByJsArgsTest {
+
+    private static String write(String value) {
+        StringBuilder sb = new StringBuilder();
+        ByJsArgs.writeString(sb, value);
+        return sb.toString();
+    }
+
+    @Test
+    public void quotesAndBackslashes() {
+        assertEquals("\"a\\\"b\"", write("a\"b"));
+        assertEquals("\"a\\\\b\"", write("a\\b"));
+        // 反斜杠在引号前，不能把转义后的引号还原
+        assertEquals("\"\\\\\\\");alert(1);//\"", write("\\\");alert(1);//"));
+        assertEquals("\"'\"", write("'"));
+    }
+
+    @Test
+    public void lineTerminators() {
+        assertEquals("\"a\\nb\\rc\"", write("a\nb\rc"));
+        assertEquals("\"\\u2028\\u2029\"", write("\u2028\u2029"));
+    }
+
+    @Test
+    public void controlCharacters() {
+        assertEquals("\"\\t\\b\\f\"", write("\t\b\f"));
+        assertEquals("\"\\u0000\\u001f\"", write("\u0000\u001f"));
+    }
+
+    @Test
+    public void scriptEndTag() {
+        String js = write("</script><script>alert(1)</script>");
+        assertFalse(js.contains("</"));
+        assertEquals("\"<\\/script><script>alert(1)<\\/script>\"", js);
+        // 其他位置的/不转义
+        assertEquals("\"a/b\"", write("a/b"));
+    }
+
+    @Test
+    public void textLooksLikeJson() {
+        // 不会被当作数组执行
+        assertEquals("\"[图片]\"", ByJsArgs.create().add("[图片]").toString());
+        assertEquals("\"{\\\"a\\\":1}\"", ByJsArgs.create().add("{\"a\":1}").toString());
+    }
+
+    @Test
+    public void args() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("k\"", Arrays.asList(1, "v\n", null));
+        String js = ByJsArgs.create()
+                .add(1).add(1.5).add(true).add((CharSequence) null)
+                .add(map)
+                .addJson("{\"a\":1}")
+                .toString();
+        assertEquals("1,1.5,true,null,{\"k\\\"\":[1,\"v\\n\",null]},{\"a\":1}", js);
+    }
+}